@@ -0,0 +1,61 @@
+package ru.cazyx.semperante.learnProject;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import ru.cazyx.semperante.learnProject.dto.responses.MessageResponse;
+import ru.cazyx.semperante.learnProject.entities.LearnUser;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Замер сериализации ответов в JSON. ObjectMapper настроен как в спринге
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JsonSerializationBenchmark {
+   /**
+    * Размер страницы сообщений
+    */
+   @Param({"20"})
+   private int pageSize;
+
+   private ObjectMapper objectMapper;
+   private Page<MessageResponse> page;
+   private LearnUser user;
+
+   @Setup
+   public void setup() {
+      objectMapper = Jackson2ObjectMapperBuilder.json()
+              .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS) //Как в Spring Boot
+              .build();
+      Timestamp now = new Timestamp(System.currentTimeMillis());
+      List<MessageResponse> messages = new ArrayList<>();
+      for (int i = 0; i < pageSize; i++) {
+         messages.add(new MessageResponse((long) i, "Benchmark message text " + i, now, "benchmark", LearnUser.UserRole.USER));
+      }
+      page = new PageImpl<>(messages, PageRequest.of(0, pageSize), 10_000);
+      user = new LearnUser("benchmark", "benchmark@test.test", "digest", LearnUser.UserRole.USER);
+      user.setId(42L);
+      user.setRegisteredAt(now);
+   }
+
+   @Benchmark
+   public String messagesPage() throws JsonProcessingException {
+      return objectMapper.writeValueAsString(page);
+   }
+
+   @Benchmark
+   public String learnUser() throws JsonProcessingException {
+      return objectMapper.writeValueAsString(user);
+   }
+}
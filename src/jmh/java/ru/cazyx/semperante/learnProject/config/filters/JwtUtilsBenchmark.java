@@ -0,0 +1,67 @@
+package ru.cazyx.semperante.learnProject.config.filters;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import ru.cazyx.semperante.learnProject.entities.LearnUser;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Замер кодирования и проверки JWT (HMAC512) - выполняется на каждый авторизованный запрос.
+ * <p>
+ * decode - полная проверка без кэша (как было), decodeCacheHit - повторный токен из {@link VerifiedTokenCache},
+ * decodeCacheMiss - новый для кэша токен: полная проверка плюс запись в кэш
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JwtUtilsBenchmark {
+   /**
+    * Сколько разных токенов перебирает decodeCacheMiss. Кэш в десять раз меньше, поэтому токен к следующему кругу уже вытеснен
+    */
+   private static final int MISS_TOKENS = 100_000;
+
+   private JwtUtils jwtUtils;
+   private JwtUtils cachedJwtUtils;
+   private AuthorizedUser user;
+   private String token;
+   private String[] missTokens;
+   private int missIndex;
+
+   @Setup
+   public void setup() {
+      SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+      jwtUtils = new JwtUtils("benchmarkSalt", meterRegistry, new VerifiedTokenCache(false, 0, meterRegistry));
+      cachedJwtUtils = new JwtUtils("benchmarkSalt", meterRegistry, new VerifiedTokenCache(true, MISS_TOKENS / 10, meterRegistry));
+      user = new AuthorizedUser(42L, "benchmark", LearnUser.UserRole.USER, 0);
+      token = jwtUtils.encode(user);
+      cachedJwtUtils.decode(token); //Прогреваем кэш для decodeCacheHit
+      missTokens = new String[MISS_TOKENS];
+      for (int i = 0; i < MISS_TOKENS; i++) {
+         missTokens[i] = jwtUtils.encode(new AuthorizedUser((long) i, "benchmark" + i, LearnUser.UserRole.USER, 0));
+      }
+   }
+
+   @Benchmark
+   public String encode() {
+      return jwtUtils.encode(user);
+   }
+
+   @Benchmark
+   public AuthorizedUser decode() {
+      return jwtUtils.decode(token);
+   }
+
+   @Benchmark
+   public AuthorizedUser decodeCacheHit() {
+      //Новая строка, как из заголовка очередного запроса: у неё ещё не посчитан hashCode и это другой объект
+      return cachedJwtUtils.decode(new String(token));
+   }
+
+   @Benchmark
+   public AuthorizedUser decodeCacheMiss() {
+      String next = missTokens[missIndex];
+      missIndex = (missIndex + 1) % MISS_TOKENS;
+      return cachedJwtUtils.decode(next);
+   }
+}
@@ -0,0 +1,92 @@
+package ru.cazyx.semperante.learnProject.services;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.cazyx.semperante.learnProject.TestProjectApplication;
+import ru.cazyx.semperante.learnProject.dto.responses.MessageResponse;
+import ru.cazyx.semperante.learnProject.entities.UserMessage;
+import ru.cazyx.semperante.learnProject.entities.repositories.MessageProjectionRepository;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Чтение страницы из 100 сообщений: через сущности JPA (как было) и через JDBC сразу в модель ответа ({@link MessageProjectionRepository}).
+ * <p>
+ * Приложение запускается целиком на встроенном PostgreSQL, оба варианта выполняются в транзакции только для чтения, как в сервисе.
+ * Выделение памяти на одну страницу - строка gc.alloc.rate.norm профайлера gc (включен в build.gradle)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MessagePageBenchmark {
+   private static final int PAGE = 100;
+
+   private EmbeddedPostgres postgres;
+   private ConfigurableApplicationContext context;
+   private TransactionTemplate readOnly;
+   private EntityManager entityManager;
+   private MessageProjectionRepository projectionRepository;
+
+   @Setup
+   public void setup() throws IOException {
+      postgres = EmbeddedPostgres.start();
+      //Аргументами командной строки, а не .properties(): те - лишь значения по-умолчанию, и application.yml их перекрывает
+      context = new SpringApplicationBuilder(TestProjectApplication.class)
+              .run(
+                      "--spring.datasource.url=" + postgres.getJdbcUrl("postgres", "postgres"),
+                      "--spring.datasource.username=postgres",
+                      "--spring.r2dbc.url=r2dbc:postgresql://localhost:" + postgres.getPort() + "/postgres",
+                      "--spring.r2dbc.username=postgres",
+                      "--spring.message-feed.pg-notify=false",
+                      "--spring.jpa.properties.hibernate.generate_statistics=false",
+                      "--server.port=0",
+                      "--logging.level.root=WARN");
+      JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+      jdbcTemplate.update("INSERT INTO learn_users (login, email, password_digest) VALUES ('bench', 'bench@bench.test', 'digest')");
+      jdbcTemplate.update("INSERT INTO learn_user_messages (author_id, message) "
+              + "SELECT (SELECT id FROM learn_users WHERE login = 'bench'), 'Benchmark message number ' || g FROM generate_series(1, 1000) g");
+      jdbcTemplate.execute("ANALYZE");
+
+      readOnly = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+      readOnly.setReadOnly(true);
+      entityManager = SharedEntityManagerCreator.createSharedEntityManager(context.getBean(EntityManagerFactory.class));
+      projectionRepository = context.getBean(MessageProjectionRepository.class);
+   }
+
+   @TearDown
+   public void tearDown() throws IOException {
+      context.close();
+      postgres.close();
+   }
+
+   /**
+    * Как было: сущности сообщения и автора, затем преобразование в ответ
+    */
+   @Benchmark
+   public List<MessageResponse> jpaEntities() {
+      return readOnly.execute(status -> entityManager
+              .createQuery("SELECT m FROM UserMessage m JOIN FETCH m.learnUser ORDER BY m.sentAt DESC, m.id DESC", UserMessage.class)
+              .setMaxResults(PAGE)
+              .getResultStream()
+              .map(MessageService::messageToResponse)
+              .toList());
+   }
+
+   /**
+    * Как стало: только нужные столбцы сразу в ответ
+    */
+   @Benchmark
+   public List<MessageResponse> jdbcProjection() {
+      return readOnly.execute(status -> projectionRepository.findFirstPage(PAGE));
+   }
+}
@@ -0,0 +1,33 @@
+package ru.cazyx.semperante.learnProject.services;
+
+import org.openjdk.jmh.annotations.*;
+import ru.cazyx.semperante.learnProject.dto.responses.MessageResponse;
+import ru.cazyx.semperante.learnProject.entities.LearnUser;
+import ru.cazyx.semperante.learnProject.entities.UserMessage;
+
+import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Замер преобразования сущности сообщения в ответ - выполняется для каждого сообщения каждой страницы
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MessageServiceBenchmark {
+   private UserMessage message;
+
+   @Setup
+   public void setup() {
+      LearnUser author = new LearnUser("benchmark", "benchmark@test.test", "digest", LearnUser.UserRole.USER);
+      author.setId(42L);
+      message = new UserMessage(author, "Benchmark message text");
+      message.setId(1000L);
+      message.setSentAt(new Timestamp(System.currentTimeMillis()));
+   }
+
+   @Benchmark
+   public MessageResponse messageToResponse() {
+      return MessageService.messageToResponse(message);
+   }
+}
@@ -0,0 +1,40 @@
+package ru.cazyx.semperante.learnProject.services;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Замеры авторизации: генерация refresh-токена и проверка пароля BCrypt
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+public class UserServiceBenchmark {
+   /**
+    * Стоимость BCrypt. По-умолчанию как в spring.password-hashing.strength, другую можно задать в jmh.benchmarkParameters (build.gradle)
+    */
+   @Param({"10"})
+   private int strength;
+
+   private BCryptPasswordEncoder encoder;
+   private String digest;
+
+   @Setup
+   public void setup() {
+      encoder = new BCryptPasswordEncoder(strength);
+      digest = encoder.encode("benchmarkPassword");
+   }
+
+   @Benchmark
+   @OutputTimeUnit(TimeUnit.NANOSECONDS)
+   public String generateRefreshToken() {
+      return UserService.generateRefreshToken();
+   }
+
+   @Benchmark
+   @OutputTimeUnit(TimeUnit.MILLISECONDS)
+   public boolean bcryptMatches() {
+      return encoder.matches("benchmarkPassword", digest);
+   }
+}
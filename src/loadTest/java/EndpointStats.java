@@ -0,0 +1,75 @@
+import java.util.Arrays;
+
+/**
+ * Задержки запросов одного роута. Каждый виртуальный пользователь ведет свою статистику, в конце они сливаются через {@link #merge(EndpointStats)},
+ * поэтому во время замера потоки не конкурируют за общую структуру.
+ */
+public class EndpointStats {
+    private long[] latencies = new long[256];
+    private int count;
+    private long errors;
+
+    /**
+     * Записать успешный запрос
+     *
+     * @param nanos Задержка в нс
+     */
+    public void record(long nanos) {
+        if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+        }
+        latencies[count++] = nanos;
+    }
+
+    /**
+     * Записать неуспешный запрос
+     */
+    public void error() {
+        errors++;
+    }
+
+    /**
+     * @return Количество успешных запросов
+     */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * Добавить к себе статистику другого пользователя
+     *
+     * @param other Статистика того же роута
+     */
+    public void merge(EndpointStats other) {
+        latencies = Arrays.copyOf(latencies, Math.max(latencies.length, count + other.count));
+        System.arraycopy(other.latencies, 0, latencies, count, other.count);
+        count += other.count;
+        errors += other.errors;
+    }
+
+    /**
+     * Строка отчета
+     *
+     * @param endpoint Название роута
+     * @param seconds  Длительность замера в секундах
+     * @return Строка таблицы: количество, ошибки, запросов в секунду, p50/p99/p999 в мс
+     */
+    public String report(String endpoint, double seconds) {
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        return String.format("%-16s %9d %7d %10.1f %9.2f %9.2f %9.2f",
+                endpoint, count, errors, count / seconds,
+                percentile(sorted, 0.50), percentile(sorted, 0.99), percentile(sorted, 0.999));
+    }
+
+    /**
+     * Перцентиль отсортированных задержек в мс
+     */
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+        return sorted[Math.max(index, 0)] / 1_000_000.0;
+    }
+}
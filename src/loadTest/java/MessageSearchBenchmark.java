@@ -0,0 +1,177 @@
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import ru.cazyx.semperante.learnProject.TestProjectApplication;
+import ru.cazyx.semperante.learnProject.dto.responses.CursorPageResponse;
+import ru.cazyx.semperante.learnProject.dto.responses.MessageSearchResponse;
+import ru.cazyx.semperante.learnProject.services.MessageService;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Замер задержки полнотекстового поиска (GET /v1/messages/search) на большой таблице сообщений.
+ * <p>
+ * Схема создается настоящими миграциями Flyway (столбец message_tsv и GIN индекс), таблица заполняется случайными
+ * сообщениями из словаря. Частоты слов неравномерные: первые слова встречаются в большой доле сообщений, последние - редко,
+ * поэтому видно, как время зависит от количества найденных сообщений (релевантность считается для каждого из них).
+ * <p>
+ * Запуск: ./gradlew searchBenchmark [-PsearchBenchmarkRows=10000000 -PsearchBenchmarkRepeats=50].
+ * Заполнение 10 млн строк занимает несколько минут. Результат - в build/reports/load-test/search.txt
+ */
+@SpringBootTest(classes = TestProjectApplication.class, properties = {
+        "spring.jpa.hibernate.ddl-auto=none",
+        "spring.liquibase.enabled=false",
+        "spring.flyway.enabled=true",
+        "spring.jpa.show-sql=false"
+})
+
+@ActiveProfiles("test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class MessageSearchBenchmark {
+    private static final long ROWS = Long.getLong("searchBenchmark.rows", 10_000_000L);
+    private static final int REPEATS = Integer.getInteger("searchBenchmark.repeats", 50);
+    private static final Path REPORT = Path.of(System.getProperty("searchBenchmark.reportFile", "build/reports/load-test/search.txt"));
+    /**
+     * Вставка порциями, чтобы видеть прогресс и не держать одну огромную транзакцию
+     */
+    private static final long CHUNK = 1_000_000L;
+    /**
+     * Словарь. Чем раньше слово - тем чаще оно встречается
+     */
+    private static final String[] WORDS = {
+            "привет", "сообщение", "сегодня", "работа", "проект", "вопрос", "время", "спасибо", "встреча", "задача",
+            "сервер", "ошибка", "база", "данные", "запрос", "ответ", "пользователь", "пароль", "страница", "поиск",
+            "release", "deploy", "backend", "frontend", "database", "index", "cache", "latency", "throughput", "replica",
+            "погода", "отпуск", "обед", "кофе", "музыка", "книга", "фильм", "дорога", "город", "море",
+            "кластер", "миграция", "транзакция", "блокировка", "планировщик", "статистика", "вакуум", "партиция", "реплика", "снапшот"
+    };
+    /**
+     * Что ищем: частое слово, среднее, редкое, два слова, фраза, исключение
+     */
+    private static final Map<String, String> QUERIES = new LinkedHashMap<>();
+
+    static {
+        QUERIES.put("common", "сообщение");
+        QUERIES.put("medium", "database");
+        QUERIES.put("rare", "снапшот");
+        QUERIES.put("two-words", "сервер ошибка");
+        QUERIES.put("phrase", "\"база данные\"");
+        QUERIES.put("exclude", "кофе -обед");
+    }
+
+    private static final EmbeddedPostgres POSTGRES = startPostgres();
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MessageService messageService;
+
+    @Autowired
+    private ConfigurableApplicationContext context;
+
+    @DynamicPropertySource
+    static void database(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", () -> POSTGRES.getJdbcUrl("postgres", "postgres"));
+        registry.add("spring.datasource.username", () -> "postgres");
+        registry.add("spring.r2dbc.url", () -> "r2dbc:postgresql://localhost:" + POSTGRES.getPort() + "/postgres");
+        registry.add("spring.r2dbc.username", () -> "postgres");
+    }
+
+    @AfterAll
+    public void stopDatabase() throws IOException {
+        context.close();
+        POSTGRES.close();
+    }
+
+    @Test
+    public void searchLatency() throws Exception {
+        fill();
+
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format("rows=%d repeats=%d", ROWS, REPEATS));
+        lines.add(String.format("%-16s %9s %7s %10s %9s %9s %9s", "query", "requests", "errors", "req/s", "p50 ms", "p99 ms", "p999 ms"));
+        for (Map.Entry<String, String> query : QUERIES.entrySet()) {
+            lines.add(measure(query.getKey() + "/first", query.getValue(), false));
+            lines.add(measure(query.getKey() + "/next", query.getValue(), true));
+        }
+        lines.forEach(System.out::println);
+        Files.createDirectories(REPORT.getParent());
+        Files.write(REPORT, lines);
+    }
+
+    /**
+     * Заполнить таблицу: один автор, ROWS сообщений по 8 слов из словаря.
+     * Номер слова - floor(N * random()^3): маленькие номера выпадают гораздо чаще больших
+     */
+    private void fill() {
+        jdbcTemplate.update("INSERT INTO learn_users (login, email, password_digest) VALUES ('search', 'search@bench.test', 'digest')");
+        Long authorId = jdbcTemplate.queryForObject("SELECT id FROM learn_users WHERE login = 'search'", Long.class);
+        String word = "(ARRAY['" + String.join("','", WORDS) + "'])[1 + floor(" + WORDS.length + " * random() ^ 3)::int]";
+        String text = String.join(" || ' ' || ", Collections.nCopies(8, word));
+        for (long done = 0; done < ROWS; done += CHUNK) {
+            long start = System.nanoTime();
+            jdbcTemplate.update("INSERT INTO learn_user_messages (author_id, message, sent_at) "
+                    + "SELECT ?, " + text + ", CURRENT_TIMESTAMP - g * INTERVAL '1 second' FROM generate_series(1, ?) g",
+                    authorId, Math.min(CHUNK, ROWS - done));
+            System.out.printf("filled %d/%d rows (%.1f s)%n", Math.min(done + CHUNK, ROWS), ROWS, (System.nanoTime() - start) / 1e9);
+        }
+        jdbcTemplate.execute("VACUUM ANALYZE learn_user_messages");
+    }
+
+    /**
+     * Замерить один запрос
+     *
+     * @param name  Название строки отчета
+     * @param query Поисковый запрос
+     * @param next  true - замерять пятую страницу (по курсору), false - первую
+     * @return Строка отчета
+     */
+    private String measure(String name, String query, boolean next) {
+        String cursor = null;
+        if (next) {
+            for (int i = 0; i < 4 && (i == 0 || cursor != null); i++) {
+                cursor = messageService.searchMessages(query, 20, cursor).nextCursor();
+            }
+        }
+        for (int i = 0; i < 3; i++) { //Прогрев
+            messageService.searchMessages(query, 20, cursor);
+        }
+        EndpointStats stats = new EndpointStats();
+        long begin = System.nanoTime();
+        for (int i = 0; i < REPEATS; i++) {
+            long start = System.nanoTime();
+            CursorPageResponse<MessageSearchResponse> page = messageService.searchMessages(query, 20, cursor);
+            stats.record(System.nanoTime() - start);
+            assertFalse(page.items().isEmpty(), "Nothing found for " + query);
+        }
+        return stats.report(name, (System.nanoTime() - begin) / 1e9);
+    }
+
+    private static EmbeddedPostgres startPostgres() {
+        try {
+            return EmbeddedPostgres.start();
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
@@ -0,0 +1,282 @@
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import ru.cazyx.semperante.learnProject.TestProjectApplication;
+import ru.cazyx.semperante.learnProject.dto.requests.AuthRequest;
+import ru.cazyx.semperante.learnProject.dto.requests.RegisterRequest;
+import ru.cazyx.semperante.learnProject.dto.requests.SingleValueRequest;
+import ru.cazyx.semperante.learnProject.dto.responses.AuthorizationResponse;
+import ru.cazyx.semperante.learnProject.dto.responses.MessageResponse;
+import ru.cazyx.semperante.learnProject.entities.LearnUser;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Нагрузочный тест всего приложения через настоящий HTTP: смесь регистраций, входов, перевыпусков токена, чтения, отправки и редактирования сообщений.
+ * <p>
+ * Работает без внешней БД и без сети: поднимается встроенный PostgreSQL (бинарники приходят вместе с зависимостью),
+ * поэтому все нативные запросы (ротация токенов, LISTEN/NOTIFY, advisory lock) выполняются так же, как в проде.
+ * <p>
+ * Запуск: ./gradlew loadTest [-PloadTestUsers=50 -PloadTestDuration=60 -PloadTestWarmup=10].
+ * По итогу печатается и сохраняется в build/reports/load-test/report.txt таблица по роутам: количество, ошибки, запросов в секунду, p50/p99/p999.
+ */
+@SpringBootTest(classes = TestProjectApplication.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.liquibase.enabled=false",
+        "spring.flyway.enabled=false",
+        "spring.jpa.show-sql=false"
+})
+
+@ActiveProfiles("test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class MixedTrafficLoadTest {
+    private static final int USERS = Integer.getInteger("loadTest.users", 50);
+    private static final Duration WARMUP = Duration.ofSeconds(Long.getLong("loadTest.warmupSeconds", 10));
+    private static final Duration DURATION = Duration.ofSeconds(Long.getLong("loadTest.durationSeconds", 60));
+    private static final Path REPORT = Path.of(System.getProperty("loadTest.reportFile", "build/reports/load-test/report.txt"));
+    private static final String PASSWORD = "12345678";
+    /**
+     * Роуты в порядке вывода в отчете
+     */
+    private static final List<String> ENDPOINTS = List.of("register", "login", "refresh", "list", "create", "edit");
+
+    /**
+     * Встроенный PostgreSQL. Запускается до старта приложения, т.к. его адрес нужен в настройках
+     */
+    private static final EmbeddedPostgres POSTGRES = startPostgres();
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private ConfigurableApplicationContext context;
+
+    private HttpClient client;
+
+    @DynamicPropertySource
+    static void database(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", () -> POSTGRES.getJdbcUrl("postgres", "postgres") + "&reWriteBatchedInserts=true");
+        registry.add("spring.datasource.username", () -> "postgres");
+        registry.add("spring.r2dbc.url", () -> "r2dbc:postgresql://localhost:" + POSTGRES.getPort() + "/postgres");
+        registry.add("spring.r2dbc.username", () -> "postgres");
+    }
+
+    @AfterAll
+    public void stopDatabase() throws IOException {
+        context.close(); //Сначала приложение, иначе при остановке оно будет ругаться на пропавшую БД
+        POSTGRES.close();
+    }
+
+    @Test
+    public void mixedTraffic() throws Exception {
+        client = HttpClient.newBuilder().executor(Executors.newVirtualThreadPerTaskExecutor()).build();
+        long start = System.nanoTime();
+        long measureFrom = start + WARMUP.toNanos();
+        long deadline = measureFrom + DURATION.toNanos();
+
+        List<Future<Map<String, EndpointStats>>> futures = new ArrayList<>();
+        try (ExecutorService users = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < USERS; i++) {
+                //Каждый пятый - модератор, только они редактируют сообщения
+                futures.add(users.submit(new VirtualUser(i, i % 5 == 0, measureFrom, deadline)::run));
+            }
+        }
+
+        Map<String, EndpointStats> total = new LinkedHashMap<>();
+        ENDPOINTS.forEach(endpoint -> total.put(endpoint, new EndpointStats()));
+        for (Future<Map<String, EndpointStats>> future : futures) {
+            future.get().forEach((endpoint, stats) -> total.get(endpoint).merge(stats));
+        }
+
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format("users=%d warmup=%ds duration=%ds", USERS, WARMUP.toSeconds(), DURATION.toSeconds()));
+        lines.add(String.format("%-16s %9s %7s %10s %9s %9s %9s", "endpoint", "requests", "errors", "req/s", "p50 ms", "p99 ms", "p999 ms"));
+        total.forEach((endpoint, stats) -> lines.add(stats.report(endpoint, DURATION.toSeconds())));
+        lines.forEach(System.out::println);
+        Files.createDirectories(REPORT.getParent());
+        Files.write(REPORT, lines);
+
+        assertTrue(total.get("list").count() > 0, "No successful list requests during the run");
+    }
+
+    /**
+     * Виртуальный пользователь: регистрируется и дальше в цикле делает случайные действия с заданными весами
+     */
+    private final class VirtualUser {
+        private final int index;
+        private final boolean moderator;
+        private final long measureFrom;
+        private final long deadline;
+        private final Map<String, EndpointStats> stats = new LinkedHashMap<>();
+        private int accounts;
+        private String login;
+        private String token;
+        private String refreshToken;
+        private Long lastMessageId;
+
+        private VirtualUser(int index, boolean moderator, long measureFrom, long deadline) {
+            this.index = index;
+            this.moderator = moderator;
+            this.measureFrom = measureFrom;
+            this.deadline = deadline;
+            ENDPOINTS.forEach(endpoint -> stats.put(endpoint, new EndpointStats()));
+        }
+
+        private Map<String, EndpointStats> run() throws Exception {
+            register();
+            while (System.nanoTime() < deadline) {
+                int dice = ThreadLocalRandom.current().nextInt(100);
+                if (dice < 50) {
+                    list();
+                }
+                else if (dice < 70) {
+                    create();
+                }
+                else if (dice < 80) {
+                    if (moderator && lastMessageId != null) {
+                        edit();
+                    }
+                    else {
+                        list();
+                    }
+                }
+                else if (dice < 90) {
+                    refresh();
+                }
+                else if (dice < 97) {
+                    login();
+                }
+                else {
+                    register(); //Новый пользователь пришел на место старого
+                }
+            }
+            return stats;
+        }
+
+        private void register() throws Exception {
+            login = "u" + index + "n" + accounts++;
+            RegisterRequest request = new RegisterRequest(login, login + "@load.test", PASSWORD, PASSWORD,
+                    moderator ? LearnUser.UserRole.MODERATOR : LearnUser.UserRole.USER);
+            send("register", json("/v1/user/register", request).build());
+            lastMessageId = null;
+            login();
+        }
+
+        private void login() throws Exception {
+            HttpResponse<String> response = send("login", json("/v1/user/login", new AuthRequest(login, PASSWORD)).build());
+            if (response.statusCode() == 200) {
+                authorized(response);
+            }
+        }
+
+        private void refresh() throws Exception {
+            HttpRequest request = HttpRequest.newBuilder(uri("/v1/user/refresh-token"))
+                    .header("Authorization-Refresh", refreshToken)
+                    .POST(HttpRequest.BodyPublishers.noBody()).build();
+            HttpResponse<String> response = send("refresh", request);
+            if (response.statusCode() == 200) {
+                authorized(response);
+            }
+            else {
+                login(); //Токен не приняли - входим заново
+            }
+        }
+
+        private void list() throws Exception {
+            send("list", HttpRequest.newBuilder(uri("/v1/messages/cursor?limit=20")).header("Authorization", token).GET().build());
+        }
+
+        private void create() throws Exception {
+            HttpResponse<String> response = send("create", json("/v1/messages", new SingleValueRequest<>("Load test message from " + login))
+                    .header("Authorization", token).build());
+            if (response.statusCode() == 200) {
+                lastMessageId = objectMapper.readValue(response.body(), MessageResponse.class).id();
+            }
+        }
+
+        private void edit() throws Exception {
+            HttpRequest request = HttpRequest.newBuilder(uri("/v1/messages/moderator/edit/" + lastMessageId))
+                    .header("Content-Type", "application/json")
+                    .header("Authorization", token)
+                    .PUT(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(new SingleValueRequest<>("Edited by " + login))))
+                    .build();
+            send("edit", request);
+        }
+
+        private void authorized(HttpResponse<String> response) throws IOException {
+            AuthorizationResponse tokens = objectMapper.readValue(response.body(), AuthorizationResponse.class);
+            token = tokens.token();
+            refreshToken = tokens.refreshToken();
+        }
+
+        /**
+         * Отправить запрос и записать задержку, если прогрев уже закончился
+         */
+        private HttpResponse<String> send(String endpoint, HttpRequest request) throws Exception {
+            long start = System.nanoTime();
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            long took = System.nanoTime() - start;
+            if (start >= measureFrom && start < deadline) {
+                if (response.statusCode() / 100 == 2) {
+                    stats.get(endpoint).record(took);
+                }
+                else {
+                    stats.get(endpoint).error();
+                }
+            }
+            return response;
+        }
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + port + path);
+    }
+
+    /**
+     * Заготовка POST запроса с JSON телом
+     */
+    private HttpRequest.Builder json(String path, Object body) throws IOException {
+        return HttpRequest.newBuilder(uri(path))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(body)));
+    }
+
+    private static EmbeddedPostgres startPostgres() {
+        try {
+            return EmbeddedPostgres.start();
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package ru.cazyx.semperante.learnProject.config;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Обертка над пулом подключений, ограничивающая количество одновременно выданных подключений семафором.
+ * <p>
+ * Нужна в режиме виртуальных потоков: запросов одновременно может быть тысячи, а подключений в пуле всего несколько.
+ * Без ограничителя все они встают в очередь внутри Hikari и драйвера, где часть ожиданий сделана через synchronized
+ * и привязывает виртуальный поток к потоку-носителю. Семафор же паркует виртуальный поток честно и отдает подключения по очереди.
+ * <p>
+ * Разрешение возвращается при закрытии подключения (возврате его в пул), ровно один раз.
+ */
+public class LimitedDataSource extends DelegatingDataSource {
+   /**
+    * Разрешения на подключения. Честный - кто раньше пришел, тот раньше получит
+    */
+   private final Semaphore permits;
+   /**
+    * Сколько мс ждать подключения, прежде чем вернуть ошибку
+    */
+   private final long waitMillis;
+
+   /**
+    * Конструктор
+    *
+    * @param target      Пул подключений
+    * @param maxInFlight Максимум одновременно выданных подключений (обычно размер пула)
+    * @param waitMillis  Сколько мс ждать подключения
+    */
+   public LimitedDataSource(DataSource target, int maxInFlight, long waitMillis) {
+      super(target);
+      this.permits = new Semaphore(maxInFlight, true);
+      this.waitMillis = waitMillis;
+   }
+
+   @Override
+   public Connection getConnection() throws SQLException {
+      acquire();
+      try {
+         return limited(super.getConnection());
+      }
+      catch (SQLException | RuntimeException ex) {
+         permits.release();
+         throw ex;
+      }
+   }
+
+   @Override
+   public Connection getConnection(String username, String password) throws SQLException {
+      acquire();
+      try {
+         return limited(super.getConnection(username, password));
+      }
+      catch (SQLException | RuntimeException ex) {
+         permits.release();
+         throw ex;
+      }
+   }
+
+   /**
+    * @return Сколько потоков сейчас ждут подключения
+    */
+   public int getQueueLength() {
+      return permits.getQueueLength();
+   }
+
+   /**
+    * Взять разрешение или бросить ошибку по таймауту
+    */
+   private void acquire() throws SQLException {
+      try {
+         if (!permits.tryAcquire(waitMillis, TimeUnit.MILLISECONDS)) {
+            throw new SQLTransientConnectionException("Connection is not available, request timed out after " + waitMillis + "ms");
+         }
+      }
+      catch (InterruptedException ex) {
+         Thread.currentThread().interrupt();
+         throw new SQLTransientConnectionException("Interrupted while waiting for connection", ex);
+      }
+   }
+
+   /**
+    * Обернуть подключение так, чтобы close() возвращал разрешение. Остальные методы уходят в настоящее подключение
+    */
+   private Connection limited(Connection target) {
+      AtomicBoolean released = new AtomicBoolean();
+      return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+         switch (method.getName()) {
+            case "close" -> {
+               try {
+                  target.close();
+               }
+               finally {
+                  if (released.compareAndSet(false, true)) { //Повторный close() не должен вернуть лишнее разрешение
+                     permits.release();
+                  }
+               }
+               return null;
+            }
+            case "equals" -> {
+               return proxy == args[0];
+            }
+            case "hashCode" -> {
+               return System.identityHashCode(proxy);
+            }
+            default -> {
+               try {
+                  return method.invoke(target, args);
+               }
+               catch (InvocationTargetException ex) {
+                  throw ex.getTargetException();
+               }
+            }
+         }
+      });
+   }
+}
@@ -0,0 +1,217 @@
+package ru.cazyx.semperante.learnProject.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Хэширование и проверка паролей на отдельном ограниченном пуле потоков.
+ * <p>
+ * BCrypt специально сделан медленным (десятки-сотни миллисекунд процессора на пароль). Если считать его прямо в потоке запроса,
+ * всплеск авторизаций займет все потоки Tomcat и процессор, и остальные запросы (например, сообщения) встанут в очередь.
+ * <p>
+ * Здесь хэши считаются на пуле из нескольких потоков с ограниченной очередью. Когда очередь заполнена, новые запросы сразу получают 503,
+ * вместо того чтобы копиться и держать потоки сервера.
+ * <p>
+ * Дополнительно при старте можно откалибровать стоимость (strength) BCrypt под целевое время одного хэша на текущем железе.
+ */
+@Component
+public class PasswordHasher {
+   private static final Logger log = LoggerFactory.getLogger(PasswordHasher.class);
+   /**
+    * Стоимость внутри BCrypt хэша: $2a$10$... - 10 это и есть strength
+    */
+   private static final Pattern BCRYPT_STRENGTH = Pattern.compile("^\\$2[abxy]?\\$(\\d\\d)\\$");
+   /**
+    * Максимальная стоимость, которую поддерживает BCrypt
+    */
+   private static final int MAX_STRENGTH = 31;
+
+   /**
+    * Сам кодировщик
+    */
+   private final BCryptPasswordEncoder encoder;
+   /**
+    * Используемая стоимость
+    */
+   private final int strength;
+   /**
+    * Пул потоков для хэширования
+    */
+   private final ThreadPoolExecutor executor;
+   /**
+    * Время хэширования и проверки пароля на пуле (метрика password.hashing, без ожидания в очереди)
+    */
+   private final Timer encodeTimer;
+   private final Timer matchesTimer;
+   /**
+    * Сколько запросов получили 503 из-за заполненной очереди
+    */
+   private final Counter rejected;
+
+   /**
+    * Конструктор компонента
+    *
+    * @param strength     Стоимость BCrypt, если калибровка выключена (spring.password-hashing.strength)
+    * @param targetMillis Целевое время одного хэша в мс. 0 - калибровка выключена (spring.password-hashing.target-millis)
+    * @param minStrength  Нижняя граница стоимости при калибровке (spring.password-hashing.min-strength)
+    * @param threads      Количество потоков. 0 - по количеству ядер (spring.password-hashing.threads)
+    * @param queueSize    Размер очереди ожидающих хэширования запросов (spring.password-hashing.queue-size)
+    * @param meterRegistry Реестр метрик
+    */
+   public PasswordHasher(@Value("${spring.password-hashing.strength:10}") int strength,
+                         @Value("${spring.password-hashing.target-millis:0}") long targetMillis,
+                         @Value("${spring.password-hashing.min-strength:10}") int minStrength,
+                         @Value("${spring.password-hashing.threads:0}") int threads,
+                         @Value("${spring.password-hashing.queue-size:64}") int queueSize,
+                         MeterRegistry meterRegistry) {
+      this.strength = targetMillis > 0 ? calibrate(targetMillis, minStrength) : strength;
+      this.encoder = new BCryptPasswordEncoder(this.strength);
+      int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+      this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+              new ArrayBlockingQueue<>(queueSize), //Ограниченная очередь
+              new CustomizableThreadFactory("bcrypt-"),
+              new ThreadPoolExecutor.AbortPolicy()); //Очередь заполнена - RejectedExecutionException, который превратим в 503
+      this.encodeTimer = Timer.builder("password.hashing").tag("operation", "encode").register(meterRegistry);
+      this.matchesTimer = Timer.builder("password.hashing").tag("operation", "matches").register(meterRegistry);
+      this.rejected = Counter.builder("password.hashing.rejected").description("Requests rejected because the hashing queue is full").register(meterRegistry);
+      Gauge.builder("password.hashing.queue", executor, e -> e.getQueue().size()).description("Requests waiting for a hashing thread").register(meterRegistry);
+      Gauge.builder("password.hashing.active", executor, ThreadPoolExecutor::getActiveCount).description("Hashing threads busy").register(meterRegistry);
+   }
+
+   /**
+    * Захэшировать пароль
+    *
+    * @param rawPassword Пароль
+    * @return Хэш пароля
+    */
+   public String encode(String rawPassword) {
+      return submit(() -> encodeTimer.recordCallable(() -> encoder.encode(rawPassword)));
+   }
+
+   /**
+    * Проверить пароль
+    *
+    * @param rawPassword Введенный пароль
+    * @param digest      Хэш из БД
+    * @return true - если пароль верный
+    */
+   public boolean matches(String rawPassword, String digest) {
+      return submit(() -> matchesTimer.recordCallable(() -> encoder.matches(rawPassword, digest)));
+   }
+
+   /**
+    * Нужно ли перехэшировать пароль - хэш из БД посчитан с меньшей стоимостью, чем настроена сейчас.
+    * <p>
+    * Только меньшей: при калибровке узлы на разном железе выбирают разную стоимость, и при сравнении "не равно"
+    * хэш перезаписывался бы при каждом входе через "другой" узел. Более дорогой хэш и так не слабее настроенного
+    *
+    * @param digest Хэш из БД
+    * @return true - если стоимость хэша ниже текущей
+    */
+   public boolean needsRehash(String digest) {
+      Matcher matcher = BCRYPT_STRENGTH.matcher(digest);
+      return matcher.find() && Integer.parseInt(matcher.group(1)) < strength;
+   }
+
+   /**
+    * @return Кодировщик (для настроек SpringSecurity)
+    */
+   public BCryptPasswordEncoder getEncoder() {
+      return encoder;
+   }
+
+   /**
+    * @return Используемая стоимость BCrypt
+    */
+   public int getStrength() {
+      return strength;
+   }
+
+   /**
+    * Останавливаем пул при остановке приложения
+    */
+   @PreDestroy
+   public void shutdown() {
+      executor.shutdown();
+   }
+
+   /**
+    * Выполнить задачу на пуле и дождаться результата
+    *
+    * @param task Задача
+    * @param <T>  Тип результата
+    * @return Результат задачи
+    */
+   private <T> T submit(Callable<T> task) {
+      Future<T> future;
+      try {
+         future = executor.submit(task);
+      }
+      catch (RejectedExecutionException ex) { //Очередь заполнена - сбрасываем нагрузку
+         rejected.increment();
+         throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many authorization requests, try again later");
+      }
+      try {
+         return future.get();
+      }
+      catch (InterruptedException ex) {
+         future.cancel(true);
+         Thread.currentThread().interrupt();
+         throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Request interrupted");
+      }
+      catch (ExecutionException ex) {
+         if (ex.getCause() instanceof RuntimeException r) {
+            throw r;
+         }
+         throw new IllegalStateException(ex.getCause());
+      }
+   }
+
+   /**
+    * Подобрать стоимость BCrypt под целевое время хэша.
+    * <p>
+    * Каждая следующая стоимость в 2 раза дороже предыдущей, поэтому идем вверх от минимальной,
+    * пока время хэша не превысит цель, и берем последнюю подходящую.
+    *
+    * @param targetMillis Целевое время одного хэша
+    * @param minStrength  Ниже этой стоимости не опускаемся, даже если железо медленное
+    * @return Подобранная стоимость
+    */
+   static int calibrate(long targetMillis, int minStrength) {
+      new BCryptPasswordEncoder(4).encode("warmup"); //Прогрев JIT, чтобы первый замер не был завышен
+      int chosen = minStrength;
+      for (int candidate = minStrength; candidate <= MAX_STRENGTH; candidate++) {
+         BCryptPasswordEncoder probe = new BCryptPasswordEncoder(candidate);
+         long start = System.nanoTime();
+         probe.encode("calibration");
+         long tookMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+         if (tookMillis > targetMillis) {
+            break;
+         }
+         chosen = candidate;
+      }
+      log.info("BCrypt strength calibrated to {} for target {} ms per hash", chosen, targetMillis);
+      return chosen;
+   }
+}
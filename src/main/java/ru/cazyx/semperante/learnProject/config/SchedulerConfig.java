@@ -1,10 +1,14 @@
 package ru.cazyx.semperante.learnProject.config;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.annotation.Scheduled;
-import org.springframework.transaction.annotation.Transactional;
-import ru.cazyx.semperante.learnProject.entities.repositories.RefreshTokenRepository;
+import ru.cazyx.semperante.learnProject.services.LoginBloomFilter;
+import ru.cazyx.semperante.learnProject.services.MessageCounter;
+import ru.cazyx.semperante.learnProject.services.MessagePartitionMaintenance;
+import ru.cazyx.semperante.learnProject.services.RefreshTokenSweeper;
 
 import java.util.concurrent.TimeUnit;
 
@@ -17,27 +21,86 @@ import java.util.concurrent.TimeUnit;
 @Configuration
 @EnableScheduling
 public class SchedulerConfig {
+   private static final Logger log = LoggerFactory.getLogger(SchedulerConfig.class);
    /**
-    * Репозитория с refresh токенами пользователей
+    * Чистка истекших refresh токенов пользователей
     */
-   private final RefreshTokenRepository refreshTokenRepository;
+   private final RefreshTokenSweeper refreshTokenSweeper;
+   /**
+    * Сервис общего количества сообщений
+    */
+   private final MessageCounter messageCounter;
+   /**
+    * Фильтр Блума занятых логинов
+    */
+   private final LoginBloomFilter loginBloomFilter;
+   /**
+    * Обслуживание секций таблицы сообщений
+    */
+   private final MessagePartitionMaintenance messagePartitionMaintenance;
 
    /**
     * Конструктор для спринга
     *
-    * @param refreshTokenRepository Репозитория которая будет подкидываться инъекцией
+    * @param refreshTokenSweeper Сервис чистки токенов, который будет подкидываться инъекцией
+    * @param messageCounter      Сервис общего количества сообщений
+    * @param loginBloomFilter    Фильтр Блума занятых логинов
+    * @param messagePartitionMaintenance Обслуживание секций таблицы сообщений
     */
-   public SchedulerConfig(RefreshTokenRepository refreshTokenRepository) {
-      this.refreshTokenRepository = refreshTokenRepository;
+   public SchedulerConfig(RefreshTokenSweeper refreshTokenSweeper, MessageCounter messageCounter,
+                          LoginBloomFilter loginBloomFilter, MessagePartitionMaintenance messagePartitionMaintenance) {
+      this.refreshTokenSweeper = refreshTokenSweeper;
+      this.messageCounter = messageCounter;
+      this.loginBloomFilter = loginBloomFilter;
+      this.messagePartitionMaintenance = messagePartitionMaintenance;
    }
 
    /**
-    * Раз в 5 минут запускаем транзакцию
-    * Внутри которой удаляем все истекшие refresh-токены из БД
+    * Раз в 5 минут удаляем все истекшие refresh-токены из БД.
+    * <p>
+    * Удаление идет порциями в отдельных транзакциях, поэтому метод специально НЕ помечен @Transactional.
+    * Если экземпляров приложения несколько, чистку выполнит только тот, кто первым возьмет блокировку (см. {@link RefreshTokenSweeper})
     */
    @Scheduled(fixedRate = 5, timeUnit = TimeUnit.MINUTES)
-   @Transactional
    public void doDeleteExpiredTokens() {
-      refreshTokenRepository.deleteExpired(); //Вызов метода для удаления
+      RefreshTokenSweeper.SweepResult result = refreshTokenSweeper.sweep(); //Вызов метода для удаления
+      if (result.executed()) {
+         log.info("Expired refresh tokens sweep: deleted {} rows in {} ms", result.deleted(), result.millis());
+      }
+      else {
+         log.debug("Expired refresh tokens sweep skipped: another instance holds the lock");
+      }
+   }
+
+   /**
+    * Периодически обновляем оценку общего количества сообщений, чтобы запросы списка брали её из памяти.
+    * Период задается в spring.messages-count.refresh-seconds (по-умолчанию раз в минуту)
+    */
+   @Scheduled(fixedRateString = "${spring.messages-count.refresh-seconds:60}", timeUnit = TimeUnit.SECONDS)
+   public void doRefreshMessagesCount() {
+      messageCounter.refresh();
+   }
+
+   /**
+    * Пересобираем фильтр Блума занятых логинов из БД: подхватываем регистрации на других экземплярах и забываем удаленных пользователей.
+    * Первая сборка - после старта приложения, поэтому initialDelay равен периоду.
+    * Период задается в spring.login-availability.rebuild-minutes
+    */
+   @Scheduled(fixedDelayString = "${spring.login-availability.rebuild-minutes:10}",
+           initialDelayString = "${spring.login-availability.rebuild-minutes:10}", timeUnit = TimeUnit.MINUTES)
+   public void doRebuildLoginBloomFilter() {
+      loginBloomFilter.rebuild();
+   }
+
+   /**
+    * Создаем секции сообщений вперед и удаляем устаревшие. Первый раз - сразу при старте (после долгого простоя секций вперед может не остаться).
+    * Период задается в spring.message-partitions.check-hours
+    */
+   @Scheduled(fixedDelayString = "${spring.message-partitions.check-hours:6}", timeUnit = TimeUnit.HOURS)
+   public void doMaintainMessagePartitions() {
+      MessagePartitionMaintenance.MaintenanceResult result = messagePartitionMaintenance.maintain();
+      if (!result.created().isEmpty() || !result.dropped().isEmpty()) {
+         log.info("Message partitions: created {}, dropped {}", result.created(), result.dropped());
+      }
    }
 }
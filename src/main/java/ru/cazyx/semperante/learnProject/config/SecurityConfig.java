@@ -6,15 +6,16 @@ import io.swagger.v3.oas.annotations.enums.SecuritySchemeType;
 import io.swagger.v3.oas.annotations.security.SecurityScheme;
 import io.swagger.v3.oas.annotations.servers.Server;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 import ru.cazyx.semperante.learnProject.config.filters.JwtFilter;
+import ru.cazyx.semperante.learnProject.config.ratelimit.RateLimitFilter;
 
 //Настройки для Сваггера (юрлы куда будут кидаться запросы и тэги внутри доки)
 @OpenAPIDefinition(servers = {
@@ -35,14 +36,24 @@ import ru.cazyx.semperante.learnProject.config.filters.JwtFilter;
 
 public class SecurityConfig {
    private final JwtFilter filter;
+   private final RateLimitFilter rateLimitFilter;
+   /**
+    * Открыт ли /actuator/prometheus без авторизации
+    */
+   private final boolean publicPrometheus;
 
    /**
     * Конструктор для спринга
     *
-    * @param filter Класс-Фильтр для JWT инициализирующийся инъекцией зависимостей
+    * @param filter           Класс-Фильтр для JWT инициализирующийся инъекцией зависимостей
+    * @param rateLimitFilter  Фильтр ограничения частоты входа, регистрации и перевыпуска токена
+    * @param publicPrometheus Отдавать метрики без авторизации (spring.prometheus-endpoint.public). По-умолчанию - только ADMIN
     */
-   public SecurityConfig(JwtFilter filter) {
+   public SecurityConfig(JwtFilter filter, RateLimitFilter rateLimitFilter,
+                         @Value("${spring.prometheus-endpoint.public:false}") boolean publicPrometheus) {
       this.filter = filter;
+      this.rateLimitFilter = rateLimitFilter;
+      this.publicPrometheus = publicPrometheus;
    }
 
    /**
@@ -50,11 +61,12 @@ public class SecurityConfig {
     * <p>
     * Аннотация @Bean - говорит о том, что объект, возвращаемый этим метод необходимо добавить в список классов, подходящих для инъекций
     *
+    * @param passwordHasher Компонент хэширования паролей. Кодировщик берем у него, чтобы стоимость BCrypt везде была одна (в т.ч. откалиброванная)
     * @return Класс, который будет хэшировать пароли. В данном случае алгоритмом будет BCrypt
     */
    @Bean
-   public PasswordEncoder getEncoder() {
-      return new BCryptPasswordEncoder();
+   public PasswordEncoder getEncoder(PasswordHasher passwordHasher) {
+      return passwordHasher.getEncoder();
    }
 
    /**
@@ -75,11 +87,16 @@ public class SecurityConfig {
                       "/v1/user/login", //Запрос авторизации
                       "/v1/user/logout", //Запрос выхода из учетки
                       "/v1/user/register", //Запрос Регистрации
+                      "/v1/user/available", //Проверка, свободен ли логин (форма регистрации)
                       "/api-docs-op/**", //Документация
                       "/api-docs/**", // Документация
-                      "/swagger-ui/**" //Документация
+                      "/swagger-ui/**", //Документация
+                      "/actuator/health" //Проверка здоровья для балансировщика
               ).permitAll() //permitAll() - Не требуют авторизации
 
+              .antMatchers("/actuator/prometheus") //Метрики раскрывают роуты, нагрузку и состояние пулов - открываются всем только явной настройкой
+              .access(publicPrometheus ? "permitAll" : "hasRole('ADMIN')")
+
               .antMatchers("/v1/**/moderator/**")//Запросы подходящие регулярке /v1/.*/moderator/.*
               .hasAnyRole("MODERATOR", "ADMIN")//Требуют роли MODERATOR или ADMIN
 
@@ -87,7 +104,8 @@ public class SecurityConfig {
               .hasRole("ADMIN") //Требуют роли админа
               .anyRequest().authenticated() //Остальные запросы, не подходящие под описанные в блоках antMatches, подходят любой АВТОРИЗОВАННОЙ роли
               .and()
-              .addFilterBefore(filter, UsernamePasswordAuthenticationFilter.class);//Добавляем наш JWT фильтр перед стандартным фильтром проверки авторизации запросов
+              .addFilterBefore(filter, UsernamePasswordAuthenticationFilter.class)//Добавляем наш JWT фильтр перед стандартным фильтром проверки авторизации запросов
+              .addFilterBefore(rateLimitFilter, JwtFilter.class);//Ограничение частоты - ещё раньше, отклоненные запросы не тратят ни процессор, ни БД
       return http.build();
    }
 }
@@ -0,0 +1,75 @@
+package ru.cazyx.semperante.learnProject.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.util.concurrent.Executors;
+
+/**
+ * Режим обработки запросов на виртуальных потоках (Java 21). Включается настройкой spring.virtual-request-threads.enabled
+ * (не spring.virtual-threads.enabled: так называется настройка Spring Boot 3.2, и после обновления она бы включала ещё и его механизм).
+ * <p>
+ * Обычно на каждый запрос Tomcat берет поток из пула (по-умолчанию 200), и поток простаивает, пока ждет БД или BCrypt.
+ * В этом режиме каждый запрос получает свой виртуальный поток: пока он ждет, поток-носитель занимается другими запросами.
+ * То же самое для задач по расписанию.
+ * <p>
+ * Подключений к БД от этого больше не становится, поэтому перед пулом ставится {@link LimitedDataSource}.
+ * Драйвер PostgreSQL нужен не ниже 42.6: в более старых запросы к БД идут под synchronized и занимают поток-носитель на всё время ожидания.
+ * Пул хэширования паролей остается на обычных потоках - там работа для процессора, а не ожидание.
+ */
+@Configuration
+@ConditionalOnProperty(name = "spring.virtual-request-threads.enabled", havingValue = "true")
+public class VirtualThreadsConfig {
+
+   /**
+    * Tomcat выполняет каждый запрос в новом виртуальном потоке вместо своего пула
+    *
+    * @return Настройка протокола Tomcat
+    */
+   @Bean
+   public TomcatProtocolHandlerCustomizer<?> virtualThreadsProtocolHandlerCustomizer() {
+      return protocolHandler -> protocolHandler.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+   }
+
+   /**
+    * Планировщик для @Scheduled на виртуальных потоках.
+    * Спринг не создает свой планировщик, если такой бин уже есть
+    *
+    * @return Планировщик
+    */
+   @Bean
+   public ThreadPoolTaskScheduler taskScheduler() {
+      ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+      scheduler.setPoolSize(4); //Задачи по расписанию не должны ждать друг друга
+      scheduler.setThreadFactory(Thread.ofVirtual().name("scheduling-", 0).factory());
+      return scheduler;
+   }
+
+   /**
+    * Оборачиваем пул подключений в ограничитель по количеству подключений в пуле.
+    * <p>
+    * Метод статический: BeanPostProcessor создается раньше остальных бинов, и ему не нужен экземпляр этой настройки
+    *
+    * @param environment Настройки приложения
+    * @return Обработчик бинов, заменяющий HikariDataSource на {@link LimitedDataSource}
+    */
+   @Bean
+   public static BeanPostProcessor limitedDataSourcePostProcessor(Environment environment) {
+      long waitMillis = environment.getProperty("spring.virtual-request-threads.connection-wait-millis", Long.class, 30000L);
+      return new BeanPostProcessor() {
+         @Override
+         public Object postProcessAfterInitialization(Object bean, String beanName) {
+            if (bean instanceof HikariDataSource hikari) {
+               return new LimitedDataSource(hikari, hikari.getMaximumPoolSize(), waitMillis);
+            }
+            return bean;
+         }
+      };
+   }
+}
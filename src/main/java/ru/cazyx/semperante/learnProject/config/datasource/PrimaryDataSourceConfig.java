@@ -0,0 +1,34 @@
+package ru.cazyx.semperante.learnProject.config.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Пул подключений к основной БД из spring.datasource.
+ * <p>
+ * Объявляется вручную, т.к. со стартером R2DBC спринг свой пул JDBC не создает: DataSourceAutoConfiguration
+ * выключается, как только есть R2DBC ConnectionFactory. Без этого бина JPA, Flyway и JdbcTemplate остались бы без подключений.
+ * <p>
+ * Без реплик этот пул и есть источник подключений приложения. С репликами (spring.replicas.enabled) поверх него
+ * строится маршрутизация, см. {@link ReplicaDataSourceConfig}.
+ */
+@Configuration
+@EnableConfigurationProperties(DataSourceProperties.class)
+public class PrimaryDataSourceConfig {
+
+   /**
+    * Пул основной БД. Настройки берутся из spring.datasource и spring.datasource.hikari, как у пула по-умолчанию
+    *
+    * @param properties Настройки spring.datasource
+    * @return Пул подключений к основной БД
+    */
+   @Bean
+   @ConfigurationProperties("spring.datasource.hikari")
+   public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+      return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+   }
+}
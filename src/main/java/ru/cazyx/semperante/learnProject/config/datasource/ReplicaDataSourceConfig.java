@@ -0,0 +1,70 @@
+package ru.cazyx.semperante.learnProject.config.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Настройка чтения с реплик. Включается spring.replicas.enabled, реплики перечисляются в spring.replicas.nodes.
+ * <p>
+ * К пулу основной БД ({@link PrimaryDataSourceConfig}) добавляются пул на каждую реплику
+ * и {@link ReplicaRoutingDataSource} поверх них. Наружу (JPA, JdbcTemplate, Flyway) отдается он же, обернутый в LazyConnectionDataSourceProxy.
+ */
+@Configuration
+@ConditionalOnProperty(name = "spring.replicas.enabled", havingValue = "true")
+@EnableConfigurationProperties(ReplicaProperties.class)
+public class ReplicaDataSourceConfig {
+
+   /**
+    * Маршрутизация между основной БД и репликами.
+    * Пулы реплик создаются тут же и закрываются самой маршрутизацией при остановке приложения ({@link ReplicaRoutingDataSource#destroy()})
+    *
+    * @param primaryDataSource Пул основной БД
+    * @param properties        Настройки реплик
+    * @param meterRegistry     Реестр метрик (метрики hikaricp.* для пулов реплик)
+    * @return Маршрутизирующий источник подключений
+    */
+   @Bean
+   public ReplicaRoutingDataSource replicaRoutingDataSource(@Qualifier("primaryDataSource") DataSource primaryDataSource,
+                                                            ReplicaProperties properties, MeterRegistry meterRegistry) {
+      Map<String, DataSource> replicas = new LinkedHashMap<>();
+      for (ReplicaProperties.Replica node : properties.getNodes()) {
+         HikariDataSource pool = new HikariDataSource();
+         pool.setPoolName("replica-" + node.getName());
+         pool.setJdbcUrl(node.getUrl());
+         pool.setUsername(node.getUsername());
+         pool.setPassword(node.getPassword());
+         pool.setMaximumPoolSize(node.getMaximumPoolSize());
+         pool.setReadOnly(true); //На реплику всё равно нельзя писать
+         pool.setConnectionTimeout(2000); //Недоступная реплика должна быстро уступать основной БД
+         pool.setInitializationFailTimeout(-1); //Недоступная при старте реплика не должна мешать запуску приложения
+         pool.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+         replicas.put(node.getName(), pool);
+      }
+      return new ReplicaRoutingDataSource(primaryDataSource, replicas, properties.getMaxLagMillis(), properties.getReadYourWritesMillis());
+   }
+
+   /**
+    * Источник подключений, который используется всем приложением (JPA, JdbcTemplate, Flyway).
+    * LazyConnectionDataSourceProxy берет настоящее подключение только при первом запросе, когда уже известно, readOnly ли транзакция
+    *
+    * @param routing Маршрутизация между основной БД и репликами
+    * @return Источник подключений
+    */
+   @Bean
+   @Primary
+   public DataSource dataSource(ReplicaRoutingDataSource routing) {
+      return new LazyConnectionDataSourceProxy(routing);
+   }
+}
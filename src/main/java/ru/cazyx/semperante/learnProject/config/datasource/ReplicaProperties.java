@@ -0,0 +1,133 @@
+package ru.cazyx.semperante.learnProject.config.datasource;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Настройки реплик для чтения (spring.replicas)
+ * <p>
+ * Аннотация @ConfigurationProperties говорит спрингу заполнить поля класса из конфига по префиксу.
+ * Удобнее, чем @Value, когда настроек много и среди них есть списки.
+ */
+@ConfigurationProperties(prefix = "spring.replicas")
+public class ReplicaProperties {
+   /**
+    * Включена ли маршрутизация на реплики
+    */
+   private boolean enabled;
+   /**
+    * Как часто проверять реплики, в секундах
+    */
+   private long healthCheckSeconds = 10;
+   /**
+    * Максимально допустимое отставание реплики в мс. Реплика, отставшая сильнее, считается недоступной
+    */
+   private long maxLagMillis = 5000;
+   /**
+    * Сколько мс после своей записи пользователь читает с основной БД (чтобы увидеть свои изменения)
+    */
+   private long readYourWritesMillis = 5000;
+   /**
+    * Сами реплики
+    */
+   private List<Replica> nodes = new ArrayList<>();
+
+   public boolean isEnabled() {
+      return enabled;
+   }
+
+   public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+   }
+
+   public long getHealthCheckSeconds() {
+      return healthCheckSeconds;
+   }
+
+   public void setHealthCheckSeconds(long healthCheckSeconds) {
+      this.healthCheckSeconds = healthCheckSeconds;
+   }
+
+   public long getMaxLagMillis() {
+      return maxLagMillis;
+   }
+
+   public void setMaxLagMillis(long maxLagMillis) {
+      this.maxLagMillis = maxLagMillis;
+   }
+
+   public long getReadYourWritesMillis() {
+      return readYourWritesMillis;
+   }
+
+   public void setReadYourWritesMillis(long readYourWritesMillis) {
+      this.readYourWritesMillis = readYourWritesMillis;
+   }
+
+   public List<Replica> getNodes() {
+      return nodes;
+   }
+
+   public void setNodes(List<Replica> nodes) {
+      this.nodes = nodes;
+   }
+
+   /**
+    * Подключение к одной реплике
+    */
+   public static class Replica {
+      /**
+       * Имя реплики (для логов и метрик)
+       */
+      private String name;
+      private String url;
+      private String username;
+      private String password;
+      /**
+       * Размер пула подключений к реплике
+       */
+      private int maximumPoolSize = 5;
+
+      public String getName() {
+         return name;
+      }
+
+      public void setName(String name) {
+         this.name = name;
+      }
+
+      public String getUrl() {
+         return url;
+      }
+
+      public void setUrl(String url) {
+         this.url = url;
+      }
+
+      public String getUsername() {
+         return username;
+      }
+
+      public void setUsername(String username) {
+         this.username = username;
+      }
+
+      public String getPassword() {
+         return password;
+      }
+
+      public void setPassword(String password) {
+         this.password = password;
+      }
+
+      public int getMaximumPoolSize() {
+         return maximumPoolSize;
+      }
+
+      public void setMaximumPoolSize(int maximumPoolSize) {
+         this.maximumPoolSize = maximumPoolSize;
+      }
+   }
+}
@@ -0,0 +1,280 @@
+package ru.cazyx.semperante.learnProject.config.datasource;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.cazyx.semperante.learnProject.config.filters.AuthorizedUser;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Маршрутизация подключений: транзакции только для чтения (@Transactional(readOnly = true)) идут на реплики,
+ * всё остальное - на основную БД.
+ * <p>
+ * Реплика выбирается по кругу из доступных. Доступность проверяется периодически ({@link #checkReplicas()}):
+ * реплика должна отвечать и отставать от основной БД не больше заданного. Если реплика не дала подключение прямо при запросе,
+ * она помечается недоступной, а запрос идет на основную БД. Нет доступных реплик - всё читается с основной.
+ * <p>
+ * Чтение своих записей (read-your-writes): реплика отстает от основной БД, и пользователь, только что отправивший
+ * или отредактировавший сообщение, мог бы не увидеть его в списке. Поэтому после любой пишущей транзакции пользователь
+ * некоторое время читает с основной БД. Отметка хранится в памяти экземпляра приложения.
+ * <p>
+ * Большим чтениям, которым отставание в несколько секунд не важно (выгрузки), это правило не нужно: они помечаются {@link #preferReplica()}
+ * и идут на реплику, даже если пользователь только что писал, чтобы не занимать надолго подключение основной БД.
+ * <p>
+ * Решение о маршруте принимается при получении подключения, поэтому сверху обязательно должен стоять LazyConnectionDataSourceProxy:
+ * иначе JPA берет подключение в начале транзакции, когда признак readOnly ещё не выставлен.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource implements DisposableBean {
+   private static final Logger log = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+   /**
+    * Ключ основной БД
+    */
+   public static final String PRIMARY = "primary";
+
+   private final DataSource primary;
+   private final List<ReplicaNode> replicas;
+   private final long maxLagMillis;
+   /**
+    * Пользователи, недавно писавшие в БД. ИД пользователя -> отметка. Запись живет readYourWritesMillis
+    */
+   private final Cache<Long, Boolean> recentWriters;
+   /**
+    * Счетчик для выбора реплики по кругу
+    */
+   private final AtomicInteger next = new AtomicInteger();
+   /**
+    * Признак "читать с реплики, даже если пользователь недавно писал" для текущего потока (см. {@link #preferReplica()})
+    */
+   private static final ThreadLocal<Boolean> REPLICA_PREFERRED = new ThreadLocal<>();
+   /**
+    * Отставание реплики в мс:
+    * -- не реплика (например, вторая независимая БД для тестов) - 0;
+    * -- весь полученный WAL применен - 0, даже если последняя транзакция была давно (основная БД простаивает);
+    * -- иначе - сколько прошло с последней примененной транзакции
+    */
+   private static final String LAG_QUERY = """
+           SELECT CASE
+                     WHEN NOT pg_is_in_recovery() THEN 0
+                     WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0
+                     ELSE COALESCE(EXTRACT(EPOCH FROM (CURRENT_TIMESTAMP - pg_last_xact_replay_timestamp())) * 1000, 0)
+                  END
+           """;
+
+   /**
+    * Конструктор
+    *
+    * @param primary              Основная БД
+    * @param replicas             Реплики: имя -> пул подключений. Пулы реплик принадлежат маршрутизации и закрываются вместе с ней ({@link #destroy()})
+    * @param maxLagMillis         Максимально допустимое отставание реплики в мс
+    * @param readYourWritesMillis Сколько мс после записи пользователь читает с основной БД
+    */
+   public ReplicaRoutingDataSource(DataSource primary, Map<String, DataSource> replicas, long maxLagMillis, long readYourWritesMillis) {
+      this.primary = primary;
+      this.replicas = replicas.entrySet().stream().map(e -> new ReplicaNode(e.getKey(), e.getValue())).toList();
+      this.maxLagMillis = maxLagMillis;
+      this.recentWriters = Caffeine.newBuilder()
+              .expireAfterWrite(Duration.ofMillis(readYourWritesMillis))
+              .maximumSize(100_000)
+              .build();
+      Map<Object, Object> targets = new HashMap<>(replicas);
+      targets.put(PRIMARY, primary);
+      setTargetDataSources(targets);
+      setDefaultTargetDataSource(primary);
+      afterPropertiesSet();
+   }
+
+   /**
+    * Закрыть пулы реплик при остановке приложения. Основную БД не трогаем - это отдельный бин со своим жизненным циклом
+    */
+   @Override
+   public void destroy() {
+      for (ReplicaNode replica : replicas) {
+         if (replica.dataSource() instanceof AutoCloseable pool) {
+            try {
+               pool.close();
+            }
+            catch (Exception ex) {
+               log.warn("Failed to close replica {} pool", replica.name(), ex);
+            }
+         }
+      }
+   }
+
+   @Override
+   protected Object determineCurrentLookupKey() {
+      ReplicaNode replica = chooseReplica();
+      return replica == null ? PRIMARY : replica.name();
+   }
+
+   /**
+    * Подключение с запасным вариантом: если реплика не ответила - берем основную БД
+    */
+   @Override
+   public Connection getConnection() throws SQLException {
+      ReplicaNode replica = chooseReplica();
+      if (replica != null) {
+         try {
+            return replica.dataSource().getConnection();
+         }
+         catch (SQLException ex) {
+            replica.healthy = false; //До следующей успешной проверки
+            log.warn("Replica {} is unavailable, falling back to primary", replica.name(), ex);
+         }
+      }
+      return primary.getConnection();
+   }
+
+   /**
+    * Проверить все реплики: отвечают ли и насколько отстают. Вызывается по расписанию (spring.replicas.health-check-seconds)
+    */
+   @Scheduled(fixedDelayString = "${spring.replicas.health-check-seconds:10}", timeUnit = TimeUnit.SECONDS)
+   public void checkReplicas() {
+      for (ReplicaNode replica : replicas) {
+         boolean healthy = isHealthy(replica);
+         if (healthy != replica.healthy) {
+            log.info("Replica {} is now {}", replica.name(), healthy ? "available" : "unavailable");
+         }
+         replica.healthy = healthy;
+      }
+   }
+
+   /**
+    * Отметить пользователя как недавно писавшего, если запись шла не из его запроса (например, групповой коммит сообщений)
+    *
+    * @param userId ИД пользователя
+    */
+   public void markWriter(Long userId) {
+      recentWriters.put(userId, Boolean.TRUE);
+   }
+
+   /**
+    * Читать с реплики, не глядя на недавние записи пользователя, пока не закрыт результат.
+    * Действует только на транзакции только для чтения и только в текущем потоке. Без реплик ни на что не влияет:
+    * <pre>
+    * try (ReplicaRoutingDataSource.ReplicaPreference ignored = ReplicaRoutingDataSource.preferReplica()) {
+    *    ... чтение ...
+    * }
+    * </pre>
+    *
+    * @return Отметка, которую нужно закрыть после чтения
+    */
+   public static ReplicaPreference preferReplica() {
+      REPLICA_PREFERRED.set(Boolean.TRUE);
+      return REPLICA_PREFERRED::remove;
+   }
+
+   /**
+    * @return Имена доступных сейчас реплик
+    */
+   public List<String> healthyReplicas() {
+      return replicas.stream().filter(r -> r.healthy).map(ReplicaNode::name).toList();
+   }
+
+   /**
+    * Выбрать реплику для текущего подключения
+    *
+    * @return Реплика или null, если нужна основная БД
+    */
+   private ReplicaNode chooseReplica() {
+      Long userId = currentUserId();
+      if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) { //Пишущая транзакция (или вне транзакции)
+         if (userId != null && TransactionSynchronizationManager.isActualTransactionActive()) {
+            recentWriters.put(userId, Boolean.TRUE); //Пользователь пишет - ближайшее время читает свои данные с основной БД
+         }
+         return null;
+      }
+      if (userId != null && REPLICA_PREFERRED.get() == null && recentWriters.getIfPresent(userId) != null) { //Недавно писал - реплика может ещё не догнать
+         return null;
+      }
+      int size = replicas.size();
+      int start = Math.floorMod(next.getAndIncrement(), Math.max(size, 1));
+      for (int i = 0; i < size; i++) {
+         ReplicaNode replica = replicas.get((start + i) % size);
+         if (replica.healthy) {
+            return replica;
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Проверить одну реплику.
+    * <p>
+    * Отставание - время с последней примененной транзакции, но только если реплика действительно не применила весь полученный WAL.
+    * Иначе при простое основной БД (записей нет) это время росло бы без ограничений, и все реплики выпадали бы именно тогда, когда нагрузки нет
+    */
+   private boolean isHealthy(ReplicaNode replica) {
+      try (Connection con = replica.dataSource().getConnection();
+           PreparedStatement ps = con.prepareStatement(LAG_QUERY);
+           ResultSet rs = ps.executeQuery()) {
+         return rs.next() && rs.getDouble(1) <= maxLagMillis;
+      }
+      catch (SQLException ex) {
+         log.debug("Replica {} health check failed", replica.name(), ex);
+         return false;
+      }
+   }
+
+   /**
+    * ИД текущего авторизованного пользователя, если он есть
+    */
+   private static Long currentUserId() {
+      Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+      if (authentication != null && authentication.getPrincipal() instanceof AuthorizedUser user) {
+         return user.id();
+      }
+      return null;
+   }
+
+   /**
+    * Отметка {@link #preferReplica()}. Закрытие снимает её с потока
+    */
+   @FunctionalInterface
+   public interface ReplicaPreference extends AutoCloseable {
+      @Override
+      void close();
+   }
+
+   /**
+    * Реплика и её состояние
+    */
+   private static final class ReplicaNode {
+      private final String name;
+      private final DataSource dataSource;
+      /**
+       * До первой проверки считаем реплику доступной: при недоступности сработает запасной вариант
+       */
+      private volatile boolean healthy = true;
+
+      private ReplicaNode(String name, DataSource dataSource) {
+         this.name = name;
+         this.dataSource = dataSource;
+      }
+
+      private String name() {
+         return name;
+      }
+
+      private DataSource dataSource() {
+         return dataSource;
+      }
+   }
+}
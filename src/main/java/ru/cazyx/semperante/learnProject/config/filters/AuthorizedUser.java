@@ -0,0 +1,51 @@
+package ru.cazyx.semperante.learnProject.config.filters;
+
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import ru.cazyx.semperante.learnProject.entities.LearnUser;
+
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Легкая неизменяемая модель авторизованного пользователя, которая кладется в контекст защиты вместо сущности {@link LearnUser}.
+ * <p>
+ * В отличие от сущности тут нет ленивых коллекций, хэша пароля и прочего - только то, что нужно для авторизации запроса.
+ * Модель можно собрать как из сущности, так и прямо из claims JWT (без запроса в БД).
+ *
+ * @param id           ИД пользователя
+ * @param login        Логин. null, если токен выпущен до появления claims и модель собрана только по ИД
+ * @param role         Роль
+ * @param tokenVersion Версия токенов пользователя (см. {@link LearnUser#getTokenVersion()})
+ */
+public record AuthorizedUser(Long id, String login, LearnUser.UserRole role, int tokenVersion) {
+
+   /**
+    * Собрать модель из сущности
+    *
+    * @param user Сущность пользователя
+    * @return Модель авторизованного пользователя
+    */
+   public static AuthorizedUser of(LearnUser user) {
+      return new AuthorizedUser(user.getId(), user.getLogin(), user.getRole(), user.getTokenVersion());
+   }
+
+   /**
+    * Содержит ли модель всё необходимое для авторизации без запроса в БД.
+    * Токены старого формата несут только ИД пользователя.
+    *
+    * @return true, если логин и роль известны
+    */
+   public boolean isSelfContained() {
+      return login != null && role != null;
+   }
+
+   /**
+    * Права пользователя для спринга. Аналог {@link LearnUser#getAuthorities()}
+    *
+    * @return Коллекция ролей (в нашем случае лист на 1 элемент)
+    */
+   public Collection<? extends GrantedAuthority> authorities() {
+      return Collections.singletonList(new SimpleGrantedAuthority("ROLE_" + role.name()));
+   }
+}
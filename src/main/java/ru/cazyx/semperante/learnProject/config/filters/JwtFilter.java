@@ -1,12 +1,14 @@
 package ru.cazyx.semperante.learnProject.config.filters;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.GenericFilterBean;
 import org.springframework.web.server.ResponseStatusException;
-import ru.cazyx.semperante.learnProject.entities.LearnUser;
 import ru.cazyx.semperante.learnProject.entities.repositories.LearnUserRepository;
 
 import javax.servlet.FilterChain;
@@ -24,6 +26,9 @@ import java.io.IOException;
  * -- если какая-то ошибка при чтении токена - возвращаем 401
  * Если заголовка нет - передаем дальше в цепочку фильтров
  * <p>
+ * Пользователь берется либо прямо из claims токена (режим spring.jwt.self-contained, без запроса в БД),
+ * либо из кэша/БД по ИД из токена. В обоих случаях в контекст кладется {@link AuthorizedUser}, а не сущность.
+ * <p>
  * Component - означает, что класс является компонентом для Спринга.
  * В такие классы загружаются автоматически при запуске проекта, в них производится dependency-injection
  * Также спринг сможет и их инъектить в другие классы.
@@ -38,16 +43,36 @@ public class JwtFilter extends GenericFilterBean {
     * Репозитория с пользователями
     */
    private final LearnUserRepository userRepository;
+   /**
+    * Кэш пользователей, чтобы не ходить в БД на каждый запрос
+    */
+   private final PrincipalCache principalCache;
+   /**
+    * Доверять ли claims токена без проверки пользователя в БД
+    */
+   private final boolean selfContained;
+   /**
+    * Реестр метрик (время авторизации запроса - метрика jwt.filter)
+    */
+   private final MeterRegistry meterRegistry;
 
    /**
     * Конструктор в который спринг будет производить инъекцию зависимостей
     *
     * @param utils          Класс содержащий утилити для работы с JWT
     * @param userRepository Репозитория с пользователями
+    * @param principalCache Кэш пользователей
+    * @param selfContained  Брать пользователя прямо из claims токена (spring.jwt.self-contained).
+    *                       Изменения роли или версии токенов тогда вступают в силу не сразу, а при перевыпуске JWT (до 5 минут)
+    * @param meterRegistry  Реестр метрик
     */
-   public JwtFilter(JwtUtils utils, LearnUserRepository userRepository) {
+   public JwtFilter(JwtUtils utils, LearnUserRepository userRepository, PrincipalCache principalCache,
+                    @Value("${spring.jwt.self-contained:false}") boolean selfContained, MeterRegistry meterRegistry) {
       this.utils = utils;
       this.userRepository = userRepository;
+      this.principalCache = principalCache;
+      this.selfContained = selfContained;
+      this.meterRegistry = meterRegistry;
    }
 
 
@@ -57,12 +82,19 @@ public class JwtFilter extends GenericFilterBean {
          if (request instanceof HttpServletRequest req) { //Проверяем что запрос является HTTP и сразу кастим в переменную req
             String authorization = req.getHeader("Authorization"); //Берем заголовок Authorization из запроса
             if (authorization != null && !authorization.isBlank()) { //Если Не null и не пустой (пробельный)
-               Long id = utils.decode(authorization); //Декодируем JWT
-
-               //Берем пользователя из репозитория по ID из токена. Если его там нет - кидаем 401 (т.к. токен-то не валидный)
-               LearnUser user = userRepository.findById(id).orElseThrow(() -> new ResponseStatusException(HttpStatus.UNAUTHORIZED, "User not found"));
-               //Указываем контексту защиты, что авторизация прошла - кладем пользователя как principal модель авторизовавшегося
-               SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities()));
+               //Замеряем только авторизацию, без остальной цепочки (время всего запроса - метрика http.server.requests)
+               Timer.Sample sample = Timer.start(meterRegistry);
+               String outcome = "failure";
+               try {
+                  AuthorizedUser claims = utils.decode(authorization); //Декодируем JWT
+                  AuthorizedUser user = resolveUser(claims); //Определяем пользователя
+                  //Указываем контексту защиты, что авторизация прошла - кладем пользователя как principal модель авторизовавшегося
+                  SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(user, null, user.authorities()));
+                  outcome = "success";
+               }
+               finally {
+                  sample.stop(meterRegistry.timer("jwt.filter", "outcome", outcome));
+               }
             }
          }
          chain.doFilter(request, response); //Передаем запрос дальше по цепочке фильтров
@@ -94,5 +126,25 @@ public class JwtFilter extends GenericFilterBean {
       }
    }
 
-
+   /**
+    * Определить пользователя по расшифрованному токену
+    *
+    * @param claims Модель, собранная из claims токена
+    * @return Авторизованный пользователь
+    */
+   private AuthorizedUser resolveUser(AuthorizedUser claims) {
+      if (selfContained && claims.isSelfContained()) { //Токен подписан нами и несет всё нужное - в БД не идем
+         return claims;
+      }
+      //Берем пользователя из кэша, а при промахе - из репозитория по ID из токена
+      AuthorizedUser user = principalCache.get(claims.id(), key -> userRepository.findById(key).map(AuthorizedUser::of).orElse(null));
+      if (user == null) { //Если его нет и в БД - кидаем 401 (т.к. токен-то не валидный)
+         throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "User not found");
+      }
+      //Версия токенов пользователя выросла после выпуска этого JWT - токен отозван
+      if (claims.isSelfContained() && claims.tokenVersion() != user.tokenVersion()) {
+         throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Token is revoked");
+      }
+      return user;
+   }
 }
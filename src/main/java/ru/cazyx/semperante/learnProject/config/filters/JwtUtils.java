@@ -3,18 +3,29 @@ package ru.cazyx.semperante.learnProject.config.filters;
 import com.auth0.jwt.JWT;
 import com.auth0.jwt.JWTVerifier;
 import com.auth0.jwt.algorithms.Algorithm;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
 import org.springframework.web.server.ResponseStatusException;
+import ru.cazyx.semperante.learnProject.entities.LearnUser;
 
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Класс-утилити для шифрования и дешифрования JWT токенов
  */
 @Component
 public class JwtUtils {
+   /**
+    * Имена claims внутри токена
+    */
+   private static final String CLAIM_LOGIN = "login";
+   private static final String CLAIM_ROLE = "role";
+   private static final String CLAIM_VERSION = "ver";
+
    /**
     * Верификатор JWT - занимается чтением токена и проверкой ключа шифрования
     */
@@ -23,6 +34,14 @@ public class JwtUtils {
     * Алгоритм шифрования. Тут используется HMAC512
     */
    private final Algorithm algo;
+   /**
+    * Время проверки токена (метрика jwt.decode)
+    */
+   private final Timer decodeTimer;
+   /**
+    * Кэш уже проверенных токенов
+    */
+   private final VerifiedTokenCache verifiedTokenCache;
 
    /**
     * Конструктор компонента
@@ -30,42 +49,70 @@ public class JwtUtils {
     * @param jwtSalt Соль нашего токена.
     *                Аннотация @Value говорит о том, что данное значение нужно брать из конфига по пути <i>spring.jwt.salt</i>
     *                Значение после двоеточия - значение по-умолчанию (testSalt) в данном случае
+    * @param meterRegistry Реестр метрик
+    * @param verifiedTokenCache Кэш уже проверенных токенов
     */
-   public JwtUtils(@Value("${spring.jwt.salt:testSalt}") String jwtSalt) {
+   public JwtUtils(@Value("${spring.jwt.salt:testSalt}") String jwtSalt, MeterRegistry meterRegistry, VerifiedTokenCache verifiedTokenCache) {
       this.algo = Algorithm.HMAC512(jwtSalt); //Инициализируем алгоритм шифрования
       this.decoder = JWT.require(algo).build(); //Инициализируем декодер токенов
+      this.decodeTimer = Timer.builder("jwt.decode").description("JWT signature verification and parsing").register(meterRegistry);
+      this.verifiedTokenCache = verifiedTokenCache;
    }
 
    /**
     * Кодирование токена
+    * <p>
+    * Кроме ИД пользователя в токен подписываются логин, роль и версия токенов.
+    * Этого достаточно, чтобы авторизовать запрос вообще без похода в БД (см. {@link JwtFilter})
     *
-    * @param userId ID пользователя для которого токен кодируется
+    * @param user Пользователь для которого токен кодируется
     * @return Строка - JWT токен
     */
-   public String encode(Long userId) {
+   public String encode(AuthorizedUser user) {
       return JWT.create() //Создаем кодировщик
-              .withKeyId(String.valueOf(userId)) //Записываем ID пользователя (как строку в этом случае)
+              .withKeyId(String.valueOf(user.id())) //Записываем ID пользователя (как строку в этом случае)
+              .withClaim(CLAIM_LOGIN, user.login()) //Логин
+              .withClaim(CLAIM_ROLE, user.role().name()) //Роль
+              .withClaim(CLAIM_VERSION, user.tokenVersion()) //Версия токенов
               .withExpiresAt(new Date(System.currentTimeMillis() + 300_000L)) //Задаем время жизни токена 5 минут (в миллисекундах)
               .sign(algo); //В конце задаем алгоритм "подписи" (шифрования) токена, после чего библиотека вернет которые токен.
    }
 
    /**
     * Декодирование токена
+    * <p>
+    * Токен, уже проверенный ранее, берется из {@link VerifiedTokenCache} без повторной проверки подписи
     *
     * @param jwt Токен пришедший в заголовке авторизации
-    * @return ID пользователя который зашифрован в токена
+    * @return Модель пользователя, собранная из токена. У токенов старого формата (только ИД) логин и роль будут null.
     */
-   public Long decode(String jwt) {
+   public AuthorizedUser decode(String jwt) {
+      long start = System.nanoTime();
       try {
+         AuthorizedUser cached = verifiedTokenCache.get(jwt);
+         if (cached != null) {
+            return cached;
+         }
          var decoded = decoder.verify(jwt); //Декодируем токен. Декдор сам проверяет ключ подписи
          if (new Date().after(decoded.getExpiresAt())) { //Если дата истечения в токене "перед" текущей - токен истек
             throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Token expired"); //Выбрасываем ошибку
          }
-         return Long.parseLong(decoded.getKeyId()); //Если всё ок - берем ИД из токена и парсим его обратно в Long
+         Long id = Long.parseLong(decoded.getKeyId()); //Если всё ок - берем ИД из токена и парсим его обратно в Long
+         String role = decoded.getClaim(CLAIM_ROLE).asString(); //Claims которых нет в токене вернут null
+         Integer version = decoded.getClaim(CLAIM_VERSION).asInt();
+         AuthorizedUser user = new AuthorizedUser(id,
+                 decoded.getClaim(CLAIM_LOGIN).asString(),
+                 role == null ? null : LearnUser.UserRole.valueOf(role),
+                 version == null ? 0 : version);
+         verifiedTokenCache.put(jwt, user, decoded.getExpiresAt().getTime()); //Следующие запросы с этим токеном обойдутся без проверки
+         return user;
       }
       catch (Throwable ex) { //В случае возникновения любых ошибок - токен считаем не валидным
          throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Token is invalid");
       }
+      finally {
+         decodeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      }
 
    }
 }
@@ -0,0 +1,101 @@
+package ru.cazyx.semperante.learnProject.config.filters;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+/**
+ * Кэш пользователей, авторизующихся по JWT.
+ * <p>
+ * Хранит не сущности, а легкие неизменяемые {@link AuthorizedUser}, которые безопасно отдавать параллельным запросам.
+ * <p>
+ * Без него {@link JwtFilter} на каждый запрос ходит в БД за пользователем и занимает одно из немногих подключений пула.
+ * Кэш ограничен как по количеству записей, так и по времени жизни записи, т.е. изменения пользователя,
+ * сделанные в обход JPA (например, руками в БД), будут видны не позже, чем через ttl.
+ * <p>
+ * Изменения, сделанные через JPA, сбрасывают запись сразу (см. {@link ru.cazyx.semperante.learnProject.entities.listeners.LearnUserCacheListener})
+ */
+@Component
+public class PrincipalCache {
+   /**
+    * Сам кэш. ID пользователя -> пользователь
+    */
+   private final Cache<Long, AuthorizedUser> cache;
+
+   /**
+    * Конструктор компонента
+    *
+    * @param ttlSeconds Время жизни записи в секундах (spring.jwt.principal-cache.ttl-seconds)
+    * @param maxSize    Максимальное количество записей (spring.jwt.principal-cache.max-size)
+    * @param meterRegistry Реестр метрик (попадания, промахи и размер кэша - метрики cache.* с тегом cache=principal)
+    */
+   public PrincipalCache(@Value("${spring.jwt.principal-cache.ttl-seconds:60}") long ttlSeconds,
+                         @Value("${spring.jwt.principal-cache.max-size:10000}") long maxSize,
+                         MeterRegistry meterRegistry) {
+      this.cache = Caffeine.newBuilder()
+              .expireAfterWrite(Duration.ofSeconds(ttlSeconds)) //Запись живет не дольше ttl с момента загрузки
+              .maximumSize(maxSize) //При превышении размера старые записи вытесняются
+              .recordStats() //Считаем попадания и промахи
+              .build();
+      CaffeineCacheMetrics.monitor(meterRegistry, cache, "principal");
+   }
+
+   /**
+    * Взять пользователя из кэша, а если его там нет - загрузить.
+    *
+    * @param id     ИД пользователя
+    * @param loader Функция загрузки пользователя из БД. Если она вернет null - в кэш ничего не попадет
+    * @return Пользователь или null, если его нет
+    */
+   public AuthorizedUser get(Long id, Function<Long, AuthorizedUser> loader) {
+      return cache.get(id, loader);
+   }
+
+   /**
+    * Сбросить пользователя из кэша.
+    * <p>
+    * Если мы внутри транзакции - сбрасываем ещё раз после коммита,
+    * иначе параллельный запрос может успеть загрузить старую версию пользователя до коммита и положить её в кэш на весь ttl.
+    *
+    * @param id ИД пользователя
+    */
+   public void invalidate(Long id) {
+      if (id == null) {
+         return;
+      }
+      cache.invalidate(id);
+      if (TransactionSynchronizationManager.isSynchronizationActive()) {
+         TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+               cache.invalidate(id);
+            }
+         });
+      }
+   }
+
+   /**
+    * Статистика кэша (попадания, промахи, ...)
+    *
+    * @return Снимок статистики на текущий момент
+    */
+   public CacheStats stats() {
+      return cache.stats();
+   }
+
+   /**
+    * @return Примерное количество записей в кэше
+    */
+   public long size() {
+      return cache.estimatedSize();
+   }
+}
@@ -0,0 +1,112 @@
+package ru.cazyx.semperante.learnProject.config.filters;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.cazyx.semperante.learnProject.utils.Hashing;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Кэш уже проверенных JWT.
+ * <p>
+ * Клиент отправляет один и тот же токен все 5 минут его жизни, а полная проверка в {@link JwtUtils#decode(String)} -
+ * это Base64, разбор JSON и HMAC512 на каждый запрос. Кэш запоминает результат проверки, и повторный запрос с тем же токеном
+ * стоит одного хэша строки и поиска в таблице.
+ * <p>
+ * Ключ - 64-битный хэш строки токена (не сама строка: ключ маленький, а String.hashCode у новой строки из заголовка всё равно не посчитан).
+ * Быстрый хэш не криптографический, подобрать строку с тем же хэшем можно, поэтому в записи хранится и сам токен,
+ * и попаданием считается только его полное совпадение. Сравнение строк на порядки дешевле HMAC.
+ * <p>
+ * Запись живет не дольше самого токена: время жизни каждой записи - до exp из токена.
+ * Отзыв токенов (версия токенов пользователя) проверяется в {@link JwtFilter} уже после декодирования, т.е. кэш на него не влияет.
+ */
+@Component
+public class VerifiedTokenCache {
+   /**
+    * Сам кэш. Хэш токена -> проверенный токен. null - кэш выключен
+    */
+   private final Cache<Long, Entry> cache;
+
+   /**
+    * Конструктор компонента
+    *
+    * @param enabled       Включен ли кэш (spring.jwt.verified-cache.enabled)
+    * @param maxSize       Максимальное количество токенов в кэше (spring.jwt.verified-cache.max-size)
+    * @param meterRegistry Реестр метрик (попадания, промахи и размер кэша - метрики cache.* с тегом cache=jwt)
+    */
+   public VerifiedTokenCache(@Value("${spring.jwt.verified-cache.enabled:true}") boolean enabled,
+                             @Value("${spring.jwt.verified-cache.max-size:10000}") long maxSize,
+                             MeterRegistry meterRegistry) {
+      if (!enabled) {
+         this.cache = null;
+         return;
+      }
+      this.cache = Caffeine.newBuilder()
+              .expireAfter(new Expiry<Long, Entry>() { //Каждая запись истекает вместе со своим токеном
+                 @Override
+                 public long expireAfterCreate(Long key, Entry value, long currentTime) {
+                    return TimeUnit.MILLISECONDS.toNanos(Math.max(0, value.expiresAt() - System.currentTimeMillis()));
+                 }
+
+                 @Override
+                 public long expireAfterUpdate(Long key, Entry value, long currentTime, long currentDuration) {
+                    return expireAfterCreate(key, value, currentTime);
+                 }
+
+                 @Override
+                 public long expireAfterRead(Long key, Entry value, long currentTime, long currentDuration) {
+                    return currentDuration; //Чтение время жизни не продлевает
+                 }
+              })
+              .maximumSize(maxSize) //При превышении размера старые записи вытесняются
+              .recordStats() //Считаем попадания и промахи
+              .build();
+      CaffeineCacheMetrics.monitor(meterRegistry, cache, "jwt");
+   }
+
+   /**
+    * Взять результат проверки токена
+    *
+    * @param jwt Токен из заголовка
+    * @return Пользователь из токена или null, если токен ещё не проверялся (или его запись истекла)
+    */
+   public AuthorizedUser get(String jwt) {
+      if (cache == null) {
+         return null;
+      }
+      Entry entry = cache.getIfPresent(Hashing.hash64(jwt));
+      //Кэш удаляет истекшие записи сам, но проверяем и тут: запись не должна пережить токен ни на миллисекунду
+      if (entry == null || !entry.token().equals(jwt) || entry.expiresAt() <= System.currentTimeMillis()) {
+         return null;
+      }
+      return entry.user();
+   }
+
+   /**
+    * Запомнить успешно проверенный токен
+    *
+    * @param jwt       Токен из заголовка
+    * @param user      Пользователь из токена
+    * @param expiresAt Время истечения токена (мс с эпохи)
+    */
+   public void put(String jwt, AuthorizedUser user, long expiresAt) {
+      if (cache != null) {
+         cache.put(Hashing.hash64(jwt), new Entry(jwt, user, expiresAt));
+      }
+   }
+
+   /**
+    * Запись кэша
+    *
+    * @param token     Сам токен (для защиты от коллизий хэша)
+    * @param user      Пользователь из токена
+    * @param expiresAt Время истечения токена (мс с эпохи)
+    */
+   private record Entry(String token, AuthorizedUser user, long expiresAt) {
+   }
+}
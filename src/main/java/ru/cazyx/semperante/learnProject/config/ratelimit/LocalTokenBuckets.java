@@ -0,0 +1,144 @@
+package ru.cazyx.semperante.learnProject.config.ratelimit;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Корзины токенов в памяти экземпляра приложения.
+ * <p>
+ * Корзины разложены по stripes независимым частям по хэшу ключа, у каждой части своя блокировка.
+ * Запросы с разными ключами почти никогда не ждут друг друга, а критическая секция - это пара арифметических операций.
+ * Блокировка - ReentrantLock, а не synchronized: synchronized в Java 21 "прибивает" виртуальный поток к потоку-носителю (spring.virtual-request-threads).
+ * <p>
+ * Память ограничена: в каждой части не больше maxKeys / stripes корзин, при переполнении выбрасывается та, к которой дольше всего не обращались.
+ * Выброшенная корзина при следующем обращении создается полной, поэтому лимит по-настоящему гарантируется только для maxKeys самых активных ключей.
+ */
+public class LocalTokenBuckets implements TokenBuckets {
+   /**
+    * Части хранилища. Количество - степень двойки, чтобы номер части брался маской
+    */
+   private final Stripe[] stripes;
+   /**
+    * Источник времени в наносекундах (в тестах подменяется)
+    */
+   private final LongSupplier nanoClock;
+
+   /**
+    * Конструктор хранилища
+    *
+    * @param stripes Количество независимых частей (округляется вверх до степени двойки)
+    * @param maxKeys Максимальное общее количество корзин
+    */
+   public LocalTokenBuckets(int stripes, int maxKeys) {
+      this(stripes, maxKeys, System::nanoTime);
+   }
+
+   /**
+    * Конструктор хранилища
+    *
+    * @param stripes   Количество независимых частей (округляется вверх до степени двойки)
+    * @param maxKeys   Максимальное общее количество корзин
+    * @param nanoClock Источник времени в наносекундах
+    */
+   public LocalTokenBuckets(int stripes, int maxKeys, LongSupplier nanoClock) {
+      int count = 1;
+      while (count < stripes) {
+         count <<= 1;
+      }
+      int perStripe = Math.max(1, maxKeys / count);
+      this.stripes = new Stripe[count];
+      for (int i = 0; i < count; i++) {
+         this.stripes[i] = new Stripe(perStripe);
+      }
+      this.nanoClock = nanoClock;
+   }
+
+   @Override
+   public long tryAcquire(String key, int capacity, double refillPerSecond) {
+      Stripe stripe = stripeOf(key);
+      long now = nanoClock.getAsLong();
+      stripe.lock.lock();
+      try {
+         Bucket bucket = stripe.buckets.get(key);
+         if (bucket == null) {
+            bucket = new Bucket(capacity, now);
+            stripe.buckets.put(key, bucket);
+         }
+         else {
+            double elapsedSeconds = (now - bucket.updatedAt) / (double) TimeUnit.SECONDS.toNanos(1);
+            bucket.tokens = Math.min(capacity, bucket.tokens + elapsedSeconds * refillPerSecond);
+            bucket.updatedAt = now;
+         }
+         if (bucket.tokens >= 1) {
+            bucket.tokens -= 1;
+            return 0;
+         }
+         return Math.max(1, (long) Math.ceil((1 - bucket.tokens) / refillPerSecond * 1000));
+      }
+      finally {
+         stripe.lock.unlock();
+      }
+   }
+
+   /**
+    * @return Текущее количество корзин
+    */
+   public int size() {
+      int size = 0;
+      for (Stripe stripe : stripes) {
+         stripe.lock.lock();
+         try {
+            size += stripe.buckets.size();
+         }
+         finally {
+            stripe.lock.unlock();
+         }
+      }
+      return size;
+   }
+
+   /**
+    * Часть хранилища, в которую попадает ключ. Старшие биты хэша подмешиваются к младшим, как в HashMap
+    *
+    * @param key Ключ
+    * @return Часть хранилища
+    */
+   private Stripe stripeOf(String key) {
+      int hash = key.hashCode();
+      return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+   }
+
+   /**
+    * Часть хранилища: блокировка и LRU-таблица корзин ограниченного размера
+    */
+   private static final class Stripe {
+      private final ReentrantLock lock = new ReentrantLock();
+      private final LinkedHashMap<String, Bucket> buckets;
+
+      private Stripe(int maxKeys) {
+         //accessOrder = true - порядок по последнему обращению, самая "старая" корзина идет первой
+         this.buckets = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Bucket> eldest) {
+               return size() > maxKeys;
+            }
+         };
+      }
+   }
+
+   /**
+    * Корзина: сколько токенов было в момент последнего обращения и когда оно было
+    */
+   private static final class Bucket {
+      private double tokens;
+      private long updatedAt;
+
+      private Bucket(double tokens, long updatedAt) {
+         this.tokens = tokens;
+         this.updatedAt = updatedAt;
+      }
+   }
+}
@@ -0,0 +1,92 @@
+package ru.cazyx.semperante.learnProject.config.ratelimit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Корзины токенов в PostgreSQL (таблица learn_rate_limits), общие для всех экземпляров приложения.
+ * <p>
+ * Получение токена - один UPSERT в режиме автокоммита: строка корзины блокируется только на время самого оператора,
+ * долив считается по часам БД (clock_timestamp()), поэтому расхождение часов экземпляров не влияет на лимит.
+ * Если токена нет, условие WHERE у ON CONFLICT не выполняется, строка не меняется и оператор возвращает 0 строк.
+ * <p>
+ * Таблица UNLOGGED: после падения БД она очищается, т.е. все корзины снова полные. Для лимита частоты это допустимо,
+ * зато записи не идут в WAL и не реплицируются.
+ * <p>
+ * Если БД недоступна, лимит считается по локальным корзинам экземпляра, чтобы вход не ломался вместе с хранилищем лимитов.
+ */
+public class PostgresTokenBuckets implements TokenBuckets {
+   private static final Logger log = LoggerFactory.getLogger(PostgresTokenBuckets.class);
+   /**
+    * Сколько токенов в корзине с учетом долива с момента прошлого обращения (b - текущая строка)
+    */
+   private static final String REFILLED = "LEAST(CAST(? AS float8), b.tokens + EXTRACT(EPOCH FROM clock_timestamp() - b.updated_at) * CAST(? AS float8))";
+   /**
+    * Новая корзина создается с capacity - 1 токенами, существующая - доливается и отдает токен, если он есть
+    */
+   private static final String ACQUIRE = """
+           INSERT INTO learn_rate_limits AS b (bucket_key, tokens, updated_at)
+           VALUES (?, CAST(? AS float8) - 1, clock_timestamp())
+           ON CONFLICT (bucket_key) DO UPDATE SET tokens = %1$s - 1, updated_at = clock_timestamp()
+           WHERE %1$s >= 1
+           """.formatted(REFILLED);
+
+   private final JdbcTemplate jdbcTemplate;
+   /**
+    * Локальные корзины на время недоступности БД
+    */
+   private final TokenBuckets fallback;
+   /**
+    * Через сколько секунд без обращений любая корзина гарантированно полна и её можно удалить
+    */
+   private final long idleSeconds;
+
+   /**
+    * Конструктор хранилища
+    *
+    * @param jdbcTemplate Спринговская обертка над JDBC
+    * @param fallback     Локальные корзины на время недоступности БД
+    * @param idleSeconds  Через сколько секунд без обращений корзину можно удалить
+    */
+   public PostgresTokenBuckets(JdbcTemplate jdbcTemplate, TokenBuckets fallback, long idleSeconds) {
+      this.jdbcTemplate = jdbcTemplate;
+      this.fallback = fallback;
+      this.idleSeconds = idleSeconds;
+   }
+
+   @Override
+   public long tryAcquire(String key, int capacity, double refillPerSecond) {
+      try {
+         int updated = jdbcTemplate.update(ACQUIRE, key, capacity, capacity, refillPerSecond, capacity, refillPerSecond);
+         if (updated > 0) {
+            return 0;
+         }
+         //Сколько токенов осталось, оператор не возвращает. Токен появится не позже, чем через время долива одного токена
+         return Math.max(1, (long) Math.ceil(1000 / refillPerSecond));
+      }
+      catch (DataAccessException e) {
+         log.warn("Rate limit store is unavailable, using local buckets: {}", e.getMessage());
+         return fallback.tryAcquire(key, capacity, refillPerSecond);
+      }
+   }
+
+   /**
+    * Удаляем корзины, к которым давно не обращались: они уже полные, и отсутствие строки означает то же самое.
+    * Выполняется на всех экземплярах, повторное удаление ничего не ломает
+    */
+   @Scheduled(fixedDelay = 1, timeUnit = TimeUnit.MINUTES)
+   public void deleteIdle() {
+      try {
+         int deleted = jdbcTemplate.update("DELETE FROM learn_rate_limits WHERE updated_at < clock_timestamp() - make_interval(secs => ?)", (double) idleSeconds);
+         log.debug("Deleted {} idle rate limit buckets", deleted);
+      }
+      catch (DataAccessException e) {
+         log.warn("Failed to delete idle rate limit buckets: {}", e.getMessage());
+      }
+   }
+}
@@ -0,0 +1,63 @@
+package ru.cazyx.semperante.learnProject.config.ratelimit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Настройка ограничения частоты входа, регистрации и перевыпуска токена (spring.rate-limit)
+ */
+@Configuration
+@EnableConfigurationProperties(RateLimitProperties.class)
+public class RateLimitConfig {
+
+   /**
+    * Хранилище корзин: в памяти или в PostgreSQL (spring.rate-limit.store)
+    *
+    * @param properties   Настройки ограничения
+    * @param jdbcTemplate Спринговская обертка над JDBC
+    * @return Хранилище корзин
+    */
+   @Bean
+   public TokenBuckets tokenBuckets(RateLimitProperties properties, JdbcTemplate jdbcTemplate) {
+      LocalTokenBuckets local = new LocalTokenBuckets(properties.getStripes(), properties.getMaxKeys());
+      if (properties.getStore() == RateLimitProperties.Store.POSTGRES) {
+         //Корзина, к которой не обращались дольше времени полного долива, полная - её можно удалять
+         long idleSeconds = Math.max(properties.getIp().secondsToFill(), properties.getLogin().secondsToFill());
+         return new PostgresTokenBuckets(jdbcTemplate, local, idleSeconds);
+      }
+      return local;
+   }
+
+   /**
+    * Сам фильтр. Добавляется в цепочку Spring Security в {@link ru.cazyx.semperante.learnProject.config.SecurityConfig}
+    *
+    * @param tokenBuckets  Хранилище корзин
+    * @param properties    Настройки ограничения
+    * @param objectMapper  JSON
+    * @param meterRegistry Реестр метрик
+    * @return Фильтр
+    */
+   @Bean
+   public RateLimitFilter rateLimitFilter(TokenBuckets tokenBuckets, RateLimitProperties properties, ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+      return new RateLimitFilter(tokenBuckets, properties, objectMapper, meterRegistry);
+   }
+
+   /**
+    * Спринг бут регистрирует каждый бин-фильтр как фильтр сервлетов. Отключаем: фильтр должен работать только в цепочке Spring Security,
+    * иначе каждый запрос забирал бы по два токена
+    *
+    * @param rateLimitFilter Фильтр
+    * @return Выключенная регистрация
+    */
+   @Bean
+   public FilterRegistrationBean<RateLimitFilter> rateLimitFilterRegistration(RateLimitFilter rateLimitFilter) {
+      FilterRegistrationBean<RateLimitFilter> registration = new FilterRegistrationBean<>(rateLimitFilter);
+      registration.setEnabled(false);
+      return registration;
+   }
+}
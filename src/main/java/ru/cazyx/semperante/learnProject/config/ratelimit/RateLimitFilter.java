@@ -0,0 +1,272 @@
+package ru.cazyx.semperante.learnProject.config.ratelimit;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.GenericFilterBean;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Фильтр, ограничивающий частоту входа, регистрации и перевыпуска токена.
+ * <p>
+ * Эти роуты открыты без авторизации, а вход и регистрация стоят одного хэша BCrypt (десятки мс процессора),
+ * т.е. один клиент, шлющий их в цикле, может занять все ядра и пул хэширования.
+ * <p>
+ * Используются корзины токенов ({@link TokenBuckets}):
+ * -- по IP клиента, своя для каждого роута;
+ * -- по логину (почте) из тела запроса для входа и регистрации - подбор пароля к одной учетке с многих IP.
+ * Сначала проверяется IP, и только если он прошел - логин, чтобы отклоненные по IP запросы не тратили лимит логина.
+ * Превысивший лимит получает 429 с заголовком Retry-After, до хэширования пароля и до БД дело не доходит.
+ * <p>
+ * IP берется из request.getRemoteAddr(). За прокси/балансировщиком нужно включить server.forward-headers-strategy,
+ * иначе у всех клиентов будет IP прокси.
+ * <p>
+ * Фильтр стоит в цепочке Spring Security перед {@link ru.cazyx.semperante.learnProject.config.filters.JwtFilter}.
+ * Как обычный фильтр сервлетов он не регистрируется (см. {@link RateLimitConfig}), иначе каждый запрос считался бы дважды.
+ */
+public class RateLimitFilter extends GenericFilterBean {
+   /**
+    * Сколько байт тела читается в поисках логина. Запросы входа и регистрации гораздо меньше
+    */
+   private static final int MAX_BODY_PREFIX = 16 * 1024;
+   /**
+    * Ограничиваемые роуты (POST) -> название роута в ключах и метриках
+    */
+   private static final Map<String, String> ROUTES = Map.of(
+           "/v1/user/login", "login",
+           "/v1/user/register", "register",
+           "/v1/user/refresh-token", "refresh"
+   );
+   /**
+    * Логин длиннее этого в ключ не попадает целиком (логин не длиннее 16 символов, почта - обычно до сотни)
+    */
+   private static final int MAX_LOGIN_KEY_LENGTH = 256;
+
+   private final TokenBuckets buckets;
+   private final RateLimitProperties properties;
+   private final ObjectMapper objectMapper;
+   /**
+    * Реестр метрик (отклоненные запросы - метрика rate_limit.rejected)
+    */
+   private final MeterRegistry meterRegistry;
+
+   /**
+    * Конструктор фильтра
+    *
+    * @param buckets       Хранилище корзин токенов
+    * @param properties    Настройки spring.rate-limit
+    * @param objectMapper  JSON (для чтения логина из тела)
+    * @param meterRegistry Реестр метрик
+    */
+   public RateLimitFilter(TokenBuckets buckets, RateLimitProperties properties, ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+      this.buckets = buckets;
+      this.properties = properties;
+      this.objectMapper = objectMapper;
+      this.meterRegistry = meterRegistry;
+   }
+
+   @Override
+   public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+      if (!properties.isEnabled() || !(request instanceof HttpServletRequest req) || !(response instanceof HttpServletResponse resp)
+              || !"POST".equals(req.getMethod())) {
+         chain.doFilter(request, response);
+         return;
+      }
+      String route = ROUTES.get(req.getRequestURI().substring(req.getContextPath().length()));
+      if (route == null) {
+         chain.doFilter(request, response);
+         return;
+      }
+      RateLimitProperties.Limit ipLimit = properties.getIp();
+      long wait = buckets.tryAcquire("ip:" + route + ":" + req.getRemoteAddr(), ipLimit.getCapacity(), ipLimit.refillPerSecond());
+      if (wait > 0) {
+         reject(resp, route, "ip", wait);
+         return;
+      }
+      if ("refresh".equals(route)) { //Логина в перевыпуске нет, только refresh-токен в заголовке
+         chain.doFilter(request, response);
+         return;
+      }
+      //Тело читается тут, а дальше по цепочке идет обертка, которая отдает уже прочитанные байты заново
+      byte[] prefix = req.getInputStream().readNBytes(MAX_BODY_PREFIX);
+      ReplayedBodyRequest replayed = new ReplayedBodyRequest(req, prefix);
+      String login = readLogin(prefix);
+      if (login != null) {
+         RateLimitProperties.Limit loginLimit = properties.getLogin();
+         wait = buckets.tryAcquire("login:" + login, loginLimit.getCapacity(), loginLimit.refillPerSecond());
+         if (wait > 0) {
+            reject(resp, route, "login", wait);
+            return;
+         }
+      }
+      chain.doFilter(replayed, response);
+   }
+
+   /**
+    * Достать логин из JSON тела запроса ({@link ru.cazyx.semperante.learnProject.dto.requests.AuthRequest},
+    * {@link ru.cazyx.semperante.learnProject.dto.requests.RegisterRequest}).
+    * Читается потоково только поле верхнего уровня login, обрезанное тело не мешает, если логин успел встретиться
+    *
+    * @param body Тело или его начало
+    * @return Логин в нижнем регистре (логин и почта в БД уникальны без учета регистра) или null, если его нет
+    */
+   private String readLogin(byte[] body) {
+      try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+         if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return null;
+         }
+         while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("login".equals(field) && value == JsonToken.VALUE_STRING) {
+               String login = parser.getText().trim().toLowerCase(Locale.ROOT);
+               if (login.isEmpty()) {
+                  return null;
+               }
+               return login.length() > MAX_LOGIN_KEY_LENGTH ? login.substring(0, MAX_LOGIN_KEY_LENGTH) : login;
+            }
+            parser.skipChildren();
+         }
+         return null;
+      }
+      catch (IOException e) { //Не JSON или логин дальше прочитанного начала - остается только лимит по IP
+         return null;
+      }
+   }
+
+   /**
+    * Ответить 429. Т.к. фильтр стоит раньше обработчика ResponseStatusException, JSON ошибки пишем руками (как в JwtFilter)
+    *
+    * @param resp       Ответ
+    * @param route      Роут
+    * @param scope      Какой лимит превышен: ip или login
+    * @param waitMillis Через сколько мс появится токен
+    */
+   private void reject(HttpServletResponse resp, String route, String scope, long waitMillis) throws IOException {
+      meterRegistry.counter("rate_limit.rejected", "route", route, "key", scope).increment();
+      resp.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+      resp.setHeader(HttpHeaders.RETRY_AFTER, Long.toString((waitMillis + 999) / 1000)); //Целые секунды, с округлением вверх
+      resp.setContentType("application/json");
+      resp.getWriter().append("{ \"message\": \"Too many requests\"}").flush();
+   }
+
+   /**
+    * Запрос, тело которого уже частично прочитано фильтром: сначала отдаются прочитанные байты, затем остаток исходного потока
+    */
+   private static final class ReplayedBodyRequest extends HttpServletRequestWrapper {
+      private final ServletInputStream body;
+
+      private ReplayedBodyRequest(HttpServletRequest request, byte[] prefix) throws IOException {
+         super(request);
+         //Прочитано меньше максимума - тело закончилось, и исходный поток уже пуст
+         this.body = new ReplayedInputStream(prefix, request.getInputStream(), prefix.length == MAX_BODY_PREFIX);
+      }
+
+      @Override
+      public ServletInputStream getInputStream() {
+         return body;
+      }
+
+      @Override
+      public BufferedReader getReader() {
+         String encoding = getCharacterEncoding();
+         Charset charset = encoding != null ? Charset.forName(encoding) : StandardCharsets.UTF_8;
+         return new BufferedReader(new InputStreamReader(body, charset));
+      }
+   }
+
+   /**
+    * Поток тела: прочитанное фильтром начало, затем исходный поток.
+    * <p>
+    * Неблокирующее чтение (setReadListener) тоже работает: слушатель вешается на исходный поток, чтобы контейнер
+    * вызывал его как обычно, а готовность и конец потока учитывают ещё не отданное начало
+    */
+   private static final class ReplayedInputStream extends ServletInputStream {
+      private final ByteArrayInputStream prefix;
+      private final ServletInputStream source;
+      /**
+       * false - тело целиком в prefix, из исходного потока читать нечего
+       */
+      private final boolean hasRest;
+
+      private ReplayedInputStream(byte[] prefix, ServletInputStream source, boolean hasRest) {
+         this.prefix = new ByteArrayInputStream(prefix);
+         this.source = source;
+         this.hasRest = hasRest;
+      }
+
+      @Override
+      public int read() throws IOException {
+         int b = prefix.read();
+         if (b >= 0 || !hasRest) {
+            return b;
+         }
+         return source.read();
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+         if (len == 0) {
+            return 0;
+         }
+         int n = prefix.read(b, off, len);
+         if (n > 0 || !hasRest) {
+            return n;
+         }
+         return source.read(b, off, len);
+      }
+
+      @Override
+      public boolean isFinished() {
+         return prefix.available() == 0 && (!hasRest || source.isFinished());
+      }
+
+      @Override
+      public boolean isReady() {
+         return prefix.available() > 0 || !hasRest || source.isReady();
+      }
+
+      @Override
+      public void setReadListener(ReadListener readListener) {
+         source.setReadListener(new ReadListener() {
+            @Override
+            public void onDataAvailable() throws IOException {
+               readListener.onDataAvailable();
+            }
+
+            @Override
+            public void onAllDataRead() throws IOException {
+               if (prefix.available() > 0) { //Исходный поток кончился раньше, чем слушатель забрал начало тела
+                  readListener.onDataAvailable();
+               }
+               readListener.onAllDataRead();
+            }
+
+            @Override
+            public void onError(Throwable t) {
+               readListener.onError(t);
+            }
+         });
+      }
+   }
+}
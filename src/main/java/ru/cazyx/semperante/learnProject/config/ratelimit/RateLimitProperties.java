@@ -0,0 +1,148 @@
+package ru.cazyx.semperante.learnProject.config.ratelimit;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Настройки ограничения частоты входа, регистрации и перевыпуска токена (spring.rate-limit)
+ */
+@ConfigurationProperties(prefix = "spring.rate-limit")
+public class RateLimitProperties {
+   /**
+    * Включено ли ограничение
+    */
+   private boolean enabled = true;
+   /**
+    * Где хранятся корзины
+    */
+   private Store store = Store.MEMORY;
+   /**
+    * На сколько независимых частей (каждая со своей блокировкой) разбиты корзины в памяти
+    */
+   private int stripes = 64;
+   /**
+    * Максимальное количество корзин в памяти
+    */
+   private int maxKeys = 100000;
+   /**
+    * Лимит на один IP для каждого из маршрутов
+    */
+   private Limit ip = new Limit(20, 20);
+   /**
+    * Лимит на один логин (почту) для входа и регистрации, с любых IP
+    */
+   private Limit login = new Limit(5, 5);
+
+   public boolean isEnabled() {
+      return enabled;
+   }
+
+   public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+   }
+
+   public Store getStore() {
+      return store;
+   }
+
+   public void setStore(Store store) {
+      this.store = store;
+   }
+
+   public int getStripes() {
+      return stripes;
+   }
+
+   public void setStripes(int stripes) {
+      this.stripes = stripes;
+   }
+
+   public int getMaxKeys() {
+      return maxKeys;
+   }
+
+   public void setMaxKeys(int maxKeys) {
+      this.maxKeys = maxKeys;
+   }
+
+   public Limit getIp() {
+      return ip;
+   }
+
+   public void setIp(Limit ip) {
+      this.ip = ip;
+   }
+
+   public Limit getLogin() {
+      return login;
+   }
+
+   public void setLogin(Limit login) {
+      this.login = login;
+   }
+
+   /**
+    * Хранилище корзин
+    */
+   public enum Store {
+      /**
+       * В памяти экземпляра: у каждого экземпляра приложения свой лимит
+       */
+      MEMORY,
+      /**
+       * В PostgreSQL: лимит общий для всех экземпляров, но каждая проверка - запрос в БД
+       */
+      POSTGRES
+   }
+
+   /**
+    * Параметры одной корзины
+    */
+   public static class Limit {
+      /**
+       * Сколько запросов можно сделать подряд
+       */
+      private int capacity;
+      /**
+       * Сколько запросов в минуту доступно в среднем
+       */
+      private int refillPerMinute;
+
+      public Limit() {
+      }
+
+      public Limit(int capacity, int refillPerMinute) {
+         this.capacity = capacity;
+         this.refillPerMinute = refillPerMinute;
+      }
+
+      public int getCapacity() {
+         return capacity;
+      }
+
+      public void setCapacity(int capacity) {
+         this.capacity = capacity;
+      }
+
+      public int getRefillPerMinute() {
+         return refillPerMinute;
+      }
+
+      public void setRefillPerMinute(int refillPerMinute) {
+         this.refillPerMinute = refillPerMinute;
+      }
+
+      /**
+       * @return Скорость пополнения корзины, токенов в секунду
+       */
+      public double refillPerSecond() {
+         return refillPerMinute / 60.0;
+      }
+
+      /**
+       * @return Через сколько секунд пустая корзина становится полной
+       */
+      public long secondsToFill() {
+         return (long) Math.ceil(capacity / refillPerSecond());
+      }
+   }
+}
@@ -0,0 +1,20 @@
+package ru.cazyx.semperante.learnProject.config.ratelimit;
+
+/**
+ * Хранилище корзин токенов (token bucket) для ограничения частоты запросов.
+ * <p>
+ * У каждого ключа своя корзина вместимостью capacity. Каждый запрос забирает из неё один токен,
+ * а токены непрерывно доливаются со скоростью refillPerSecond, но не больше вместимости.
+ * Т.е. разрешается всплеск до capacity запросов подряд, а в среднем - не чаще refillPerSecond.
+ */
+public interface TokenBuckets {
+   /**
+    * Забрать один токен из корзины ключа. Корзины, которой ещё нет, считается полной
+    *
+    * @param key             Ключ (например, "ip:login:127.0.0.1")
+    * @param capacity        Вместимость корзины
+    * @param refillPerSecond Скорость пополнения, токенов в секунду
+    * @return 0 - токен получен, иначе - через сколько мс (не позже) в корзине появится токен
+    */
+   long tryAcquire(String key, int capacity, double refillPerSecond);
+}
@@ -3,14 +3,35 @@ package ru.cazyx.semperante.learnProject.controllers;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import org.springframework.data.domain.Page;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import ru.cazyx.semperante.learnProject.dto.requests.SingleValueRequest;
+import ru.cazyx.semperante.learnProject.dto.responses.CursorPageResponse;
 import ru.cazyx.semperante.learnProject.dto.responses.MessageResponse;
+import ru.cazyx.semperante.learnProject.dto.responses.MessageSearchResponse;
+import ru.cazyx.semperante.learnProject.dto.responses.SliceResponse;
+import ru.cazyx.semperante.learnProject.services.MessageCounter;
+import ru.cazyx.semperante.learnProject.services.MessageExportService;
+import ru.cazyx.semperante.learnProject.services.MessageFeedHub;
 import ru.cazyx.semperante.learnProject.services.MessageService;
+import ru.cazyx.semperante.learnProject.services.MessageWriteBehind;
 
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
 
 //Контроллер REST API
 @RestController
@@ -31,14 +52,24 @@ import javax.validation.Valid;
 public class MessageController {
 
    private final MessageService messageService;
+   private final MessageFeedHub messageFeedHub;
+   private final MessageWriteBehind messageWriteBehind;
+   private final MessageExportService messageExportService;
 
    /**
     * Конструктор для спринга
     *
-    * @param messageService Сервис, который будет реализовывать логику контроллера
+    * @param messageService       Сервис, который будет реализовывать логику контроллера
+    * @param messageFeedHub       Живая лента сообщений
+    * @param messageWriteBehind   Отправка сообщений (с групповым коммитом, если он включен)
+    * @param messageExportService Выгрузка сообщений
     */
-   public MessageController(MessageService messageService) {
+   public MessageController(MessageService messageService, MessageFeedHub messageFeedHub, MessageWriteBehind messageWriteBehind,
+                            MessageExportService messageExportService) {
       this.messageService = messageService;
+      this.messageFeedHub = messageFeedHub;
+      this.messageWriteBehind = messageWriteBehind;
+      this.messageExportService = messageExportService;
    }
 
 
@@ -50,30 +81,271 @@ public class MessageController {
     *                Аннотация @RequestBody - говорит о том, что данный параметр передается в теле запроса
     *                Аннотация @Valid - говорит о том, что тело запроса должно автоматически проверяться на валидность
     * @return {@link ResponseEntity} - отвечает за возвращение ответа в формате JSON.
+    * 202 без тела, если при групповом коммите сообщение уже сохраняется, но коммит не подтвердился вовремя
     */
    @PostMapping("") //POST запрос в корень контроллера (т.е. POST http://127.0.0.1:8080/v1/messages/)
    @Operation(summary = "Отправить сообщение", tags = "Сообщения") //Описание для сваггера
    public ResponseEntity<MessageResponse> doCreate(@RequestBody @Valid SingleValueRequest<String> message) {
-      return ResponseEntity.ok(messageService.create(message.value())); //Вызываем метод в сервисе
+      MessageResponse saved = messageWriteBehind.create(message.value()); //Вызываем метод в сервисе
+      if (saved == null) { //Групповой коммит не подтвердился вовремя, но сообщение уже сохраняется - повторять не нужно
+         return ResponseEntity.accepted().build();
+      }
+      return ResponseEntity.ok(saved);
+   }
+
+   /**
+    * Массовая отправка сообщений от имени авторизованного пользователя (например, импорт).
+    * Все сообщения сохраняются в одной транзакции пачками (batch INSERT).
+    *
+    * @param messages Тело запроса со списком текстов сообщений: {"value": ["...", "..."]}
+    * @return Созданные сообщения в том же порядке
+    */
+   @PostMapping("/batch")
+   @Operation(summary = "Отправить несколько сообщений одним запросом", tags = "Сообщения")
+   public ResponseEntity<List<MessageResponse>> doCreateBatch(@RequestBody @Valid SingleValueRequest<List<String>> messages) {
+      return ResponseEntity.ok(messageService.createBatch(messages.value()));
    }
 
    /**
     * Запрос возвращающий список сообщений с пагинацией и сортировкой по времени отправки DESC (сначала новые)
     *
-    * @param limit QUERY параметр задающий количество сообщений на странице
-    * @param page  QUERY параметр задающий индекс страницы (начиная с 0)
-    *              <p>
-    *              Query параметры описываются аннотацией @RequestParam внутри которого указывается обязателен ли параметр.
-    *              В нашем случае параметры необязательны, но заданы значения по-умолчанию 20 и 0 соотв.
-    * @return "Страницу" сообщений - по сути список сообщений с полями необходимыми для пагинации
+    * @param limit   QUERY параметр задающий количество сообщений на странице
+    * @param page    QUERY параметр задающий индекс страницы (начиная с 0)
+    *                <p>
+    *                Query параметры описываются аннотацией @RequestParam внутри которого указывается обязателен ли параметр.
+    *                В нашем случае параметры необязательны, но заданы значения по-умолчанию 20 и 0 соотв.
+    * @param request Запрос (для условного GET: If-None-Match)
+    * @return "Страницу" сообщений - по сути список сообщений с полями необходимыми для пагинации. 304, если ничего не изменилось
     */
    @GetMapping("") //GET запрос в корень контроллера (GET http://127.0.0.1/v1/messages/)
    @Operation(summary = "Получение списка сообщений с пагинацией", tags = "Сообщения") //Описание для сваггера
    public ResponseEntity<Page<MessageResponse>> doList(
            @RequestParam(required = false, defaultValue = "20") Integer limit,
-           @RequestParam(required = false, defaultValue = "0") Integer page
+           @RequestParam(required = false, defaultValue = "0") Integer page,
+           WebRequest request
+   ) {
+      return conditional(request, messageService.messagesEtag(), () -> messageService.getMessages(limit, page));
+   }
+
+   /**
+    * Запрос списка сообщений в компактном виде без подсчета общего количества (Slice).
+    * <p>
+    * Вместо полей Page отдает только элементы и признак наличия следующей страницы.
+    * Общее количество можно запросить параметром total: APPROXIMATE (оценка PostgreSQL) или CACHED (та же оценка, запомненная в памяти и обновляемая по расписанию)
+    *
+    * @param limit   QUERY параметр задающий количество сообщений на странице
+    * @param page    QUERY параметр задающий индекс страницы (начиная с 0)
+    * @param total   QUERY параметр - режим подсчета общего количества (по-умолчанию NONE - не считать)
+    * @param request Запрос (для условного GET: If-None-Match)
+    * @return Компактная страница сообщений. 304, если ничего не изменилось (только без total: оценки количества меняются сами по себе)
+    */
+   @GetMapping("/slice")
+   @Operation(summary = "Получение списка сообщений без подсчета общего количества", tags = "Сообщения")
+   public ResponseEntity<SliceResponse<MessageResponse>> doListSlice(
+           @RequestParam(required = false, defaultValue = "20") Integer limit,
+           @RequestParam(required = false, defaultValue = "0") Integer page,
+           @RequestParam(required = false, defaultValue = "NONE") MessageCounter.TotalMode total,
+           WebRequest request
+   ) {
+      if (total != MessageCounter.TotalMode.NONE) {
+         return ResponseEntity.ok(messageService.getMessagesSlice(limit, page, total));
+      }
+      return conditional(request, messageService.messagesEtag(), () -> messageService.getMessagesSlice(limit, page, total));
+   }
+
+   /**
+    * Запрос списка сообщений с пагинацией по курсору (от новых к старым).
+    * <p>
+    * Для первой страницы курсор не передается, для следующих - передается nextCursor из предыдущего ответа.
+    * В отличие от пагинации по номеру страницы, любая страница отдается за одинаковое время.
+    *
+    * @param limit   QUERY параметр задающий количество сообщений на странице
+    * @param cursor  QUERY параметр - курсор из предыдущего ответа (необязательный)
+    * @param request Запрос (для условного GET: If-None-Match, ответ 304, если ничего не изменилось)
+    * @return Сообщения и курсор следующей страницы (null, если страниц больше нет)
+    */
+   @GetMapping("/cursor")
+   @Operation(summary = "Получение списка сообщений с пагинацией по курсору", tags = "Сообщения")
+   public ResponseEntity<CursorPageResponse<MessageResponse>> doListByCursor(
+           @RequestParam(required = false, defaultValue = "20") Integer limit,
+           @RequestParam(required = false) String cursor,
+           WebRequest request
+   ) {
+      return conditional(request, messageService.messagesEtag(), () -> messageService.getMessagesByCursor(limit, cursor));
+   }
+
+   /**
+    * Сообщения одного пользователя (от новых к старым) с пагинацией по курсору
+    *
+    * @param login   Логин автора
+    * @param limit   QUERY параметр задающий количество сообщений на странице
+    * @param cursor  QUERY параметр - курсор из предыдущего ответа (необязательный)
+    * @param request Запрос (для условного GET: If-None-Match, ответ 304, если ничего не изменилось)
+    * @return Сообщения автора и курсор следующей страницы (null, если страниц больше нет)
+    */
+   @GetMapping("/by/{login}")
+   @Operation(summary = "Сообщения пользователя", tags = "Сообщения")
+   public ResponseEntity<CursorPageResponse<MessageResponse>> doListByAuthor(
+           @PathVariable String login,
+           @RequestParam(required = false, defaultValue = "20") Integer limit,
+           @RequestParam(required = false) String cursor,
+           WebRequest request
+   ) {
+      return conditional(request, messageService.messagesEtag(), () -> messageService.getMessagesByAuthor(login, limit, cursor));
+   }
+
+   /**
+    * Свои сообщения (от новых к старым) с пагинацией по курсору
+    *
+    * @param limit   QUERY параметр задающий количество сообщений на странице
+    * @param cursor  QUERY параметр - курсор из предыдущего ответа (необязательный)
+    * @param request Запрос (для условного GET: If-None-Match, ответ 304, если ничего не изменилось)
+    * @return Свои сообщения и курсор следующей страницы (null, если страниц больше нет)
+    */
+   @GetMapping("/me")
+   @Operation(summary = "Свои сообщения", tags = "Сообщения")
+   public ResponseEntity<CursorPageResponse<MessageResponse>> doListMine(
+           @RequestParam(required = false, defaultValue = "20") Integer limit,
+           @RequestParam(required = false) String cursor,
+           WebRequest request
    ) {
-      return ResponseEntity.ok(messageService.getMessages(limit, page));
+      return conditional(request, messageService.myMessagesEtag(), () -> messageService.getMyMessages(limit, cursor));
+   }
+
+   /**
+    * Полнотекстовый поиск сообщений. Сначала самые релевантные, у каждого сообщения - фрагменты текста с подсвеченными словами.
+    * <p>
+    * Следующая страница запрашивается с тем же q и nextCursor из предыдущего ответа
+    *
+    * @param q       QUERY параметр - поисковый запрос: слова, "точная фраза", or, -исключить
+    * @param limit   QUERY параметр задающий количество сообщений на странице
+    * @param cursor  QUERY параметр - курсор из предыдущего ответа (необязательный)
+    * @param request Запрос (для условного GET: If-None-Match, ответ 304, если ничего не изменилось)
+    * @return Найденные сообщения и курсор следующей страницы (null, если страниц больше нет)
+    */
+   @GetMapping("/search")
+   @Operation(summary = "Полнотекстовый поиск сообщений", tags = "Сообщения")
+   public ResponseEntity<CursorPageResponse<MessageSearchResponse>> doSearch(
+           @RequestParam String q,
+           @RequestParam(required = false, defaultValue = "20") Integer limit,
+           @RequestParam(required = false) String cursor,
+           WebRequest request
+   ) {
+      return conditional(request, messageService.messagesEtag(), () -> messageService.searchMessages(q, limit, cursor));
+   }
+
+   /**
+    * Живая лента: подписка на создание, редактирование и удаление сообщений по Server-Sent Events.
+    * <p>
+    * Каждое событие приходит с именем CREATED/EDITED/DELETED и JSON {@link ru.cazyx.semperante.learnProject.dto.responses.MessageEvent} в data.
+    * Периодически приходит комментарий-пинг. Если клиент не успевает читать - он будет отключен,
+    * после переподключения пропущенное можно дочитать через /cursor
+    *
+    * @return Поток событий (text/event-stream)
+    */
+   @GetMapping(value = "/live", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+   @Operation(summary = "Подписка на новые сообщения (Server-Sent Events)", tags = "Сообщения")
+   public SseEmitter doLive() {
+      return messageFeedHub.subscribe();
+   }
+
+   /**
+    * Админский роут выгрузки сообщений в формате NDJSON (по сообщению на строку, от старых к новым).
+    * Например: http://127.0.0.1:8080/v1/messages/admin/export?since=2024-01-01T00:00:00&until=2024-02-01T00:00:00
+    * <p>
+    * Ответ пишется прямо в поток ответа по мере чтения из БД, без сборки в памяти, поэтому выгрузка любого размера
+    * занимает постоянную память. Пишем в потоке запроса, а не через асинхронный StreamingResponseBody:
+    * у асинхронных ответов есть таймаут, а большая выгрузка может идти дольше.
+    * Если клиент принимает gzip (Accept-Encoding), ответ сжимается на лету.
+    * <p>
+    * Ошибка посреди выгрузки статус ответа уже не поменяет - клиент получит оборванный поток (последняя строка без перевода строки).
+    * Одновременных выгрузок не больше spring.messages-export.max-concurrent, лишние сразу получают 503.
+    *
+    * @param since          Отправленные не раньше (ISO дата-время, необязательно)
+    * @param until          Отправленные раньше (ISO дата-время, необязательно)
+    * @param acceptEncoding Какие сжатия принимает клиент
+    * @param response       Ответ, в поток которого пишутся сообщения
+    * @throws IOException Если клиент отключился
+    */
+   @GetMapping(value = "/admin/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+   @Operation(summary = "Выгрузка сообщений (NDJSON)", tags = "Администратор")
+   public void doExport(@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime since,
+                        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime until,
+                        @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+                        HttpServletResponse response) throws IOException {
+      messageExportService.checkPeriod(since, until); //До заголовков: ошибка должна уйти обычным ответом 400
+      try (MessageExportService.ExportPermit ignored = messageExportService.acquirePermit()) { //Тоже до заголовков: 503, если выгрузок уже максимум
+         writeExport(since, until, acceptEncoding, response);
+      }
+   }
+
+   /**
+    * Записать выгрузку в ответ (с заголовками)
+    *
+    * @param since          Отправленные не раньше или null
+    * @param until          Отправленные раньше или null
+    * @param acceptEncoding Какие сжатия принимает клиент
+    * @param response       Ответ
+    * @throws IOException Если клиент отключился
+    */
+   private void writeExport(LocalDateTime since, LocalDateTime until, String acceptEncoding, HttpServletResponse response) throws IOException {
+      boolean gzip = acceptsGzip(acceptEncoding);
+      response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+      response.setCharacterEncoding("UTF-8");
+      response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename("messages.ndjson").build().toString());
+      response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+      if (gzip) {
+         response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+      }
+      OutputStream out = response.getOutputStream();
+      if (gzip) {
+         GZIPOutputStream gzipOut = new GZIPOutputStream(out, 64 * 1024);
+         messageExportService.export(since, until, gzipOut);
+         gzipOut.finish(); //Дописываем конец gzip-потока, сам поток ответа закроет контейнер
+      }
+      else {
+         messageExportService.export(since, until, out);
+      }
+      response.flushBuffer();
+   }
+
+   /**
+    * Принимает ли клиент gzip. Заголовок разбирается по RFC 9110: "gzip;q=0" - явный отказ,
+    * "*" подходит к gzip, если gzip не назван отдельно
+    *
+    * @param acceptEncoding Значение Accept-Encoding или null
+    * @return true, если gzip или x-gzip (или *) указан с q больше нуля
+    */
+   static boolean acceptsGzip(String acceptEncoding) {
+      if (acceptEncoding == null) {
+         return false;
+      }
+      Double gzip = null;
+      Double any = null;
+      for (String part : acceptEncoding.split(",")) {
+         String[] params = part.split(";");
+         String coding = params[0].trim().toLowerCase(Locale.ROOT);
+         double q = 1;
+         for (int i = 1; i < params.length; i++) {
+            String param = params[i].trim();
+            if (param.length() > 2 && (param.charAt(0) == 'q' || param.charAt(0) == 'Q') && param.charAt(1) == '=') {
+               try {
+                  q = Double.parseDouble(param.substring(2).trim());
+               }
+               catch (NumberFormatException e) { //Кривой q - считаем, что кодировка не принимается
+                  q = 0;
+               }
+            }
+         }
+         if (coding.equals("gzip") || coding.equals("x-gzip")) {
+            gzip = gzip == null ? q : Math.max(gzip, q);
+         }
+         else if (coding.equals("*")) {
+            any = q;
+         }
+      }
+      double q = gzip != null ? gzip : any != null ? any : 0;
+      return q > 0;
    }
 
    /**
@@ -103,4 +375,24 @@ public class MessageController {
    public ResponseEntity<MessageResponse> doEdit(@PathVariable Long id, @RequestBody @Valid SingleValueRequest<String> message) {
       return ResponseEntity.ok(messageService.edit(id, message.value()));
    }
+
+   /**
+    * Условный GET. ETag - дешевая метка изменений, не зависящая от тела ответа:
+    * если клиент прислал такой же в If-None-Match - сразу 304 без запроса в БД и без сериализации.
+    * <p>
+    * Cache-Control: private, no-cache - хранить ответ можно только клиенту, и перед использованием его нужно перепроверить.
+    * Без этого Spring Security запретил бы кэширование вовсе (no-store), и клиент не присылал бы ETag
+    *
+    * @param request Запрос
+    * @param etag    Текущий ETag
+    * @param body    Построение тела ответа - вызывается, только если ответ изменился
+    * @param <T>     Тип тела
+    * @return 200 с телом или null - ответ 304 уже выставлен
+    */
+   private static <T> ResponseEntity<T> conditional(WebRequest request, String etag, Supplier<T> body) {
+      if (request.checkNotModified(etag)) { //Заодно выставляет заголовок ETag в ответ
+         return null;
+      }
+      return ResponseEntity.ok().cacheControl(CacheControl.noCache().cachePrivate()).body(body.get());
+   }
 }
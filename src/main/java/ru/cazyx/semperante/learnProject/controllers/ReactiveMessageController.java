@@ -0,0 +1,65 @@
+package ru.cazyx.semperante.learnProject.controllers;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.security.SecurityRequirement;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ru.cazyx.semperante.learnProject.dto.responses.CursorPageResponse;
+import ru.cazyx.semperante.learnProject.dto.responses.MessageResponse;
+import ru.cazyx.semperante.learnProject.services.ReactiveMessageService;
+
+/**
+ * Контроллер неблокирующего чтения сообщений (R2DBC). Работает рядом с {@link MessageController}.
+ * <p>
+ * Методы возвращают Mono/Flux вместо ResponseEntity: спринг сам дождется результата, не занимая поток Tomcat на время запроса в БД.
+ */
+@RestController
+@RequestMapping(value = "/v1/reactive/messages", produces = MediaType.APPLICATION_JSON_VALUE)
+@SecurityRequirement(name = "auth")
+public class ReactiveMessageController {
+
+   private final ReactiveMessageService reactiveMessageService;
+
+   /**
+    * Конструктор для спринга
+    *
+    * @param reactiveMessageService Сервис неблокирующего чтения сообщений
+    */
+   public ReactiveMessageController(ReactiveMessageService reactiveMessageService) {
+      this.reactiveMessageService = reactiveMessageService;
+   }
+
+   /**
+    * Список сообщений с пагинацией по курсору (от новых к старым). То же самое, что GET /v1/messages/cursor
+    *
+    * @param limit  QUERY параметр задающий количество сообщений на странице
+    * @param cursor QUERY параметр - курсор из предыдущего ответа (необязательный)
+    * @return Сообщения и курсор следующей страницы (null, если страниц больше нет)
+    */
+   @GetMapping("")
+   @Operation(summary = "Неблокирующее получение списка сообщений с пагинацией по курсору", tags = "Сообщения")
+   public Mono<CursorPageResponse<MessageResponse>> doList(
+           @RequestParam(required = false, defaultValue = "20") Integer limit,
+           @RequestParam(required = false) String cursor
+   ) {
+      return reactiveMessageService.getMessagesByCursor(limit, cursor);
+   }
+
+   /**
+    * Последние сообщения потоком в формате NDJSON (один JSON объект на строку).
+    * Сообщения отправляются по мере чтения из БД, клиент может обрабатывать их не дожидаясь конца ответа
+    *
+    * @param limit QUERY параметр - сколько сообщений отдать
+    * @return Поток сообщений от новых к старым
+    */
+   @GetMapping(value = "/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+   @Operation(summary = "Потоковое получение последних сообщений (NDJSON)", tags = "Сообщения")
+   public Flux<MessageResponse> doStream(@RequestParam(required = false, defaultValue = "1000") Integer limit) {
+      return reactiveMessageService.streamMessages(limit);
+   }
+}
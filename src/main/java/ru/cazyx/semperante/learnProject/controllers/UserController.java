@@ -3,12 +3,17 @@ package ru.cazyx.semperante.learnProject.controllers;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.http.CacheControl;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import ru.cazyx.semperante.learnProject.dto.requests.AuthRequest;
 import ru.cazyx.semperante.learnProject.dto.requests.RegisterRequest;
+import ru.cazyx.semperante.learnProject.dto.requests.SingleValueRequest;
 import ru.cazyx.semperante.learnProject.dto.responses.AuthorizationResponse;
+import ru.cazyx.semperante.learnProject.dto.responses.LoginAvailabilityResponse;
+import ru.cazyx.semperante.learnProject.dto.responses.PrincipalCacheStatsResponse;
 import ru.cazyx.semperante.learnProject.entities.LearnUser;
 import ru.cazyx.semperante.learnProject.services.UserService;
 
@@ -37,13 +42,17 @@ public class UserController {
    /**
     * Получение модели пользователя по токену авторизации
     *
-    * @return Модель пользователя
+    * @param request Запрос (для условного GET: If-None-Match)
+    * @return Модель пользователя. 304 без запроса в БД, если модель не изменилась
     */
    @GetMapping("/me")
    @SecurityRequirement(name = "auth")
    @Operation(summary = "Получить модель текущего пользователя")
-   public ResponseEntity<LearnUser> getMe() {
-      return ResponseEntity.ok(userService.getMe());
+   public ResponseEntity<LearnUser> getMe(WebRequest request) {
+      if (request.checkNotModified(userService.getMeEtag())) {
+         return null; //304 уже выставлен
+      }
+      return ResponseEntity.ok().cacheControl(CacheControl.noCache().cachePrivate()).body(userService.getMe());
    }
 
    /**
@@ -58,6 +67,18 @@ public class UserController {
       return ResponseEntity.ok(userService.register(req));
    }
 
+   /**
+    * Проверка, свободен ли логин (для формы регистрации). Свободные логины отвечаются без запроса в БД
+    *
+    * @param login Логин
+    * @return Логин и свободен ли он
+    */
+   @GetMapping("/available")
+   @Operation(summary = "Проверить, свободен ли логин")
+   public ResponseEntity<LoginAvailabilityResponse> isLoginAvailable(@RequestParam String login) {
+      return ResponseEntity.ok(new LoginAvailabilityResponse(login, userService.isLoginAvailable(login)));
+   }
+
    /**
     * Авторизация
     *
@@ -86,6 +107,19 @@ public class UserController {
       return ResponseEntity.ok().build();
    }
 
+   /**
+    * Выход со всех устройств. Все токены перевыпуска удаляются, а уже выданные JWT (включая текущий) перестают приниматься
+    *
+    * @return Пустое тело ответа
+    */
+   @PostMapping("/logout-all")
+   @SecurityRequirement(name = "auth")
+   @Operation(summary = "Выйти из учетной записи на всех устройствах")
+   public ResponseEntity<Void> doLogoutAll() {
+      userService.doLogoutAll();
+      return ResponseEntity.ok().build();
+   }
+
    /**
     * Роут перевыпуска JWT по Refresh-Токену
     *
@@ -98,4 +132,32 @@ public class UserController {
       return ResponseEntity.ok(userService.doReset(refreshToken));
    }
 
+   /**
+    * Админский роут статистики кэша пользователей в JwtFilter.
+    * По нему видно, сколько авторизованных запросов обошлись без похода в БД.
+    *
+    * @return Попадания, промахи и размер кэша
+    */
+   @GetMapping("/admin/principal-cache")
+   @SecurityRequirement(name = "auth")
+   @Operation(summary = "Статистика кэша авторизованных пользователей", tags = "Администратор")
+   public ResponseEntity<PrincipalCacheStatsResponse> getPrincipalCacheStats() {
+      return ResponseEntity.ok(userService.getPrincipalCacheStats());
+   }
+
+   /**
+    * Админский роут смены роли пользователя. Выданные пользователю JWT после этого получают 401
+    *
+    * @param id   ИД пользователя
+    * @param role Новая роль
+    * @return Пустое тело ответа
+    */
+   @PutMapping("/admin/role/{id}")
+   @SecurityRequirement(name = "auth")
+   @Operation(summary = "Сменить роль пользователя", tags = "Администратор")
+   public ResponseEntity<Void> doChangeRole(@PathVariable Long id, @RequestBody @Valid SingleValueRequest<LearnUser.UserRole> role) {
+      userService.changeRole(id, role.value());
+      return ResponseEntity.ok().build();
+   }
+
 }
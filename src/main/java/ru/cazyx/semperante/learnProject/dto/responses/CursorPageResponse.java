@@ -0,0 +1,16 @@
+package ru.cazyx.semperante.learnProject.dto.responses;
+
+import java.util.List;
+
+/**
+ * Страница для пагинации курсором (keyset).
+ * <p>
+ * В отличие от {@link org.springframework.data.domain.Page} тут нет номера страницы и общего количества:
+ * следующая страница запрашивается по курсору, а не по смещению, поэтому любая страница стоит столько же, сколько первая.
+ *
+ * @param items      Элементы страницы
+ * @param nextCursor Непрозрачный курсор для запроса следующей страницы. null, если дальше ничего нет
+ * @param <T>        Тип элементов
+ */
+public record CursorPageResponse<T>(List<T> items, String nextCursor) {
+}
@@ -0,0 +1,10 @@
+package ru.cazyx.semperante.learnProject.dto.responses;
+
+/**
+ * Ответ проверки логина для формы регистрации
+ *
+ * @param login     Проверенный логин
+ * @param available Свободен ли логин. Это подсказка: занять логин может кто-то другой до отправки регистрации
+ */
+public record LoginAvailabilityResponse(String login, boolean available) {
+}
@@ -0,0 +1,34 @@
+package ru.cazyx.semperante.learnProject.dto.responses;
+
+/**
+ * Событие ленты сообщений, отправляемое подписчикам (GET /v1/messages/live)
+ *
+ * @param type    Что произошло
+ * @param id      ИД сообщения (для {@link EventType#AUTHOR_CHANGED} - ИД пользователя)
+ * @param message Сообщение после изменения. null для удаления и смены автора
+ */
+public record MessageEvent(EventType type, Long id, MessageResponse message) {
+
+   /**
+    * Типы событий
+    */
+   public enum EventType {
+      /**
+       * Сообщение отправлено
+       */
+      CREATED,
+      /**
+       * Сообщение отредактировано
+       */
+      EDITED,
+      /**
+       * Сообщение удалено
+       */
+      DELETED,
+      /**
+       * Сменились данные автора, попадающие в ответы сообщений (роль). Подписчикам ленты не отправляется -
+       * нужно только для смены ETag списков на всех экземплярах
+       */
+      AUTHOR_CHANGED
+   }
+}
@@ -0,0 +1,12 @@
+package ru.cazyx.semperante.learnProject.dto.responses;
+
+/**
+ * Сообщение, найденное поиском
+ *
+ * @param message Сообщение целиком
+ * @param snippet Фрагменты текста вокруг найденных слов, сами слова обернуты в &lt;mark&gt;&lt;/mark&gt;.
+ *                Это безопасный HTML: текст сообщения в нем уже экранирован, других тегов нет, его можно вставлять как есть.
+ *                Поле message, наоборот, - обычный текст
+ */
+public record MessageSearchResponse(MessageResponse message, String snippet) {
+}
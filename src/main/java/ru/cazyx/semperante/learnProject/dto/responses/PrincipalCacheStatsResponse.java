@@ -0,0 +1,12 @@
+package ru.cazyx.semperante.learnProject.dto.responses;
+
+/**
+ * Статистика кэша пользователей в JwtFilter
+ *
+ * @param hits    Сколько раз пользователь был найден в кэше (без запроса в БД)
+ * @param misses  Сколько раз пришлось идти в БД
+ * @param hitRate Доля попаданий (от 0 до 1)
+ * @param size    Примерное количество пользователей в кэше
+ */
+public record PrincipalCacheStatsResponse(long hits, long misses, double hitRate, long size) {
+}
@@ -0,0 +1,19 @@
+package ru.cazyx.semperante.learnProject.dto.responses;
+
+import java.util.List;
+
+/**
+ * Компактная "страница" без подсчета общего количества элементов.
+ * <p>
+ * В отличие от сериализованного {@link org.springframework.data.domain.Page} тут нет громоздких pageable/sort,
+ * а для ответа не нужен дополнительный запрос SELECT count(*).
+ *
+ * @param items   Элементы страницы
+ * @param page    Индекс страницы (с нуля)
+ * @param limit   Размер страницы
+ * @param hasNext Есть ли следующая страница
+ * @param total   Общее количество элементов (приблизительное или из кэша). null, если не запрашивалось
+ * @param <T>     Тип элементов
+ */
+public record SliceResponse<T>(List<T> items, int page, int limit, boolean hasNext, Long total) {
+}
@@ -5,6 +5,7 @@ import org.hibernate.annotations.CreationTimestamp;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
+import ru.cazyx.semperante.learnProject.entities.listeners.LearnUserCacheListener;
 
 import javax.persistence.*;
 import javax.validation.constraints.Email;
@@ -21,9 +22,12 @@ import java.util.List;
  * Название таблицы задается в аннотации @Table
  * <p>
  * Мы наследуем интерфейс UserDetails чтобы данная модель распознавались спрингом как пользователь, который может быть авторизован
+ * <p>
+ * Аннотация @EntityListeners подключает слушателя, который сбрасывает пользователя из кэша авторизации при изменениях
  */
 @Entity
 @Table(name = "learn_users")
+@EntityListeners(LearnUserCacheListener.class)
 public class LearnUser implements UserDetails {
    /**
     * Поле ID. Должно быть у всех сущностей. Помечается аннотацией @Id
@@ -40,10 +44,12 @@ public class LearnUser implements UserDetails {
     * <p>
     * Обратите внимание, что @GeneratedValue.generator == @SequenceGenerator.name
     * В первом мы задаем имя генератора, во втором, собственно, создаем генератор с этим именем
+    * <p>
+    * Шаг счетчика в БД (INCREMENT BY) обязан совпадать с allocationSize - он выставлен миграцией V6
     */
    @Id
    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "learn_users_seq")
-   @SequenceGenerator(name = "learn_users_seq", sequenceName = "learn_users_id_seq", allocationSize = 1)
+   @SequenceGenerator(name = "learn_users_seq", sequenceName = "learn_users_id_seq", allocationSize = 50)
    private Long id;
    /**
     * Логин нашего пользователя.
@@ -83,6 +89,14 @@ public class LearnUser implements UserDetails {
    @CreationTimestamp
    private Timestamp registeredAt;
 
+   /**
+    * Версия токенов пользователя.
+    * <p>
+    * Записывается в каждый выпускаемый JWT. Если увеличить значение, все ранее выпущенные JWT пользователя перестанут приниматься.
+    */
+   @JsonIgnore
+   private int tokenVersion;
+
    /**
     * Сообщения пользователя.
     * <p>
@@ -181,6 +195,15 @@ public class LearnUser implements UserDetails {
       this.registeredAt = registeredAt;
    }
 
+   @JsonIgnore
+   public int getTokenVersion() {
+      return tokenVersion;
+   }
+
+   public void setTokenVersion(int tokenVersion) {
+      this.tokenVersion = tokenVersion;
+   }
+
    @JsonIgnore
    public List<UserMessage> getMessages() {
       return messages;
@@ -3,6 +3,7 @@ package ru.cazyx.semperante.learnProject.entities;
 import org.hibernate.annotations.CreationTimestamp;
 import org.hibernate.annotations.Fetch;
 import org.hibernate.annotations.FetchMode;
+import ru.cazyx.semperante.learnProject.entities.listeners.UserMessageDeleteListener;
 
 import javax.persistence.*;
 import java.sql.Timestamp;
@@ -11,13 +12,19 @@ import java.sql.Timestamp;
  * Роут сообщений пользователя
  * <p>
  * Нового тут сказать нечего, смотрите описания внутри других сущностей.
+ * <p>
+ * allocationSize = 100 совпадает с hibernate.jdbc.batch_size: при массовой вставке на каждые 100 сообщений
+ * уходит один запрос за значением счетчика и один batch INSERT. Шаг самого счетчика в БД задан миграцией V6.
+ * <p>
+ * Слушатель {@link UserMessageDeleteListener} публикует событие на любом удалении сообщения
  */
 @Entity
 @Table(name = "learn_user_messages")
+@EntityListeners(UserMessageDeleteListener.class)
 public class UserMessage {
    @Id
    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "learn_user_messages_seq")
-   @SequenceGenerator(name = "learn_user_messages_seq", sequenceName = "learn_user_messages_id_seq", allocationSize = 1)
+   @SequenceGenerator(name = "learn_user_messages_seq", sequenceName = "learn_user_messages_id_seq", allocationSize = 100)
    private Long id;
 
    @ManyToOne
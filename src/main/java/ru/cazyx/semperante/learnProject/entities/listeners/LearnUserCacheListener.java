@@ -0,0 +1,44 @@
+package ru.cazyx.semperante.learnProject.entities.listeners;
+
+import ru.cazyx.semperante.learnProject.config.filters.PrincipalCache;
+import ru.cazyx.semperante.learnProject.entities.LearnUser;
+
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+
+/**
+ * Слушатель событий сущности {@link LearnUser}.
+ * <p>
+ * Подключается к сущности аннотацией @EntityListeners. Методы, помеченные @PostPersist/@PostUpdate/@PostRemove,
+ * Hibernate вызывает после сохранения, обновления и удаления сущности соответственно.
+ * <p>
+ * Сам слушатель создает спринг (Spring Boot передает в Hibernate свой контейнер бинов), поэтому в конструктор работает инъекция зависимостей.
+ */
+public class LearnUserCacheListener {
+   /**
+    * Кэш пользователей, который нужно держать в актуальном состоянии
+    */
+   private final PrincipalCache principalCache;
+
+   /**
+    * Конструктор для спринга
+    *
+    * @param principalCache Кэш пользователей
+    */
+   public LearnUserCacheListener(PrincipalCache principalCache) {
+      this.principalCache = principalCache;
+   }
+
+   /**
+    * Пользователь сохранен, обновлен или удален - сбрасываем его из кэша
+    *
+    * @param user Сущность пользователя
+    */
+   @PostPersist
+   @PostUpdate
+   @PostRemove
+   public void onChange(LearnUser user) {
+      principalCache.invalidate(user.getId());
+   }
+}
@@ -0,0 +1,45 @@
+package ru.cazyx.semperante.learnProject.entities.listeners;
+
+import org.springframework.context.ApplicationEventPublisher;
+import ru.cazyx.semperante.learnProject.dto.responses.MessageEvent;
+import ru.cazyx.semperante.learnProject.entities.UserMessage;
+
+import javax.persistence.PreRemove;
+
+/**
+ * Слушатель удаления сущности {@link UserMessage}.
+ * <p>
+ * Сообщение удаляется не только из MessageService: вместе с пользователем (каскад из {@link ru.cazyx.semperante.learnProject.entities.LearnUser})
+ * и через любые методы репозитория. Поэтому событие DELETED публикуется тут, на любом удалении сущности,
+ * а дальше его обрабатывают как обычно: ETag списков (MessageService), уведомления других экземпляров (MessageFeedNotifier) и живая лента.
+ * <p>
+ * Используется @PreRemove, а не @PostRemove: PostRemove Hibernate вызывает при сбросе изменений в БД, т.е. уже во время коммита,
+ * когда уведомления этой транзакции уже отправлены. JPQL и SQL удаления мимо сущностей слушатель не видит.
+ * <p>
+ * В конструктор передается только публикатор событий: зависимость от сервисов создала бы цикл с фабрикой EntityManager
+ */
+public class UserMessageDeleteListener {
+   /**
+    * Публикатор событий спринга
+    */
+   private final ApplicationEventPublisher eventPublisher;
+
+   /**
+    * Конструктор для спринга
+    *
+    * @param eventPublisher Публикатор событий
+    */
+   public UserMessageDeleteListener(ApplicationEventPublisher eventPublisher) {
+      this.eventPublisher = eventPublisher;
+   }
+
+   /**
+    * Сообщение удаляется - публикуем событие. Обработчики с @TransactionalEventListener сработают только после коммита
+    *
+    * @param message Сущность сообщения
+    */
+   @PreRemove
+   public void onRemove(UserMessage message) {
+      eventPublisher.publishEvent(new MessageEvent(MessageEvent.EventType.DELETED, message.getId(), null));
+   }
+}
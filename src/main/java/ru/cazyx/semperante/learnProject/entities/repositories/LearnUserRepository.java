@@ -1,7 +1,9 @@
 package ru.cazyx.semperante.learnProject.entities.repositories;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
 import ru.cazyx.semperante.learnProject.entities.LearnUser;
 
 import java.util.Optional;
@@ -36,14 +38,50 @@ public interface LearnUserRepository extends JpaRepository<LearnUser, Long> {
    Optional<LearnUser> findByCredentials(String login);
 
    /**
-    * Поиск по логину или почте (отдельно). Используется для проверки "занятости" полей.
+    * ИД пользователя по логину (без учета регистра, по индексу learn_users_login_idx). Сама сущность не загружается
     *
     * @param login Логин
-    * @param email Почта
-    * @return null-safe ответ с пользователем (или без)
+    * @return ИД пользователя (или пустой Optional)
     */
-   @Query("SELECt u FROM LearnUser  u WHERE lower(u.login) = lower(?1) OR lower(u.email) = lower(?2)")
-   Optional<LearnUser> findByCredentials(String login, String email);
+   @Query("SELECT u.id FROM LearnUser u WHERE lower(u.login) = lower(?1)")
+   Optional<Long> findIdByLogin(String login);
 
+   /**
+    * Заменить хэш пароля пользователя (например, при смене стоимости BCrypt)
+    *
+    * @param id     ИД пользователя
+    * @param digest Новый хэш
+    */
+   @Modifying
+   @Transactional
+   @Query("UPDATE LearnUser u SET u.passwordDigest = ?2 WHERE u.id = ?1")
+   void updatePasswordDigest(Long id, String digest);
 
+   /**
+    * Увеличить версию токенов пользователя. Все выпущенные ему до этого JWT перестают приниматься (см. JwtFilter)
+    * <p>
+    * Запрос идет мимо сущности, поэтому кэш пользователей (PrincipalCache) должен сбросить вызывающий
+    *
+    * @param id ИД пользователя
+    * @return Количество измененных строк (0 - пользователя нет)
+    */
+   @Modifying
+   @Transactional
+   @Query("UPDATE LearnUser u SET u.tokenVersion = u.tokenVersion + 1 WHERE u.id = ?1")
+   int incrementTokenVersion(Long id);
+
+   /**
+    * Сменить роль пользователя. Версия токенов растет тем же запросом: роль записана в JWT,
+    * и старые токены со старой ролью приниматься не должны
+    * <p>
+    * Кэш пользователей (PrincipalCache) сбрасывает вызывающий
+    *
+    * @param id   ИД пользователя
+    * @param role Новая роль
+    * @return Количество измененных строк (0 - пользователя нет)
+    */
+   @Modifying
+   @Transactional
+   @Query("UPDATE LearnUser u SET u.role = ?2, u.tokenVersion = u.tokenVersion + 1 WHERE u.id = ?1")
+   int updateRole(Long id, LearnUser.UserRole role);
 }
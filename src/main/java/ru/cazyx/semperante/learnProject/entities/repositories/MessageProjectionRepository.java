@@ -0,0 +1,145 @@
+package ru.cazyx.semperante.learnProject.entities.repositories;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+import ru.cazyx.semperante.learnProject.dto.responses.MessageResponse;
+import ru.cazyx.semperante.learnProject.entities.LearnUser;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Чтение страниц сообщений сразу в модель ответа, без Hibernate.
+ * <p>
+ * Страницы - keyset (курсорная) пагинация: вместо OFFSET БД просят "строки после такой-то", а не "пропусти N строк".
+ * При наличии индекса (sent_at DESC, id DESC) это чтение диапазона индекса, и глубокие страницы стоят столько же, сколько первая.
+ * <p>
+ * Через JPA для каждой строки создается сущность сообщения и сущность автора целиком (с хэшем пароля, почтой, датой регистрации),
+ * обе регистрируются в контексте персистентности, и для каждой хранится снимок полей для dirty-checking.
+ * Для списка нужны только 5 столбцов {@link MessageResponse}, поэтому тут они и выбираются, а строка сразу становится record'ом.
+ * <p>
+ * Запросы выполняются через JdbcTemplate в той же транзакции, что и остальные (JpaTransactionManager отдает ему то же подключение),
+ * так что @Transactional(readOnly = true) и маршрутизация на реплики работают как обычно.
+ */
+@Repository
+public class MessageProjectionRepository {
+   /**
+    * Общая часть запросов: ровно столбцы {@link MessageResponse}
+    */
+   private static final String SELECT = """
+           SELECT m.id, m.message, m.sent_at, u.login, u.role
+           FROM learn_user_messages m JOIN learn_users u ON u.id = m.author_id
+           """;
+   /**
+    * Порядок и лимит keyset-пагинации. Совпадает с индексами (sent_at DESC, id DESC) и (author_id, sent_at DESC, id DESC)
+    */
+   private static final String ORDER = " ORDER BY m.sent_at DESC, m.id DESC LIMIT ?";
+   /**
+    * Строка результата -> модель ответа. Столбцы читаются по номеру, без поиска по имени
+    */
+   private static final RowMapper<MessageResponse> MAPPER = (rs, rowNum) -> new MessageResponse(
+           rs.getLong(1), rs.getString(2), rs.getTimestamp(3), rs.getString(4), LearnUser.UserRole.valueOf(rs.getString(5)));
+
+   private final JdbcTemplate jdbcTemplate;
+
+   /**
+    * Конструктор для спринга
+    *
+    * @param jdbcTemplate Спринговская обертка над JDBC
+    */
+   public MessageProjectionRepository(JdbcTemplate jdbcTemplate) {
+      this.jdbcTemplate = jdbcTemplate;
+   }
+
+   /**
+    * Первая страница сообщений (от новых к старым)
+    *
+    * @param limit Размер страницы
+    * @return Сообщения
+    */
+   public List<MessageResponse> findFirstPage(int limit) {
+      return jdbcTemplate.query(SELECT + ORDER, MAPPER, limit);
+   }
+
+   /**
+    * Страница сообщений, идущих после позиции (sentAt, id) в порядке (sent_at DESC, id DESC).
+    * Сравнение строк (sent_at, id) < (...) - граница диапазона индекса learn_user_messages_sent_id_idx.
+    * Условие sent_at <= ? по смыслу лишнее, но по сравнению строк PostgreSQL секции не отсекает, а по нему - отсекает
+    * (таблица разбита на месяцы по sent_at, см. миграцию V10): более новые месяцы даже не открываются
+    *
+    * @param sentAt Время отправки последнего сообщения предыдущей страницы
+    * @param id     ИД последнего сообщения предыдущей страницы
+    * @param limit  Размер страницы
+    * @return Сообщения
+    */
+   public List<MessageResponse> findPageBefore(Timestamp sentAt, Long id, int limit) {
+      return jdbcTemplate.query(SELECT + "WHERE m.sent_at <= ? AND (m.sent_at, m.id) < (?, ?)" + ORDER, MAPPER, sentAt, sentAt, id, limit);
+   }
+
+   /**
+    * Первая страница сообщений одного автора (от новых к старым).
+    * Идет по индексу learn_user_messages_author_sent_id_idx (author_id, sent_at DESC, id DESC)
+    *
+    * @param authorId ИД автора
+    * @param limit    Размер страницы
+    * @return Сообщения автора
+    */
+   public List<MessageResponse> findAuthorFirstPage(Long authorId, int limit) {
+      return jdbcTemplate.query(SELECT + "WHERE m.author_id = ?" + ORDER, MAPPER, authorId, limit);
+   }
+
+   /**
+    * Страница сообщений автора, идущих после позиции (sentAt, id) в порядке (sent_at DESC, id DESC).
+    * Условие sent_at <= ? - для отсечения секций, как в {@link #findPageBefore(Timestamp, Long, int)}
+    *
+    * @param authorId ИД автора
+    * @param sentAt   Время отправки последнего сообщения предыдущей страницы
+    * @param id       ИД последнего сообщения предыдущей страницы
+    * @param limit    Размер страницы
+    * @return Сообщения автора
+    */
+   public List<MessageResponse> findAuthorPageBefore(Long authorId, Timestamp sentAt, Long id, int limit) {
+      return jdbcTemplate.query(SELECT + "WHERE m.author_id = ? AND m.sent_at <= ? AND (m.sent_at, m.id) < (?, ?)" + ORDER, MAPPER, authorId, sentAt, sentAt, id, limit);
+   }
+
+   /**
+    * Все сообщения за период в порядке отправки (от старых к новым), по одному, через курсор на стороне БД.
+    * <p>
+    * Драйвер PostgreSQL по-умолчанию загружает весь результат в память. С fetchSize внутри транзакции (autocommit выключен)
+    * он открывает курсор и забирает строки порциями по fetchSize, поэтому память не зависит от количества строк.
+    * Должен вызываться внутри транзакции.
+    *
+    * @param since     Отправленные не раньше (или null)
+    * @param until     Отправленные раньше (или null)
+    * @param fetchSize Сколько строк забирать из курсора за раз
+    * @param consumer  Обработчик каждого сообщения
+    */
+   public void forEachBetween(Timestamp since, Timestamp until, int fetchSize, Consumer<MessageResponse> consumer) {
+      List<Object> args = new ArrayList<>(2);
+      List<String> conditions = new ArrayList<>(2);
+      if (since != null) { //Условия по sent_at отсекают лишние секции таблицы (см. миграцию V10)
+         conditions.add("m.sent_at >= ?");
+         args.add(since);
+      }
+      if (until != null) {
+         conditions.add("m.sent_at < ?");
+         args.add(until);
+      }
+      String sql = SELECT + (conditions.isEmpty() ? "" : "WHERE " + String.join(" AND ", conditions)) + " ORDER BY m.sent_at, m.id";
+      jdbcTemplate.query(con -> {
+         PreparedStatement ps = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+         ps.setFetchSize(fetchSize);
+         for (int i = 0; i < args.size(); i++) {
+            ps.setObject(i + 1, args.get(i));
+         }
+         return ps;
+      }, rs -> {
+         consumer.accept(MAPPER.mapRow(rs, 0));
+      });
+   }
+}
@@ -0,0 +1,105 @@
+package ru.cazyx.semperante.learnProject.entities.repositories;
+
+import io.r2dbc.spi.Row;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import ru.cazyx.semperante.learnProject.dto.responses.MessageResponse;
+import ru.cazyx.semperante.learnProject.entities.LearnUser;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+
+/**
+ * Неблокирующее чтение сообщений через R2DBC.
+ * <p>
+ * В отличие от {@link UserMessagesRepository} запросы не занимают поток на время ожидания БД:
+ * ответ приходит на поток event-loop драйвера, которых всего несколько на всё приложение.
+ * <p>
+ * Сущности JPA тут не используются - строки сразу превращаются в модели ответа. Подключения берутся
+ * из отдельного пула R2DBC (spring.r2dbc.pool), а не из Hikari.
+ */
+@Repository
+public class ReactiveMessagesRepository {
+   /**
+    * Общая часть запросов: сообщение вместе с логином и ролью автора
+    */
+   private static final String SELECT = """
+           SELECT m.id, m.message, m.sent_at, u.login, u.role
+           FROM learn_user_messages m JOIN learn_users u ON u.id = m.author_id
+           """;
+
+   private final DatabaseClient client;
+
+   /**
+    * Конструктор для спринга
+    *
+    * @param client Клиент R2DBC
+    */
+   public ReactiveMessagesRepository(DatabaseClient client) {
+      this.client = client;
+   }
+
+   /**
+    * Первая страница сообщений (от новых к старым)
+    *
+    * @param limit Размер страницы
+    * @return Сообщения
+    */
+   public Flux<MessageResponse> findFirstPage(int limit) {
+      return client.sql(SELECT + "ORDER BY m.sent_at DESC, m.id DESC LIMIT :limit")
+              .bind("limit", limit)
+              .map(ReactiveMessagesRepository::toResponse)
+              .all();
+   }
+
+   /**
+    * Страница сообщений, идущих после позиции (sentAt, id) в порядке (sent_at DESC, id DESC).
+    * Сравнение строк (sent_at, id) < (...) идет по индексу learn_user_messages_sent_id_idx,
+    * условие sent_at <= :sentAt - для отсечения секций (см. {@link MessageProjectionRepository#findPageBefore(Timestamp, Long, int)})
+    *
+    * @param sentAt Время отправки последнего сообщения предыдущей страницы
+    * @param id     ИД последнего сообщения предыдущей страницы
+    * @param limit  Размер страницы
+    * @return Сообщения
+    */
+   public Flux<MessageResponse> findPageBefore(Timestamp sentAt, Long id, int limit) {
+      return client.sql(SELECT + "WHERE m.sent_at <= :sentAt AND (m.sent_at, m.id) < (:sentAt, :id) ORDER BY m.sent_at DESC, m.id DESC LIMIT :limit")
+              .bind("sentAt", sentAt.toLocalDateTime())
+              .bind("id", id)
+              .bind("limit", limit)
+              .map(ReactiveMessagesRepository::toResponse)
+              .all();
+   }
+
+   /**
+    * Последние сообщения потоком.
+    * <p>
+    * fetchSize заставляет драйвер читать результат порциями через курсор: следующая порция запрашивается у БД,
+    * только когда клиент забрал предыдущую (backpressure), поэтому весь результат не копится в памяти.
+    *
+    * @param limit     Сколько сообщений отдать
+    * @param fetchSize Размер порции
+    * @return Сообщения от новых к старым
+    */
+   public Flux<MessageResponse> streamLatest(int limit, int fetchSize) {
+      return client.sql(SELECT + "ORDER BY m.sent_at DESC, m.id DESC LIMIT :limit")
+              .bind("limit", limit)
+              .filter(statement -> statement.fetchSize(fetchSize))
+              .map(ReactiveMessagesRepository::toResponse)
+              .all();
+   }
+
+   /**
+    * Преобразовать строку результата в модель ответа
+    */
+   private static MessageResponse toResponse(Row row) {
+      LocalDateTime sentAt = row.get("sent_at", LocalDateTime.class);
+      return new MessageResponse(
+              row.get("id", Long.class),
+              row.get("message", String.class),
+              sentAt == null ? null : Timestamp.valueOf(sentAt),
+              row.get("login", String.class),
+              LearnUser.UserRole.valueOf(row.get("role", String.class)));
+   }
+}
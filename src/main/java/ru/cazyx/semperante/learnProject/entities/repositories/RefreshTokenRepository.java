@@ -3,18 +3,78 @@ package ru.cazyx.semperante.learnProject.entities.repositories;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 import ru.cazyx.semperante.learnProject.entities.RefreshToken;
 
+import java.util.Optional;
+
 /**
  * Репозитория Refresh-Токенов
+ * <p>
+ * Первичный ключ (token) - это SHA-256 от токена, сам токен в БД не хранится.
  */
 public interface RefreshTokenRepository extends JpaRepository<RefreshToken, String> {
 
    /**
-    * Запрос для удаления истекших токенов
-    * Все запросы, описываемые в репозитории, которые вносят правки в БД, должны помечаться аннотацией {@link Modifying}
+    * Атомарная ротация токена одним запросом.
+    * <p>
+    * DELETE ... RETURNING удаляет старый токен и отдает его владельца, INSERT из результата DELETE сохраняет новый токен,
+    * а итоговый SELECT возвращает данные пользователя для JWT. Всё это - один запрос к БД.
+    * <p>
+    * При параллельных запросах с одним токеном второй DELETE ждет блокировку строки, а после коммита первого уже не находит её,
+    * поэтому новый токен получает ровно один запрос.
+    * <p>
+    * Истекший токен тоже удаляется, но новый по нему не выдается.
+    *
+    * @param oldHash Хэш предъявленного токена
+    * @param newHash Хэш нового токена
+    * @return Владелец токена или пусто, если токен не найден или истек
+    */
+   @Transactional
+   @Query(nativeQuery = true, value = """
+           WITH old AS (DELETE FROM learn_refresh_tokens WHERE token = :oldHash RETURNING user_id, expires_at),
+                ins AS (INSERT INTO learn_refresh_tokens (token, user_id, expires_at)
+                        SELECT :newHash, user_id, CURRENT_TIMESTAMP + INTERVAL '1 day' FROM old WHERE expires_at > CURRENT_TIMESTAMP
+                        RETURNING user_id)
+           SELECT u.id AS "id", u.login AS "login", u.role AS "role", u.token_version AS "tokenVersion"
+           FROM learn_users u JOIN ins ON ins.user_id = u.id
+           """)
+   Optional<RotatedUser> rotate(@Param("oldHash") String oldHash, @Param("newHash") String newHash);
+
+   /**
+    * Удалить токен по хэшу одним запросом (без предварительного SELECT, как у deleteById).
+    * <p>
+    * Если токена уже нет (удален чисткой или ротирован параллельным запросом), ничего не удаляется и ошибки нет
+    *
+    * @param hash Хэш токена
+    */
+   @Modifying
+   @Transactional
+   @Query("DELETE FROM RefreshToken rt WHERE rt.token = ?1")
+   void deleteByHash(String hash);
+
+   /**
+    * Удалить все токены перевыпуска пользователя (выход со всех устройств) одним запросом
+    *
+    * @param userId ИД пользователя
+    * @return Количество удаленных токенов
     */
    @Modifying
-   @Query("DELETE FROM RefreshToken rt WHERE rt.expiresAt < CURRENT_TIMESTAMP")
-   void deleteExpired();
+   @Transactional
+   @Query("DELETE FROM RefreshToken rt WHERE rt.learnUser.id = ?1")
+   int deleteByUserId(Long userId);
+
+   /**
+    * Данные пользователя, возвращаемые ротацией токена
+    */
+   interface RotatedUser {
+      Long getId();
+
+      String getLogin();
+
+      String getRole();
+
+      Integer getTokenVersion();
+   }
 }
@@ -1,12 +1,128 @@
 package ru.cazyx.semperante.learnProject.entities.repositories;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import ru.cazyx.semperante.learnProject.entities.UserMessage;
 
+import java.sql.Timestamp;
+import java.util.List;
+
 /**
  * Репозитория отвечающая за работу сообщениями.
- * Никакой особой логики для них мы не реализуем, потому стандартного набора, заложенного у родителей, нам хватит.
+ * Кроме стандартного набора, заложенного у родителей, тут описаны запросы поиска и страниц без подсчета общего количества.
+ * Страницы keyset-пагинации читаются без сущностей - см. {@link MessageProjectionRepository}.
+ * <p>
+ * Методы возвращают List или Slice, а не Page, поэтому спринг не делает дополнительный запрос count(*).
  */
 public interface UserMessagesRepository extends JpaRepository<UserMessage, Long> {
+   /**
+    * Общая часть поисковых запросов: сообщения, подходящие под запрос, с релевантностью (ts_rank).
+    * Поиск по message_tsv идет по GIN индексу learn_user_messages_tsv_idx
+    */
+   String SEARCH_FROM = """
+           FROM websearch_to_tsquery('russian', :query) q, learn_user_messages m JOIN learn_users u ON u.id = m.author_id
+           WHERE m.message_tsv @@ q
+           """;
+   /**
+    * Внешняя часть поисковых запросов. Фрагмент с подсветкой (ts_headline) заново разбирает весь текст сообщения,
+    * поэтому строится снаружи подзапроса - только для сообщений, попавших в страницу, а не для всех найденных.
+    * <p>
+    * Фрагмент - это HTML: текст пользователя перед ts_headline экранируется (&amp; &lt; &gt; " '), так что единственные теги в нем - наши &lt;mark&gt;.
+    * Без этого сообщение с &lt;script&gt; или &lt;img onerror&gt; выполнилось бы у любого, кто нашел его поиском.
+    * Сущности вроде &amp;lt; парсер поиска разбирает как отдельные лексемы, поэтому слова вокруг находятся и подсвечиваются как раньше
+    */
+   String SEARCH_SELECT = """
+           SELECT p.id, p.message, p.sent_at AS "sentAt", p.login, p.role, p.rank,
+                  ts_headline('russian',
+                              replace(replace(replace(replace(replace(p.message, '&', '&amp;'), '<', '&lt;'), '>', '&gt;'), '"', '&quot;'), '''', '&#39;'),
+                              websearch_to_tsquery('russian', :query),
+                              'StartSel=<mark>, StopSel=</mark>, MaxFragments=2, MaxWords=30, MinWords=10, FragmentDelimiter=" ... "') AS snippet
+           FROM (SELECT m.id, m.message, m.sent_at, u.login, u.role, ts_rank(m.message_tsv, q) AS rank
+           """;
+
+   /**
+    * Страница сообщений без подсчета общего количества.
+    * <p>
+    * Для Slice спринг запрашивает на одну строку больше лимита - так он узнает, есть ли следующая страница, не делая count(*).
+    * Сортировка берется из Pageable.
+    *
+    * @param pageable Страница, лимит и сортировка
+    * @return Сообщения вместе с авторами
+    */
+   @Query("SELECT m FROM UserMessage m JOIN FETCH m.learnUser")
+   Slice<UserMessage> findSlice(Pageable pageable);
+
+   /**
+    * Первая страница поиска: самые релевантные сообщения (ts_rank DESC, id DESC)
+    *
+    * @param query Поисковый запрос в синтаксисе websearch_to_tsquery: слова, "фраза", or, -исключить
+    * @param limit Размер страницы
+    * @return Найденные сообщения с релевантностью и фрагментом с подсветкой
+    */
+   @Query(nativeQuery = true, value = SEARCH_SELECT + SEARCH_FROM + "ORDER BY rank DESC, m.id DESC LIMIT :limit) p ORDER BY p.rank DESC, p.id DESC")
+   List<SearchHit> searchFirstPage(@Param("query") String query, @Param("limit") int limit);
+
+   /**
+    * Страница поиска после позиции (rank, id) в порядке (ts_rank DESC, id DESC).
+    * <p>
+    * Релевантность зависит от запроса и считается для каждого найденного сообщения, поэтому, в отличие от ленты, индекса по порядку нет.
+    * Курсор всё равно лучше OFFSET: отданные страницы отсекаются условием, а не сортируются и выбрасываются заново,
+    * и страницы не "съезжают", если между запросами появились новые сообщения.
+    *
+    * @param query Поисковый запрос
+    * @param rank  Релевантность последнего сообщения предыдущей страницы
+    * @param id    ИД последнего сообщения предыдущей страницы
+    * @param limit Размер страницы
+    * @return Найденные сообщения с релевантностью и фрагментом с подсветкой
+    */
+   @Query(nativeQuery = true, value = SEARCH_SELECT + SEARCH_FROM
+           + "AND (ts_rank(m.message_tsv, q), m.id) < (CAST(:rank AS real), :id) ORDER BY rank DESC, m.id DESC LIMIT :limit) p ORDER BY p.rank DESC, p.id DESC")
+   List<SearchHit> searchPageAfter(@Param("query") String query, @Param("rank") float rank, @Param("id") Long id, @Param("limit") int limit);
+
+   /**
+    * Примерное количество сообщений из статистики планировщика PostgreSQL.
+    * Не читает саму таблицу, поэтому стоит одинаково при любом её размере.
+    * До первого ANALYZE reltuples может быть -1, поэтому берем не меньше нуля.
+    * <p>
+    * У секционированной таблицы (V10) своих строк нет, строки считаются по секциям из pg_inherits. Её собственный reltuples
+    * (с PostgreSQL 14 ANALYZE заполняет и его) - это сумма тех же секций, поэтому берутся только обычные таблицы (relkind = 'r').
+    * Сама таблица тоже входит в отбор, поэтому запрос работает и на несекционированной таблице (тесты со схемой от Hibernate).
+    *
+    * @return Оценка количества строк в learn_user_messages
+    */
+   @Query(nativeQuery = true, value = """
+           SELECT CAST(COALESCE(SUM(GREATEST(c.reltuples, 0)), 0) AS int8) FROM pg_class c
+           WHERE c.relkind = 'r'
+             AND (c.oid = CAST('learn_user_messages' AS regclass)
+                  OR c.oid IN (SELECT i.inhrelid FROM pg_inherits i WHERE i.inhparent = CAST('learn_user_messages' AS regclass)))
+           """)
+   long approximateCount();
+
+   /**
+    * Строка результата поиска (проекция нативного запроса)
+    */
+   interface SearchHit {
+      Long getId();
+
+      String getMessage();
+
+      Timestamp getSentAt();
+
+      String getLogin();
+
+      String getRole();
+
+      /**
+       * @return Релевантность (ts_rank)
+       */
+      Float getRank();
 
+      /**
+       * @return Фрагменты текста, найденные слова обернуты в &lt;mark&gt;
+       */
+      String getSnippet();
+   }
 }
@@ -1,7 +1,7 @@
 package ru.cazyx.semperante.learnProject.services;
 
 import org.springframework.security.core.context.SecurityContextHolder;
-import ru.cazyx.semperante.learnProject.entities.LearnUser;
+import ru.cazyx.semperante.learnProject.config.filters.AuthorizedUser;
 
 /**
  * Сервис-родитель всех сервисов
@@ -14,8 +14,16 @@ import ru.cazyx.semperante.learnProject.entities.LearnUser;
  */
 public abstract class AParentService {
 
-   protected static LearnUser getAuthorizedUser() {
-      return (LearnUser) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
+   /**
+    * Взять текущего пользователя из контекста.
+    * <p>
+    * Это не сущность, а легкая модель из JWT/кэша. Если для записи нужна сама сущность -
+    * обычно хватает ссылки через {@link org.springframework.data.jpa.repository.JpaRepository#getReferenceById(Object)}, которая не делает SELECT.
+    *
+    * @return Авторизованный пользователь
+    */
+   protected static AuthorizedUser getAuthorizedUser() {
+      return (AuthorizedUser) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
    }
 
 }
@@ -0,0 +1,192 @@
+package ru.cazyx.semperante.learnProject.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.cazyx.semperante.learnProject.utils.Hashing;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Фильтр Блума занятых логинов и почт (в нижнем регистре) для проверки "свободен ли логин" без запроса в БД.
+ * <p>
+ * Фильтр Блума - битовый массив и k хэш-функций. Добавление выставляет k битов, проверка смотрит, выставлены ли они все.
+ * Если хоть один бит не выставлен - значения точно нет (ответ без БД). Если все выставлены - значение, скорее всего, есть,
+ * но с вероятностью false-positive-rate это совпадение битов других значений, поэтому такой ответ перепроверяется в БД.
+ * На миллион значений при 1% ложных срабатываний нужно около 1.2 МБ.
+ * <p>
+ * Заполняется из БД после старта приложения, пополняется при регистрации на этом экземпляре и периодически пересобирается
+ * (см. {@link ru.cazyx.semperante.learnProject.config.SchedulerConfig}), чтобы подхватить регистрации на других экземплярах
+ * и убрать удаленных пользователей. Ответ "свободен" - только подсказка для формы регистрации, уникальность гарантируют индексы БД.
+ */
+@Service
+public class LoginBloomFilter {
+   private static final Logger log = LoggerFactory.getLogger(LoginBloomFilter.class);
+
+   private final JdbcTemplate jdbcTemplate;
+   /**
+    * Транзакция для чтения всех пользователей курсором (без неё драйвер PostgreSQL загружает весь результат в память).
+    * Не readOnly - чтобы читать с основной БД, а не с отстающей реплики
+    */
+   private final TransactionTemplate transactionTemplate;
+   private final long expectedEntries;
+   private final double falsePositiveRate;
+   /**
+    * Текущий фильтр. null - ещё не заполнен, все проверки идут в БД
+    */
+   private volatile Bits bits;
+   /**
+    * Фильтр, который сейчас собирается из БД. Новые значения пишутся и в него, чтобы не потеряться при подмене
+    */
+   private volatile Bits building;
+
+   /**
+    * Конструктор для спринга
+    *
+    * @param jdbcTemplate       Спринговская обертка над JDBC
+    * @param transactionManager Менеджер транзакций
+    * @param expectedEntries    На сколько значений (логинов и почт) рассчитан фильтр (spring.login-availability.expected-entries)
+    * @param falsePositiveRate  Доля ложных срабатываний при expectedEntries значений (spring.login-availability.false-positive-rate)
+    */
+   public LoginBloomFilter(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                           @Value("${spring.login-availability.expected-entries:1000000}") long expectedEntries,
+                           @Value("${spring.login-availability.false-positive-rate:0.01}") double falsePositiveRate) {
+      this.jdbcTemplate = jdbcTemplate;
+      this.transactionTemplate = new TransactionTemplate(transactionManager);
+      this.expectedEntries = expectedEntries;
+      this.falsePositiveRate = falsePositiveRate;
+   }
+
+   /**
+    * Может ли значение быть занято
+    *
+    * @param value Логин или почта
+    * @return false - точно свободно, true - может быть занято (нужно проверить в БД) или фильтр ещё не заполнен
+    */
+   public boolean mightContain(String value) {
+      Bits current = bits;
+      return current == null || current.mightContain(normalize(value));
+   }
+
+   /**
+    * Добавить занятые значения (после успешной регистрации)
+    *
+    * @param values Логин и почта
+    */
+   public void add(String... values) {
+      Bits current = bits;
+      Bits next = building;
+      for (String value : values) {
+         String normalized = normalize(value);
+         if (current != null) {
+            current.put(normalized);
+         }
+         if (next != null) {
+            next.put(normalized);
+         }
+      }
+   }
+
+   /**
+    * Заполнить фильтр после старта приложения (когда миграции уже применены)
+    */
+   @EventListener(ApplicationReadyEvent.class)
+   public void preload() {
+      rebuild();
+   }
+
+   /**
+    * Собрать новый фильтр из всех логинов и почт в БД и подменить им текущий
+    */
+   public void rebuild() {
+      Bits next = new Bits(expectedEntries, falsePositiveRate);
+      building = next; //До начала чтения: всё, что закоммитят после снимка, допишет add()
+      try {
+         long started = System.currentTimeMillis();
+         transactionTemplate.executeWithoutResult(status -> jdbcTemplate.query(connection -> {
+            var statement = connection.prepareStatement("SELECT lower(login), lower(email) FROM learn_users");
+            statement.setFetchSize(10000);
+            return statement;
+         }, rs -> {
+            next.put(rs.getString(1));
+            next.put(rs.getString(2));
+         }));
+         bits = next;
+         if (next.size() > expectedEntries) {
+            log.warn("Login bloom filter holds {} entries, more than expected {}: false positives will grow", next.size(), expectedEntries);
+         }
+         log.debug("Login bloom filter rebuilt: {} entries in {} ms", next.size(), System.currentTimeMillis() - started);
+      }
+      finally {
+         building = null;
+      }
+   }
+
+   private static String normalize(String value) {
+      return value.toLowerCase(Locale.ROOT);
+   }
+
+   /**
+    * Сам битовый массив. Биты выставляются атомарно (CAS), поэтому добавление и проверка безопасны без блокировок
+    */
+   static final class Bits {
+      private final AtomicLongArray words;
+      private final long bitCount;
+      private final int hashCount;
+      private final AtomicLong size = new AtomicLong();
+
+      /**
+       * Размер массива и количество хэшей - по стандартным формулам: m = -n * ln(p) / ln(2)^2, k = m / n * ln(2)
+       *
+       * @param expectedEntries   Ожидаемое количество значений
+       * @param falsePositiveRate Желаемая доля ложных срабатываний
+       */
+      Bits(long expectedEntries, double falsePositiveRate) {
+         long n = Math.max(1, expectedEntries);
+         long m = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+         int wordCount = (int) Math.max(1, (m + 63) / 64);
+         this.words = new AtomicLongArray(wordCount);
+         this.bitCount = (long) wordCount * 64;
+         this.hashCount = Math.max(1, (int) Math.round((double) bitCount / n * Math.log(2)));
+      }
+
+      void put(String value) {
+         long hash1 = Hashing.hash64(value);
+         long hash2 = Hashing.mix64(hash1 ^ 0x9E3779B97F4A7C15L) | 1; //Второй хэш - нечетный, чтобы шаги не зацикливались
+         for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(hash1 + i * hash2, bitCount);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long old = words.get(word);
+            while ((old & mask) == 0 && !words.compareAndSet(word, old, old | mask)) {
+               old = words.get(word);
+            }
+         }
+         size.incrementAndGet();
+      }
+
+      boolean mightContain(String value) {
+         long hash1 = Hashing.hash64(value);
+         long hash2 = Hashing.mix64(hash1 ^ 0x9E3779B97F4A7C15L) | 1;
+         for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(hash1 + i * hash2, bitCount);
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+               return false;
+            }
+         }
+         return true;
+      }
+
+      long size() {
+         return size.get();
+      }
+   }
+}
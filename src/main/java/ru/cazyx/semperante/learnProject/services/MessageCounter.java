@@ -0,0 +1,82 @@
+package ru.cazyx.semperante.learnProject.services;
+
+import org.springframework.stereotype.Service;
+import ru.cazyx.semperante.learnProject.entities.repositories.UserMessagesRepository;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Сервис, отдающий общее количество сообщений без SELECT count(*) на каждый запрос.
+ * <p>
+ * Точный count(*) в PostgreSQL - это полный проход по таблице (или индексу), и с ростом таблицы он дорожает линейно.
+ * Для пагинации почти всегда достаточно примерного значения, поэтому тут два варианта:
+ * <ul>
+ *    <li>{@link TotalMode#APPROXIMATE} - оценка планировщика из pg_class.reltuples (обновляется VACUUM/ANALYZE)</li>
+ *    <li>{@link TotalMode#CACHED} - та же оценка, запомненная в памяти и обновляемая по расписанию (см. {@link ru.cazyx.semperante.learnProject.config.SchedulerConfig}):
+ *    запрос страницы вообще не обращается к БД за количеством, и между страницами значение не скачет</li>
+ * </ul>
+ * Точный count(*) по расписанию тут не делается: он шел бы по всей (секционированной) таблице раз в период на каждом экземпляре приложения.
+ */
+@Service
+public class MessageCounter {
+   /**
+    * Репозитория сообщений
+    */
+   private final UserMessagesRepository userMessagesRepository;
+   /**
+    * Последнее посчитанное количество сообщений. -1 - ещё не считали
+    */
+   private final AtomicLong cachedCount = new AtomicLong(-1);
+
+   /**
+    * Конструктор для спринга
+    *
+    * @param userMessagesRepository Репозитория сообщений
+    */
+   public MessageCounter(UserMessagesRepository userMessagesRepository) {
+      this.userMessagesRepository = userMessagesRepository;
+   }
+
+   /**
+    * Общее количество сообщений в выбранном режиме
+    *
+    * @param mode Режим подсчета
+    * @return Количество или null для {@link TotalMode#NONE}
+    */
+   public Long count(TotalMode mode) {
+      return switch (mode) {
+         case NONE -> null;
+         case APPROXIMATE -> userMessagesRepository.approximateCount();
+         case CACHED -> {
+            long cached = cachedCount.get();
+            //Пока планировщик ни разу не обновил - берем оценку прямо сейчас
+            yield cached < 0 ? userMessagesRepository.approximateCount() : cached;
+         }
+      };
+   }
+
+   /**
+    * Обновить запомненное количество сообщений по статистике PostgreSQL. Вызывается планировщиком и после удаления секций
+    */
+   public void refresh() {
+      cachedCount.set(userMessagesRepository.approximateCount());
+   }
+
+   /**
+    * Режимы подсчета общего количества
+    */
+   public enum TotalMode {
+      /**
+       * Не считать вовсе
+       */
+      NONE,
+      /**
+       * Оценка из статистики PostgreSQL
+       */
+      APPROXIMATE,
+      /**
+       * Оценка из статистики PostgreSQL, запомненная в памяти и обновляемая по расписанию
+       */
+      CACHED
+   }
+}
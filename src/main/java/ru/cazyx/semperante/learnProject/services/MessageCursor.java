@@ -0,0 +1,51 @@
+package ru.cazyx.semperante.learnProject.services;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Base64;
+
+/**
+ * Курсор keyset-пагинации сообщений - позиция последнего отданного сообщения в порядке (sent_at DESC, id DESC).
+ * <p>
+ * Для фронта курсор непрозрачен: это просто строка (base64), которую нужно вернуть в следующем запросе.
+ *
+ * @param sentAt Время отправки последнего сообщения страницы
+ * @param id     ИД последнего сообщения страницы
+ */
+record MessageCursor(Timestamp sentAt, Long id) {
+
+   /**
+    * Закодировать курсор в строку
+    *
+    * @return Строка вида base64url("секунды.наносекунды:ид")
+    */
+   String encode() {
+      long seconds = Math.floorDiv(sentAt.getTime(), 1000L); //Целые секунды (наносекунды храним отдельно, чтобы не терять микросекунды из БД)
+      String raw = seconds + "." + sentAt.getNanos() + ":" + id;
+      return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+   }
+
+   /**
+    * Раскодировать курсор из строки
+    *
+    * @param cursor Строка, ранее полученная из {@link #encode()}
+    * @return Курсор
+    * @throws ResponseStatusException 400, если строка не является курсором
+    */
+   static MessageCursor decode(String cursor) {
+      try {
+         String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+         int dot = raw.indexOf('.');
+         int colon = raw.indexOf(':');
+         Timestamp sentAt = new Timestamp(Long.parseLong(raw.substring(0, dot)) * 1000L);
+         sentAt.setNanos(Integer.parseInt(raw.substring(dot + 1, colon)));
+         return new MessageCursor(sentAt, Long.parseLong(raw.substring(colon + 1)));
+      }
+      catch (RuntimeException ex) { //Кривой base64, не те разделители, не числа - курсор не наш
+         throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Cursor is invalid");
+      }
+   }
+}
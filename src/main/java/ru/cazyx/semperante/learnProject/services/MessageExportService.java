@@ -0,0 +1,145 @@
+package ru.cazyx.semperante.learnProject.services;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.server.ResponseStatusException;
+import ru.cazyx.semperante.learnProject.config.datasource.ReplicaRoutingDataSource;
+import ru.cazyx.semperante.learnProject.dto.responses.MessageResponse;
+import ru.cazyx.semperante.learnProject.entities.repositories.MessageProjectionRepository;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Выгрузка сообщений в формате NDJSON (одно сообщение - одна строка JSON).
+ * <p>
+ * Сообщения читаются курсором БД порциями по fetch-size и сразу пишутся в переданный поток, т.е. в памяти одновременно
+ * находится не больше одной порции строк и буфер вывода, сколько бы сообщений ни было за период.
+ * <p>
+ * Пока идет выгрузка, она занимает одно подключение из пула, поэтому одновременных выгрузок не больше max-concurrent:
+ * остальные сразу получают 503, а не забирают весь пул у обычных запросов. При включенных репликах выгрузка читает с реплики,
+ * даже если администратор только что писал (см. {@link ReplicaRoutingDataSource#preferReplica()}).
+ */
+@Service
+public class MessageExportService {
+   private static final Logger log = LoggerFactory.getLogger(MessageExportService.class);
+
+   private final MessageProjectionRepository messageProjectionRepository;
+   private final ObjectMapper objectMapper;
+   /**
+    * Сериализатор сообщения. Без сброса буфера после каждого значения: иначе каждая строка уходила бы клиенту отдельной записью в сокет
+    */
+   private final ObjectWriter writer;
+   private final int fetchSize;
+   /**
+    * Разрешения на одновременные выгрузки
+    */
+   private final Semaphore permits;
+
+   /**
+    * Конструктор для спринга
+    *
+    * @param messageProjectionRepository Чтение сообщений через JDBC
+    * @param objectMapper                JSON сериализатор (тот же, что у остальных ответов, поэтому формат полей совпадает)
+    * @param fetchSize                   Сколько строк забирать из курсора за раз (spring.messages-export.fetch-size)
+    * @param maxConcurrent               Сколько выгрузок может идти одновременно (spring.messages-export.max-concurrent)
+    */
+   public MessageExportService(MessageProjectionRepository messageProjectionRepository,
+                               ObjectMapper objectMapper,
+                               @Value("${spring.messages-export.fetch-size:1000}") int fetchSize,
+                               @Value("${spring.messages-export.max-concurrent:1}") int maxConcurrent) {
+      this.messageProjectionRepository = messageProjectionRepository;
+      this.objectMapper = objectMapper;
+      this.writer = objectMapper.writerFor(MessageResponse.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+      this.fetchSize = fetchSize;
+      this.permits = new Semaphore(maxConcurrent);
+   }
+
+   /**
+    * Занять разрешение на выгрузку. Вызывается до того, как начнется ответ, как и {@link #checkPeriod(LocalDateTime, LocalDateTime)}
+    *
+    * @return Разрешение, которое нужно закрыть после выгрузки
+    * @throws ResponseStatusException 503, если уже идет максимум выгрузок
+    */
+   public ExportPermit acquirePermit() {
+      if (!permits.tryAcquire()) {
+         throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many exports in progress, try again later");
+      }
+      return permits::release;
+   }
+
+   /**
+    * Проверить период выгрузки. Вызывается до того, как начнется ответ: после первых байт сменить статус ответа уже нельзя
+    *
+    * @param since Начало периода (включительно) или null
+    * @param until Конец периода (не включительно) или null
+    */
+   public void checkPeriod(LocalDateTime since, LocalDateTime until) {
+      if (since != null && until != null && !since.isBefore(until)) {
+         throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "since must be before until");
+      }
+   }
+
+   /**
+    * Выгрузить сообщения за период в порядке отправки (от старых к новым)
+    *
+    * @param since Начало периода (включительно) или null - с самого первого
+    * @param until Конец периода (не включительно) или null - до последнего
+    * @param out   Куда писать. Не закрывается
+    * @return Количество выгруженных сообщений
+    * @throws IOException Если запись не удалась (например, клиент отключился). Курсор закроется вместе с транзакцией
+    */
+   @Transactional(readOnly = true) //Курсор PostgreSQL работает только внутри транзакции
+   public long export(LocalDateTime since, LocalDateTime until, OutputStream out) throws IOException {
+      checkPeriod(since, until);
+      long started = System.nanoTime();
+      long[] count = new long[1];
+      try (ReplicaRoutingDataSource.ReplicaPreference ignored = ReplicaRoutingDataSource.preferReplica(); //Подключение берется при первом запросе, уже с отметкой
+           JsonGenerator generator = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+         generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET); //Поток закрывает вызывающий
+         generator.setRootValueSeparator(null); //Строки разделяются переводом строки ниже, а не пробелом
+         messageProjectionRepository.forEachBetween(toTimestamp(since), toTimestamp(until), fetchSize, message -> {
+            try {
+               writer.writeValue(generator, message);
+               generator.writeRaw('\n');
+               count[0]++;
+            }
+            catch (IOException e) { //Прерываем чтение курсора
+               throw new UncheckedIOException(e);
+            }
+         });
+      }
+      catch (UncheckedIOException e) {
+         log.info("Message export aborted after {} messages: {}", count[0], e.getCause().getMessage());
+         throw e.getCause();
+      }
+      log.info("Exported {} messages in {} ms", count[0], (System.nanoTime() - started) / 1_000_000);
+      return count[0];
+   }
+
+   /**
+    * Разрешение на выгрузку. Закрытие возвращает его
+    */
+   @FunctionalInterface
+   public interface ExportPermit extends AutoCloseable {
+      @Override
+      void close();
+   }
+
+   private static Timestamp toTimestamp(LocalDateTime value) {
+      return value == null ? null : Timestamp.valueOf(value);
+   }
+}
@@ -0,0 +1,440 @@
+package ru.cazyx.semperante.learnProject.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.cazyx.semperante.learnProject.dto.responses.MessageEvent;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Живая лента сообщений: раздача событий {@link MessageEvent} подписчикам по Server-Sent Events.
+ * <p>
+ * Подписка не держит поток сервера: SseEmitter переводит запрос в асинхронный режим, и поток Tomcat сразу освобождается.
+ * Отправкой занимается небольшой общий пул потоков.
+ * <p>
+ * У каждого подписчика своя ограниченная очередь. Событие кладется в очереди всех подписчиков без ожидания,
+ * а пул разбирает каждую очередь по одному потоку за раз (как актор), поэтому порядок событий у подписчика сохраняется.
+ * Если подписчик не успевает читать и его очередь заполнена - по настройке событие для него пропускается (DROP)
+ * или подписчик отключается (DISCONNECT) и должен переподключиться и дочитать пропущенное обычным списком.
+ * <p>
+ * Отправка в сокет блокирует поток пула, пока клиент не примет данные. Чтобы несколько зависших клиентов не заняли весь пул,
+ * у каждой отправки есть таймаут (write-timeout-millis): подписчик, чья отправка идет дольше, отключается от ленты,
+ * а пул получает временный поток взамен занятого. Сам зависший поток освобождается, когда Tomcat оборвет запись
+ * по своему таймауту (server.tomcat.connection-timeout). Пинги и проверка таймаутов идут на своем потоке ленты,
+ * а не на общем потоке планировщика.
+ * <p>
+ * События попадают сюда только после коммита транзакции, поэтому откаченные изменения в ленту не уходят.
+ * Если включен spring.message-feed.pg-notify, события между экземплярами приложения передает {@link MessageFeedNotifier},
+ * а этот класс только раздает их своим подписчикам.
+ */
+@Service
+public class MessageFeedHub {
+   private static final Logger log = LoggerFactory.getLogger(MessageFeedHub.class);
+   /**
+    * Отметка в очереди подписчика: отправить пинг вместо события
+    */
+   private static final MessageEvent PING = new MessageEvent(null, null, null);
+   /**
+    * Во сколько раз временных потоков (взамен зависших) может быть больше, чем постоянных
+    */
+   private static final int MAX_STALLED_PER_SENDER = 4;
+
+   /**
+    * Что делать с подписчиком, чья очередь заполнена
+    */
+   public enum OverflowPolicy {
+      /**
+       * Пропустить событие для этого подписчика
+       */
+      DROP,
+      /**
+       * Отключить подписчика
+       */
+      DISCONNECT
+   }
+
+   /**
+    * Текущие подписчики
+    */
+   private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+   /**
+    * Пул потоков, отправляющих события подписчикам
+    */
+   private final ThreadPoolExecutor senders;
+   /**
+    * Поток ленты: пинги и проверка зависших отправок
+    */
+   private final ScheduledExecutorService timer;
+   /**
+    * Постоянное количество потоков отправки
+    */
+   private final int senderThreads;
+   /**
+    * Размер очереди одного подписчика
+    */
+   private final int bufferSize;
+   /**
+    * Поведение при заполненной очереди
+    */
+   private final OverflowPolicy overflowPolicy;
+   /**
+    * Время жизни подписки в мс, после которого клиент должен переподключиться
+    */
+   private final long timeoutMillis;
+   /**
+    * Сколько мс может идти одна отправка, прежде чем подписчик будет отключен
+    */
+   private final long writeTimeoutMillis;
+   /**
+    * Как часто отправлять пинг, в секундах
+    */
+   private final long heartbeatSeconds;
+   /**
+    * Сколько отправок сейчас зависло (столько же временных потоков добавлено в пул)
+    */
+   private int stalledSends;
+   /**
+    * События раздает {@link MessageFeedNotifier} через LISTEN/NOTIFY, а не этот класс напрямую
+    */
+   private final boolean pgNotify;
+   /**
+    * Сколько событий пропущено из-за медленных подписчиков
+    */
+   private final AtomicLong dropped = new AtomicLong();
+   /**
+    * Сколько подписчиков отключено по таймауту отправки
+    */
+   private final AtomicLong timedOut = new AtomicLong();
+
+   /**
+    * Конструктор для спринга
+    *
+    * @param bufferSize     Размер очереди одного подписчика (spring.message-feed.buffer-size)
+    * @param overflowPolicy Поведение при заполненной очереди (spring.message-feed.overflow)
+    * @param senderThreads  Количество потоков отправки (spring.message-feed.sender-threads)
+    * @param timeoutMillis      Время жизни подписки в мс (spring.message-feed.timeout-millis)
+    * @param writeTimeoutMillis Сколько мс может идти одна отправка подписчику (spring.message-feed.write-timeout-millis)
+    * @param heartbeatSeconds   Как часто отправлять пинг (spring.message-feed.heartbeat-seconds)
+    * @param pgNotify           Раздавать события через PostgreSQL LISTEN/NOTIFY (spring.message-feed.pg-notify)
+    */
+   public MessageFeedHub(@Value("${spring.message-feed.buffer-size:256}") int bufferSize,
+                         @Value("${spring.message-feed.overflow:DISCONNECT}") OverflowPolicy overflowPolicy,
+                         @Value("${spring.message-feed.sender-threads:4}") int senderThreads,
+                         @Value("${spring.message-feed.timeout-millis:1800000}") long timeoutMillis,
+                         @Value("${spring.message-feed.write-timeout-millis:5000}") long writeTimeoutMillis,
+                         @Value("${spring.message-feed.heartbeat-seconds:25}") long heartbeatSeconds,
+                         @Value("${spring.message-feed.pg-notify:true}") boolean pgNotify) {
+      this.bufferSize = bufferSize;
+      this.overflowPolicy = overflowPolicy;
+      this.senderThreads = senderThreads;
+      this.timeoutMillis = timeoutMillis;
+      this.writeTimeoutMillis = writeTimeoutMillis;
+      this.heartbeatSeconds = heartbeatSeconds;
+      this.pgNotify = pgNotify;
+      this.senders = new ThreadPoolExecutor(senderThreads, senderThreads, 60, TimeUnit.SECONDS,
+              new LinkedBlockingQueue<>(), new CustomizableThreadFactory("message-feed-"));
+      this.timer = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("message-feed-timer-"));
+   }
+
+   /**
+    * Запуск пингов и проверки зависших отправок
+    */
+   @PostConstruct
+   public void start() {
+      timer.scheduleAtFixedRate(this::heartbeat, heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+      long checkMillis = Math.max(100, writeTimeoutMillis / 2);
+      timer.scheduleWithFixedDelay(this::disconnectStalled, checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+   }
+
+   /**
+    * Подписаться на ленту
+    *
+    * @return SseEmitter, который контроллер возвращает как ответ
+    */
+   public SseEmitter subscribe() {
+      return subscribe(new SseEmitter(timeoutMillis));
+   }
+
+   /**
+    * Подписать на ленту готовое подключение
+    *
+    * @param emitter Подключение клиента
+    * @return Оно же
+    */
+   public SseEmitter subscribe(SseEmitter emitter) {
+      Subscriber subscriber = new Subscriber(emitter, new ArrayBlockingQueue<>(bufferSize));
+      emitter.onCompletion(() -> subscribers.remove(subscriber));
+      emitter.onTimeout(() -> subscribers.remove(subscriber));
+      emitter.onError(ex -> subscribers.remove(subscriber));
+      subscribers.add(subscriber);
+      return emitter;
+   }
+
+   /**
+    * Событие от {@link MessageService}. Вызывается спрингом только после успешного коммита транзакции
+    *
+    * @param event Событие
+    */
+   @TransactionalEventListener
+   public void onMessageEvent(MessageEvent event) {
+      if (!pgNotify) { //Иначе событие придет через LISTEN, в том числе и на этот экземпляр
+         broadcast(event);
+      }
+   }
+
+   /**
+    * Раздать событие всем подписчикам этого экземпляра. Не блокируется
+    *
+    * @param event Событие
+    */
+   public void broadcast(MessageEvent event) {
+      if (event.type() == MessageEvent.EventType.AUTHOR_CHANGED) { //Ленте показать нечего, а ИД в событии - ИД пользователя
+         return;
+      }
+      for (Subscriber subscriber : subscribers) {
+         enqueue(subscriber, event);
+      }
+   }
+
+   /**
+    * Отправить всем подписчикам комментарий-пинг. Не дает прокси закрыть простаивающее подключение
+    * и заодно выявляет отвалившихся клиентов
+    */
+   public void heartbeat() {
+      for (Subscriber subscriber : subscribers) {
+         enqueue(subscriber, PING);
+      }
+   }
+
+   /**
+    * Отключить подписчиков, отправка которым идет дольше write-timeout-millis.
+    * Подписчик больше не получает событий, а пул получает временный поток взамен зависшего
+    */
+   void disconnectStalled() {
+      long now = System.currentTimeMillis();
+      for (Subscriber subscriber : subscribers) {
+         long since = subscriber.sendingSince().get();
+         if (since != 0 && now - since > writeTimeoutMillis && markStalled(subscriber)) {
+            subscribers.remove(subscriber);
+            subscriber.queue().clear();
+            timedOut.incrementAndGet();
+            log.debug("Message feed subscriber write timed out, disconnecting");
+         }
+      }
+   }
+
+   /**
+    * @return Количество подписчиков на этом экземпляре
+    */
+   public int subscribersCount() {
+      return subscribers.size();
+   }
+
+   /**
+    * @return Сколько событий пропущено из-за заполненных очередей
+    */
+   public long droppedCount() {
+      return dropped.get();
+   }
+
+   /**
+    * @return Сколько подписчиков отключено по таймауту отправки
+    */
+   public long timedOutCount() {
+      return timedOut.get();
+   }
+
+   /**
+    * Останавливаем пул и закрываем подписки при остановке приложения
+    */
+   @PreDestroy
+   public void shutdown() {
+      timer.shutdownNow();
+      senders.shutdownNow();
+      for (Subscriber subscriber : subscribers) {
+         subscriber.emitter().complete();
+      }
+      subscribers.clear();
+   }
+
+   /**
+    * Положить событие в очередь подписчика и запланировать отправку
+    */
+   private void enqueue(Subscriber subscriber, MessageEvent event) {
+      if (subscriber.queue().offer(event)) {
+         schedule(subscriber);
+         return;
+      }
+      if (overflowPolicy == OverflowPolicy.DROP) {
+         dropped.incrementAndGet();
+      }
+      else if (subscribers.remove(subscriber)) {
+         log.debug("Message feed subscriber is too slow, disconnecting");
+         subscriber.emitter().complete();
+      }
+   }
+
+   /**
+    * Запланировать разбор очереди подписчика, если он ещё не запланирован
+    */
+   private void schedule(Subscriber subscriber) {
+      if (subscriber.scheduled().compareAndSet(false, true)) {
+         try {
+            senders.execute(() -> drain(subscriber));
+         }
+         catch (RejectedExecutionException ex) { //Приложение останавливается
+            subscriber.scheduled().set(false);
+         }
+      }
+   }
+
+   /**
+    * Отправить подписчику всё, что накопилось в его очереди
+    */
+   private void drain(Subscriber subscriber) {
+      try {
+         MessageEvent event;
+         while ((event = subscriber.queue().poll()) != null) {
+            subscriber.sendingSince().set(System.currentTimeMillis());
+            boolean stalled = false;
+            try {
+               subscriber.emitter().send(toSse(event));
+            }
+            finally {
+               stalled = sendFinished(subscriber);
+            }
+            if (stalled) { //Отправка всё же прошла, но подписчик уже отключен по таймауту - пусть переподключится
+               subscriber.emitter().complete();
+               return;
+            }
+         }
+      }
+      catch (IOException | IllegalStateException ex) { //Клиент отключился или подписка уже завершена
+         subscribers.remove(subscriber);
+         subscriber.queue().clear();
+         return;
+      }
+      finally {
+         subscriber.scheduled().set(false);
+      }
+      if (!subscriber.queue().isEmpty()) { //Пока отправляли, пришли новые события
+         schedule(subscriber);
+      }
+   }
+
+   /**
+    * Отметить отправку подписчику зависшей и добавить пулу временный поток
+    *
+    * @return false, если отправка уже закончилась, уже отмечена или временных потоков слишком много
+    */
+   private boolean markStalled(Subscriber subscriber) {
+      synchronized (subscriber) {
+         if (subscriber.sendingSince().get() == 0 || subscriber.stalled().get()) {
+            return false;
+         }
+         synchronized (senders) {
+            if (stalledSends >= senderThreads * MAX_STALLED_PER_SENDER) {
+               return false;
+            }
+            stalledSends++;
+            resizeSenders();
+         }
+         subscriber.stalled().set(true);
+         return true;
+      }
+   }
+
+   /**
+    * Отправка подписчику закончилась. Если она была отмечена зависшей - убрать временный поток
+    *
+    * @return true, если отправка была отмечена зависшей
+    */
+   private boolean sendFinished(Subscriber subscriber) {
+      synchronized (subscriber) {
+         subscriber.sendingSince().set(0);
+         if (!subscriber.stalled().compareAndSet(true, false)) {
+            return false;
+         }
+      }
+      synchronized (senders) {
+         stalledSends--;
+         resizeSenders();
+      }
+      return true;
+   }
+
+   /**
+    * Размер пула: постоянные потоки плюс по одному на каждую зависшую отправку. Вызывается под блокировкой senders
+    */
+   private void resizeSenders() {
+      int size = senderThreads + stalledSends;
+      if (size > senders.getMaximumPoolSize()) { //Максимум не может быть меньше основного размера - порядок важен
+         senders.setMaximumPoolSize(size);
+         senders.setCorePoolSize(size);
+      }
+      else {
+         senders.setCorePoolSize(size);
+         senders.setMaximumPoolSize(size);
+      }
+   }
+
+   /**
+    * Построить SSE событие. Построитель одноразовый, поэтому создается на каждую отправку
+    */
+   private static SseEmitter.SseEventBuilder toSse(MessageEvent event) {
+      if (event == PING) {
+         return SseEmitter.event().comment("ping");
+      }
+      return SseEmitter.event()
+              .id(String.valueOf(event.id()))
+              .name(event.type().name())
+              .data(event, MediaType.APPLICATION_JSON);
+   }
+
+   /**
+    * Подписчик
+    *
+    * @param emitter   Подключение клиента
+    * @param queue     Очередь неотправленных событий
+    * @param scheduled    Отправка уже запланирована или выполняется
+    * @param sendingSince Когда началась текущая отправка (мс), 0 - сейчас не отправляется
+    * @param stalled      Текущая отправка отмечена зависшей
+    */
+   private record Subscriber(SseEmitter emitter, Queue<MessageEvent> queue, AtomicBoolean scheduled,
+                             AtomicLong sendingSince, AtomicBoolean stalled) {
+      Subscriber(SseEmitter emitter, Queue<MessageEvent> queue) {
+         this(emitter, queue, new AtomicBoolean(), new AtomicLong(), new AtomicBoolean());
+      }
+
+      //Подписчики сравниваются по ссылке, а не по содержимому
+      @Override
+      public boolean equals(Object o) {
+         return this == o;
+      }
+
+      @Override
+      public int hashCode() {
+         return System.identityHashCode(this);
+      }
+   }
+}
@@ -0,0 +1,258 @@
+package ru.cazyx.semperante.learnProject.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.cazyx.semperante.learnProject.dto.responses.MessageEvent;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Передача событий ленты сообщений между экземплярами приложения через PostgreSQL LISTEN/NOTIFY.
+ * <p>
+ * NOTIFY выполняется внутри той же транзакции, что и изменение сообщения. PostgreSQL доставляет уведомление только после коммита
+ * и в порядке коммитов, а при откате не доставляет вовсе - отдельная синхронизация не нужна.
+ * События транзакции копятся и отправляются одним запросом перед коммитом (по уведомлению на событие),
+ * т.е. массовая отправка 1000 сообщений стоит одного лишнего запроса, а не тысячи.
+ * <p>
+ * Каждый экземпляр держит одно отдельное подключение (не из пула Hikari, чтобы не занимать его навсегда), делает на нем LISTEN
+ * и раздает полученные события своим подписчикам через {@link MessageFeedHub}, в том числе и события, сделанные на нем самом.
+ * <p>
+ * Размер уведомления в PostgreSQL ограничен 8000 байт. Если сообщение не помещается, отправляется только ИД,
+ * а получатели дочитывают сообщение из БД.
+ */
+@Service
+@ConditionalOnProperty(name = "spring.message-feed.pg-notify", havingValue = "true", matchIfMissing = true)
+public class MessageFeedNotifier {
+   private static final Logger log = LoggerFactory.getLogger(MessageFeedNotifier.class);
+   /**
+    * Канал уведомлений
+    */
+   static final String CHANNEL = "learn_messages";
+   /**
+    * Максимальный размер уведомления в байтах (с запасом от лимита PostgreSQL в 8000)
+    */
+   static final int MAX_PAYLOAD_BYTES = 7900;
+   /**
+    * Сколько мс ждать уведомления за один опрос. От этого зависит, как быстро поток заметит остановку приложения
+    */
+   private static final int POLL_MILLIS = 1000;
+   /**
+    * Пауза перед повторным подключением после обрыва
+    */
+   private static final long RECONNECT_MILLIS = 5000;
+
+   private final JdbcTemplate jdbcTemplate;
+   private final DataSourceProperties dataSourceProperties;
+   private final ObjectMapper objectMapper;
+   private final MessageFeedHub hub;
+   /**
+    * Нужен, чтобы дочитать сообщение, не поместившееся в уведомление
+    */
+   private final MessageService messageService;
+   /**
+    * Поток, слушающий уведомления
+    */
+   private Thread listener;
+   private volatile boolean running;
+
+   /**
+    * Конструктор для спринга
+    *
+    * @param jdbcTemplate         Спринговская обертка над JDBC (для NOTIFY в текущей транзакции)
+    * @param dataSourceProperties Настройки подключения к БД (для отдельного подключения под LISTEN)
+    * @param objectMapper         JSON сериализатор
+    * @param hub                  Раздача событий подписчикам
+    * @param messageService       Сервис сообщений
+    */
+   public MessageFeedNotifier(JdbcTemplate jdbcTemplate, DataSourceProperties dataSourceProperties, ObjectMapper objectMapper,
+                              MessageFeedHub hub, MessageService messageService) {
+      this.jdbcTemplate = jdbcTemplate;
+      this.dataSourceProperties = dataSourceProperties;
+      this.objectMapper = objectMapper;
+      this.hub = hub;
+      this.messageService = messageService;
+   }
+
+   /**
+    * Событие от {@link MessageService}. Запоминается до коммита текущей транзакции, вне транзакции не отправляется
+    *
+    * @param event Событие
+    */
+   @EventListener
+   public void onMessageEvent(MessageEvent event) {
+      if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+         return;
+      }
+      //Синхронизации берутся у текущей транзакции: у вложенной (REQUIRES_NEW) будут свои
+      for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+         if (synchronization instanceof PendingNotifications pending) {
+            pending.events.add(event);
+            return;
+         }
+      }
+      PendingNotifications pending = new PendingNotifications(); //Первое событие транзакции
+      pending.events.add(event);
+      TransactionSynchronizationManager.registerSynchronization(pending);
+   }
+
+   /**
+    * Отправить уведомления одним запросом на подключении текущей транзакции
+    *
+    * @param events События транзакции
+    */
+   private void sendNotifications(List<MessageEvent> events) throws JsonProcessingException {
+      String[] payloads = new String[events.size()];
+      for (int i = 0; i < payloads.length; i++) {
+         payloads[i] = payload(events.get(i));
+      }
+      jdbcTemplate.execute((ConnectionCallback<Void>) con -> {
+         try (PreparedStatement ps = con.prepareStatement("SELECT pg_notify(?, p) FROM unnest(?) AS p")) {
+            ps.setString(1, CHANNEL);
+            ps.setArray(2, con.createArrayOf("text", payloads));
+            ps.executeQuery().close();
+         }
+         return null;
+      });
+   }
+
+   /**
+    * @param event Событие
+    * @return JSON события. Если не помещается в уведомление - только тип и ИД
+    */
+   private String payload(MessageEvent event) throws JsonProcessingException {
+      String payload = objectMapper.writeValueAsString(event);
+      if (payload.getBytes(StandardCharsets.UTF_8).length > MAX_PAYLOAD_BYTES) {
+         payload = objectMapper.writeValueAsString(new MessageEvent(event.type(), event.id(), null));
+      }
+      return payload;
+   }
+
+   /**
+    * Запуск потока, слушающего уведомления
+    */
+   @PostConstruct
+   public void start() {
+      running = true;
+      listener = new Thread(this::listen, "message-feed-listen");
+      listener.setDaemon(true);
+      listener.start();
+   }
+
+   /**
+    * Остановка потока при остановке приложения
+    */
+   @PreDestroy
+   public void stop() {
+      running = false;
+      listener.interrupt();
+   }
+
+   /**
+    * Цикл потока: подключиться, сделать LISTEN и получать уведомления. При обрыве - переподключиться.
+    * <p>
+    * Уведомления, пришедшие пока подключения не было, теряются - подписчики дочитывают пропущенное обычным списком
+    */
+   private void listen() {
+      while (running) {
+         try (Connection con = DriverManager.getConnection(dataSourceProperties.determineUrl(),
+                 dataSourceProperties.determineUsername(), dataSourceProperties.determinePassword())) {
+            try (Statement st = con.createStatement()) {
+               st.execute("LISTEN " + CHANNEL);
+            }
+            PGConnection pg = con.unwrap(PGConnection.class);
+            while (running) {
+               PGNotification[] notifications = pg.getNotifications(POLL_MILLIS);
+               if (notifications == null) {
+                  continue;
+               }
+               for (PGNotification notification : notifications) {
+                  dispatch(notification.getParameter());
+               }
+            }
+         }
+         catch (SQLException ex) {
+            if (running) {
+               log.warn("Message feed LISTEN connection lost, reconnecting in {} ms", RECONNECT_MILLIS, ex);
+               pause();
+            }
+         }
+      }
+   }
+
+   /**
+    * Разобрать уведомление и отдать событие подписчикам
+    *
+    * @param payload JSON события
+    */
+   private void dispatch(String payload) {
+      MessageEvent event;
+      try {
+         event = objectMapper.readValue(payload, MessageEvent.class);
+      }
+      catch (JsonProcessingException ex) {
+         log.warn("Bad message feed notification skipped: {}", payload, ex);
+         return;
+      }
+      messageService.markChanged(); //Изменение могло прийти с другого экземпляра - ETag списков должен смениться и здесь
+      if (event.type() == MessageEvent.EventType.AUTHOR_CHANGED) { //Подписчикам не отправляется
+         return;
+      }
+      if (event.message() == null && event.type() != MessageEvent.EventType.DELETED) { //Сообщение не поместилось в уведомление
+         messageService.findMessage(event.id())
+                 .ifPresent(message -> hub.broadcast(new MessageEvent(event.type(), event.id(), message)));
+         return;
+      }
+      hub.broadcast(event);
+   }
+
+   /**
+    * Пауза перед переподключением
+    */
+   private void pause() {
+      try {
+         Thread.sleep(RECONNECT_MILLIS);
+      }
+      catch (InterruptedException ex) {
+         Thread.currentThread().interrupt();
+         running = false;
+      }
+   }
+
+   /**
+    * События одной транзакции. Отправляются перед её коммитом, т.е. NOTIFY попадает в ту же транзакцию
+    */
+   private final class PendingNotifications implements TransactionSynchronization {
+      private final List<MessageEvent> events = new ArrayList<>();
+
+      @Override
+      public void beforeCommit(boolean readOnly) {
+         try {
+            sendNotifications(events);
+         }
+         catch (JsonProcessingException ex) {
+            throw new IllegalStateException("Message feed event serialization failed", ex);
+         }
+      }
+   }
+}
@@ -0,0 +1,258 @@
+package ru.cazyx.semperante.learnProject.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Обслуживание помесячных секций таблицы сообщений (см. миграцию V10).
+ * <p>
+ * -- Создает секции на months-ahead месяцев вперед, чтобы новые сообщения не попадали в секцию по-умолчанию.
+ * -- Удаляет секции старше retention-months полных месяцев. Удаление секции - DROP TABLE: БД удаляет файлы таблицы и её индексов,
+ * стоимость не зависит от количества строк, нет ни мертвых строк, ни работы для VACUUM (в отличие от DELETE).
+ * Удаленные так сообщения проходят мимо сущностей и событий, поэтому после удаления секций ETag списков и кэшированное
+ * количество сообщений обновляются явно. На других экземплярах ETag сменится при следующем изменении сообщений.
+ * <p>
+ * DDL над секционированной таблицей берет на неё блокировку, которая ждет окончания текущих запросов к сообщениям,
+ * а пока ждет - задерживает новые. Поэтому у каждой команды короткий lock_timeout: не успели - повторим при следующей проверке.
+ * <p>
+ * Если экземпляров приложения несколько, обслуживание выполнит тот, кто первым возьмет advisory lock (как в {@link RefreshTokenSweeper}).
+ * На несекционированной таблице (тесты, где схему создает Hibernate) ничего не делает.
+ */
+@Service
+public class MessagePartitionMaintenance {
+   private static final Logger log = LoggerFactory.getLogger(MessagePartitionMaintenance.class);
+   /**
+    * Ключ advisory lock для обслуживания секций
+    */
+   static final long PARTITIONS_LOCK_KEY = 7_416_002L;
+   /**
+    * Таблица сообщений и префикс имен её секций
+    */
+   private static final String TABLE = "learn_user_messages";
+   private static final String PARTITION_PREFIX = TABLE + "_p";
+   /**
+    * Имя секции: learn_user_messages_pГГГГММ
+    */
+   private static final Pattern PARTITION_NAME = Pattern.compile("^" + PARTITION_PREFIX + "(\\d{6})$");
+   private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyyMM");
+
+   private final JdbcTemplate jdbcTemplate;
+   private final MessageService messageService;
+   private final MessageCounter messageCounter;
+   private final boolean enabled;
+   private final int monthsAhead;
+   private final int retentionMonths;
+   private final long lockTimeoutMillis;
+
+   /**
+    * Конструктор для спринга
+    *
+    * @param jdbcTemplate      Спринговская обертка над JDBC
+    * @param messageService    Сервис сообщений (ETag списков после удаления секций)
+    * @param messageCounter    Кэшированное количество сообщений
+    * @param enabled           Включено ли обслуживание (spring.message-partitions.enabled)
+    * @param monthsAhead       На сколько месяцев вперед создавать секции (spring.message-partitions.months-ahead)
+    * @param retentionMonths   Сколько полных прошедших месяцев хранить, 0 - хранить всё (spring.message-partitions.retention-months)
+    * @param lockTimeoutMillis Сколько DDL ждет блокировку таблицы (spring.message-partitions.lock-timeout-millis)
+    */
+   public MessagePartitionMaintenance(JdbcTemplate jdbcTemplate, MessageService messageService, MessageCounter messageCounter,
+                                      @Value("${spring.message-partitions.enabled:true}") boolean enabled,
+                                      @Value("${spring.message-partitions.months-ahead:3}") int monthsAhead,
+                                      @Value("${spring.message-partitions.retention-months:0}") int retentionMonths,
+                                      @Value("${spring.message-partitions.lock-timeout-millis:2000}") long lockTimeoutMillis) {
+      this.jdbcTemplate = jdbcTemplate;
+      this.messageService = messageService;
+      this.messageCounter = messageCounter;
+      this.enabled = enabled;
+      this.monthsAhead = monthsAhead;
+      this.retentionMonths = retentionMonths;
+      this.lockTimeoutMillis = lockTimeoutMillis;
+   }
+
+   /**
+    * Создать недостающие секции вперед и удалить устаревшие.
+    * Вся работа идет на одном подключении в режиме autocommit: advisory lock и lock_timeout принадлежат сессии
+    *
+    * @return Что было сделано
+    */
+   public MaintenanceResult maintain() {
+      if (!enabled) {
+         return MaintenanceResult.SKIPPED;
+      }
+      MaintenanceResult result = jdbcTemplate.execute((ConnectionCallback<MaintenanceResult>) con -> {
+         if (!isPartitioned(con) || !tryLock(con)) { //Таблица не секционирована или обслуживанием занят другой экземпляр
+            return MaintenanceResult.SKIPPED;
+         }
+         try (Statement st = con.createStatement()) {
+            st.execute("SET lock_timeout = " + lockTimeoutMillis);
+            YearMonth current = YearMonth.now();
+            List<String> created = createAhead(con, current);
+            List<String> dropped = retentionMonths > 0 ? dropExpired(con, current.minusMonths(retentionMonths)) : List.of();
+            warnIfDefaultIsUsed(con);
+            return new MaintenanceResult(true, created, dropped);
+         }
+         finally {
+            try (Statement st = con.createStatement()) {
+               st.execute("RESET lock_timeout"); //Подключение вернется в пул, настройка не должна уйти вместе с ним
+            }
+            unlock(con);
+         }
+      });
+      if (result != null && !result.dropped().isEmpty()) { //Вместе с секциями из БД ушли сообщения
+         messageService.markChanged();
+         messageCounter.refresh();
+      }
+      return result;
+   }
+
+   /**
+    * Создать секции с текущего месяца на monthsAhead вперед, которых ещё нет
+    *
+    * @param con     Подключение
+    * @param current Текущий месяц
+    * @return Имена созданных секций
+    */
+   private List<String> createAhead(Connection con, YearMonth current) throws SQLException {
+      List<String> existing = partitions(con);
+      List<String> created = new ArrayList<>();
+      for (int i = 0; i <= monthsAhead; i++) {
+         YearMonth month = current.plusMonths(i);
+         String name = PARTITION_PREFIX + month.format(PARTITION_SUFFIX);
+         if (existing.contains(name)) {
+            continue;
+         }
+         LocalDate from = month.atDay(1);
+         LocalDate to = month.plusMonths(1).atDay(1);
+         //Имя и даты собраны из YearMonth, пользовательского ввода тут нет
+         String ddl = "CREATE TABLE IF NOT EXISTS " + name + " PARTITION OF " + TABLE + " FOR VALUES FROM ('" + from + "') TO ('" + to + "')";
+         try (Statement st = con.createStatement()) {
+            st.execute(ddl);
+            created.add(name);
+         }
+         catch (SQLException e) { //Не дождались блокировки или в секции по-умолчанию есть строки этого месяца - попробуем в следующий раз
+            log.warn("Failed to create message partition {}: {}", name, e.getMessage());
+         }
+      }
+      return created;
+   }
+
+   /**
+    * Удалить секции, все строки которых отправлены раньше первого хранимого месяца
+    *
+    * @param con         Подключение
+    * @param oldestKept  Самый старый месяц, который надо хранить
+    * @return Имена удаленных секций
+    */
+   private List<String> dropExpired(Connection con, YearMonth oldestKept) throws SQLException {
+      List<String> dropped = new ArrayList<>();
+      for (String name : partitions(con)) {
+         Matcher matcher = PARTITION_NAME.matcher(name);
+         if (!matcher.matches() || !YearMonth.parse(matcher.group(1), PARTITION_SUFFIX).isBefore(oldestKept)) {
+            continue;
+         }
+         try (Statement st = con.createStatement()) {
+            st.execute("DROP TABLE IF EXISTS " + name);
+            dropped.add(name);
+         }
+         catch (SQLException e) {
+            log.warn("Failed to drop message partition {}: {}", name, e.getMessage());
+         }
+      }
+      return dropped;
+   }
+
+   /**
+    * Секция по-умолчанию должна быть пустой. Строки в ней означают, что секции вперед не создавались вовремя
+    * (или сообщения пришли с датой из будущего/прошлого). Пока они там, секцию их месяца создать нельзя
+    */
+   private void warnIfDefaultIsUsed(Connection con) throws SQLException {
+      try (Statement st = con.createStatement();
+           ResultSet rs = st.executeQuery("SELECT EXISTS (SELECT 1 FROM " + TABLE + "_default)")) {
+         if (rs.next() && rs.getBoolean(1)) {
+            log.warn("Default message partition {}_default is not empty: move its rows to monthly partitions", TABLE);
+         }
+      }
+      catch (SQLException e) {
+         log.debug("Default message partition check failed: {}", e.getMessage());
+      }
+   }
+
+   /**
+    * @return Имена всех секций таблицы сообщений
+    */
+   private static List<String> partitions(Connection con) throws SQLException {
+      List<String> names = new ArrayList<>();
+      try (PreparedStatement ps = con.prepareStatement(
+              "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid WHERE i.inhparent = CAST(? AS regclass)")) {
+         ps.setString(1, TABLE);
+         try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+               names.add(rs.getString(1));
+            }
+         }
+      }
+      return names;
+   }
+
+   /**
+    * @return true, если таблица сообщений секционирована (relkind = 'p')
+    */
+   private static boolean isPartitioned(Connection con) throws SQLException {
+      try (PreparedStatement ps = con.prepareStatement("SELECT relkind = 'p' FROM pg_class WHERE oid = to_regclass(?)")) {
+         ps.setString(1, TABLE);
+         try (ResultSet rs = ps.executeQuery()) {
+            return rs.next() && rs.getBoolean(1);
+         }
+      }
+   }
+
+   /**
+    * Попробовать взять блокировку без ожидания
+    */
+   private static boolean tryLock(Connection con) throws SQLException {
+      try (PreparedStatement ps = con.prepareStatement("SELECT pg_try_advisory_lock(?)")) {
+         ps.setLong(1, PARTITIONS_LOCK_KEY);
+         try (ResultSet rs = ps.executeQuery()) {
+            return rs.next() && rs.getBoolean(1);
+         }
+      }
+   }
+
+   /**
+    * Отпустить блокировку. Обязательно, т.к. подключение вернется в пул, а не закроется
+    */
+   private static void unlock(Connection con) throws SQLException {
+      try (PreparedStatement ps = con.prepareStatement("SELECT pg_advisory_unlock(?)")) {
+         ps.setLong(1, PARTITIONS_LOCK_KEY);
+         ps.executeQuery().close();
+      }
+   }
+
+   /**
+    * Результат обслуживания
+    *
+    * @param executed Выполнялось ли обслуживание на этом экземпляре
+    * @param created  Созданные секции
+    * @param dropped  Удаленные секции
+    */
+   public record MaintenanceResult(boolean executed, List<String> created, List<String> dropped) {
+      static final MaintenanceResult SKIPPED = new MaintenanceResult(false, List.of(), List.of());
+   }
+}
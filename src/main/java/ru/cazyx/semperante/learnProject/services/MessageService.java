@@ -1,17 +1,34 @@
 package ru.cazyx.semperante.learnProject.services;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.domain.Sort;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
 import org.springframework.web.server.ResponseStatusException;
+import ru.cazyx.semperante.learnProject.config.filters.AuthorizedUser;
+import ru.cazyx.semperante.learnProject.dto.responses.CursorPageResponse;
+import ru.cazyx.semperante.learnProject.dto.responses.MessageEvent;
 import ru.cazyx.semperante.learnProject.dto.responses.MessageResponse;
+import ru.cazyx.semperante.learnProject.dto.responses.MessageSearchResponse;
+import ru.cazyx.semperante.learnProject.dto.responses.SliceResponse;
 import ru.cazyx.semperante.learnProject.entities.LearnUser;
 import ru.cazyx.semperante.learnProject.entities.UserMessage;
+import ru.cazyx.semperante.learnProject.entities.repositories.LearnUserRepository;
+import ru.cazyx.semperante.learnProject.entities.repositories.MessageProjectionRepository;
 import ru.cazyx.semperante.learnProject.entities.repositories.UserMessagesRepository;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Сервис реализующий логику роутов сообщений
  * <p>
@@ -25,19 +42,68 @@ import ru.cazyx.semperante.learnProject.entities.repositories.UserMessagesReposi
  */
 @Service
 public class MessageService extends AParentService {
+   /**
+    * Максимальная длина поискового запроса
+    */
+   private static final int MAX_SEARCH_QUERY_LENGTH = 256;
+   /**
+    * Максимальный размер страницы в списках сообщений
+    */
+   static final int MAX_PAGE_LIMIT = 100;
 
    /**
     * Репозитория сообщений
     */
    private final UserMessagesRepository userMessagesRepository;
+   /**
+    * Чтение страниц сообщений без сущностей
+    */
+   private final MessageProjectionRepository messageProjectionRepository;
+   /**
+    * Репозитория пользователей (нужна для ссылки на автора сообщения)
+    */
+   private final LearnUserRepository userRepository;
+   /**
+    * Сервис общего количества сообщений без count(*) на каждый запрос
+    */
+   private final MessageCounter messageCounter;
+   /**
+    * Максимальное количество сообщений в одном запросе массовой отправки
+    */
+   private final int maxBatchSize;
+   /**
+    * Публикация событий для живой ленты (см. {@link MessageFeedHub})
+    */
+   private final ApplicationEventPublisher eventPublisher;
+   /**
+    * Метка запуска экземпляра приложения для ETag. Счетчик изменений начинается с нуля при каждом запуске,
+    * и без метки ETag одного экземпляра мог бы совпасть с ETag другого при разных данных
+    */
+   private final String etagEpoch = Long.toHexString(ThreadLocalRandom.current().nextLong());
+   /**
+    * Счетчик изменений сообщений (создание, редактирование, удаление). Увеличивается после коммита
+    */
+   private final AtomicLong changes = new AtomicLong();
 
    /**
     * Конструктор для спринга
     *
-    * @param userMessagesRepository Dependency Injection репозитории
+    * @param userMessagesRepository      Dependency Injection репозитории
+    * @param userRepository              Репозитория пользователей
+    * @param messageCounter              Сервис общего количества сообщений
+    * @param maxBatchSize                Максимум сообщений в массовой отправке (spring.messages-batch.max-size)
+    * @param eventPublisher              Публикация событий спринга
+    * @param messageProjectionRepository Чтение страниц сообщений без сущностей
     */
-   public MessageService(UserMessagesRepository userMessagesRepository) {
+   public MessageService(UserMessagesRepository userMessagesRepository, LearnUserRepository userRepository, MessageCounter messageCounter,
+                         @Value("${spring.messages-batch.max-size:1000}") int maxBatchSize, ApplicationEventPublisher eventPublisher,
+                         MessageProjectionRepository messageProjectionRepository) {
       this.userMessagesRepository = userMessagesRepository;
+      this.messageProjectionRepository = messageProjectionRepository;
+      this.userRepository = userRepository;
+      this.messageCounter = messageCounter;
+      this.maxBatchSize = maxBatchSize;
+      this.eventPublisher = eventPublisher;
    }
 
    /**
@@ -52,8 +118,68 @@ public class MessageService extends AParentService {
     */
    @Transactional
    public MessageResponse create(String message) {
-      LearnUser user = getAuthorizedUser(); //Берем авторизовавшего пользователя
-      return messageToResponse(userMessagesRepository.save(new UserMessage(user, message))); //Сохраняем в репозиторию новое сообщение и возвращаем результат как ответ.
+      AuthorizedUser user = getAuthorizedUser(); //Берем авторизовавшего пользователя
+      //Для связи с автором хватает ссылки по ИД - сущность пользователя из БД не читаем.
+      //INSERT всё равно выполнился бы при коммите, flush лишь делает его раньше, чтобы в ответе и событии было время отправки
+      UserMessage saved = userMessagesRepository.saveAndFlush(new UserMessage(userRepository.getReferenceById(user.id()), message));
+      //Логин и роль автора берем из контекста, а не из ссылки (иначе она загрузится из БД)
+      MessageResponse response = new MessageResponse(saved.getId(), saved.getMessage(), saved.getSentAt(), user.login(), user.role());
+      publish(MessageEvent.EventType.CREATED, response);
+      return response;
+   }
+
+   /**
+    * Массовое создание сообщений от имени авторизованного пользователя
+    * <p>
+    * Все сообщения сохраняются в одной транзакции. Благодаря allocationSize у счетчика ID и hibernate.jdbc.batch_size
+    * вставка 1000 сообщений - это около 10 запросов за ID и 10 batch INSERT, а не 2000 отдельных запросов.
+    * <p>
+    * saveAllAndFlush сразу отправляет вставки в БД - после этого у сущностей заполнено время отправки (@CreationTimestamp).
+    *
+    * @param messages Тексты сообщений
+    * @return Созданные сообщения в том же порядке
+    */
+   @Transactional
+   public List<MessageResponse> createBatch(List<String> messages) {
+      if (messages.isEmpty() || messages.size() > maxBatchSize) {
+         throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Batch size must be between 1 and " + maxBatchSize);
+      }
+      if (messages.contains(null)) {
+         throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Message must not be null");
+      }
+      AuthorizedUser user = getAuthorizedUser(); //Берем авторизовавшего пользователя
+      LearnUser author = userRepository.getReferenceById(user.id()); //Одна ссылка на автора для всех сообщений
+      List<UserMessage> saved = userMessagesRepository.saveAllAndFlush(messages.stream().map(text -> new UserMessage(author, text)).toList());
+      List<MessageResponse> responses = saved.stream().map(msg -> new MessageResponse(msg.getId(), msg.getMessage(), msg.getSentAt(), user.login(), user.role())).toList();
+      responses.forEach(response -> publish(MessageEvent.EventType.CREATED, response));
+      return responses;
+   }
+
+   /**
+    * Создание сообщений разных авторов одной транзакцией - групповой коммит из {@link MessageWriteBehind}.
+    * <p>
+    * Вызывается не из запроса, а из потока группы, поэтому авторы передаются явно, а не берутся из контекста.
+    * Вставка идет пачками, как и в {@link #createBatch(List)}
+    *
+    * @param authors  Авторы сообщений
+    * @param messages Тексты сообщений, в том же порядке, что и авторы
+    * @return Созданные сообщения в том же порядке
+    */
+   @Transactional
+   public List<MessageResponse> createForAuthors(List<AuthorizedUser> authors, List<String> messages) {
+      List<UserMessage> toSave = new ArrayList<>(messages.size());
+      for (int i = 0; i < messages.size(); i++) {
+         toSave.add(new UserMessage(userRepository.getReferenceById(authors.get(i).id()), messages.get(i)));
+      }
+      List<UserMessage> saved = userMessagesRepository.saveAllAndFlush(toSave);
+      List<MessageResponse> responses = new ArrayList<>(saved.size());
+      for (int i = 0; i < saved.size(); i++) {
+         UserMessage msg = saved.get(i);
+         AuthorizedUser author = authors.get(i);
+         responses.add(new MessageResponse(msg.getId(), msg.getMessage(), msg.getSentAt(), author.login(), author.role()));
+      }
+      responses.forEach(response -> publish(MessageEvent.EventType.CREATED, response));
+      return responses;
    }
 
    /**
@@ -68,6 +194,7 @@ public class MessageService extends AParentService {
     */
    @Transactional(readOnly = true)
    public Page<MessageResponse> getMessages(Integer limit, Integer page) {
+      checkPage(limit, page);
       /*
       Взятие страницы из репозитории, вызывая метод findAll.
       Обратите внимание, на то, что наш запрос оборачивается в PageRequest (Pageable если быть точнее).
@@ -78,7 +205,172 @@ public class MessageService extends AParentService {
    }
 
    /**
-    * Удалить сообщение из БД
+    * Получить страницу сообщений без подсчета общего количества (Slice)
+    * <p>
+    * В отличие от {@link #getMessages(Integer, Integer)} не делает SELECT count(*). Если общее количество всё же нужно -
+    * оно берется приблизительным или из кэша (см. {@link MessageCounter}).
+    *
+    * @param limit Количество элементов на страницу
+    * @param page  Индекс страницы (с нуля)
+    * @param total Режим подсчета общего количества
+    * @return Компактная страница с сообщениями
+    */
+   @Transactional(readOnly = true)
+   public SliceResponse<MessageResponse> getMessagesSlice(Integer limit, Integer page, MessageCounter.TotalMode total) {
+      checkPage(limit, page);
+      Slice<UserMessage> msg = userMessagesRepository.findSlice(PageRequest.of(page, limit, Sort.by("sentAt").descending().and(Sort.by("id").descending())));
+      return new SliceResponse<>(msg.map(MessageService::messageToResponse).getContent(), page, limit, msg.hasNext(), messageCounter.count(total));
+   }
+
+   /**
+    * Получить страницу сообщений по курсору (keyset-пагинация)
+    * <p>
+    * В отличие от {@link #getMessages(Integer, Integer)} не использует OFFSET и не считает общее количество сообщений,
+    * поэтому время ответа не зависит от того, насколько глубоко листает клиент.
+    * <p>
+    * Страница читается сразу в модели ответа, без сущностей (см. {@link MessageProjectionRepository})
+    *
+    * @param limit  Количество элементов на страницу
+    * @param cursor Курсор из предыдущего ответа. null - первая страница
+    * @return Сообщения и курсор следующей страницы
+    */
+   @Transactional(readOnly = true)
+   public CursorPageResponse<MessageResponse> getMessagesByCursor(Integer limit, String cursor) {
+      checkLimit(limit);
+      List<MessageResponse> msg;
+      if (cursor == null || cursor.isBlank()) {
+         msg = messageProjectionRepository.findFirstPage(limit);
+      }
+      else {
+         MessageCursor position = MessageCursor.decode(cursor);
+         msg = messageProjectionRepository.findPageBefore(position.sentAt(), position.id(), limit);
+      }
+      return toCursorPage(msg, limit);
+   }
+
+   /**
+    * Получить страницу сообщений пользователя по логину (от новых к старым, пагинация по курсору)
+    *
+    * @param login  Логин автора (без учета регистра)
+    * @param limit  Количество элементов на страницу
+    * @param cursor Курсор из предыдущего ответа. null - первая страница
+    * @return Сообщения автора и курсор следующей страницы
+    */
+   @Transactional(readOnly = true)
+   public CursorPageResponse<MessageResponse> getMessagesByAuthor(String login, Integer limit, String cursor) {
+      checkLimit(limit); //До поиска автора: на неверный лимит не тратим запрос в БД
+      Long authorId = userRepository.findIdByLogin(login).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found"));
+      return getAuthorMessages(authorId, limit, cursor);
+   }
+
+   /**
+    * Получить страницу сообщений авторизованного пользователя (от новых к старым, пагинация по курсору)
+    *
+    * @param limit  Количество элементов на страницу
+    * @param cursor Курсор из предыдущего ответа. null - первая страница
+    * @return Свои сообщения и курсор следующей страницы
+    */
+   @Transactional(readOnly = true)
+   public CursorPageResponse<MessageResponse> getMyMessages(Integer limit, String cursor) {
+      return getAuthorMessages(getAuthorizedUser().id(), limit, cursor);
+   }
+
+   /**
+    * Страница сообщений одного автора. Курсор тот же, что и у общей ленты ({@link MessageCursor})
+    *
+    * @param authorId ИД автора
+    * @param limit    Количество элементов на страницу
+    * @param cursor   Курсор из предыдущего ответа. null - первая страница
+    * @return Сообщения автора и курсор следующей страницы
+    */
+   private CursorPageResponse<MessageResponse> getAuthorMessages(Long authorId, Integer limit, String cursor) {
+      checkLimit(limit);
+      List<MessageResponse> msg;
+      if (cursor == null || cursor.isBlank()) {
+         msg = messageProjectionRepository.findAuthorFirstPage(authorId, limit);
+      }
+      else {
+         MessageCursor position = MessageCursor.decode(cursor);
+         msg = messageProjectionRepository.findAuthorPageBefore(authorId, position.sentAt(), position.id(), limit);
+      }
+      return toCursorPage(msg, limit);
+   }
+
+   /**
+    * Проверить размер страницы. Без проверки limit=0 ломал сборку курсора (500), а огромный лимит читал из БД всё подряд
+    *
+    * @param limit Запрошенный размер страницы
+    */
+   static void checkLimit(Integer limit) {
+      if (limit == null || limit < 1 || limit > MAX_PAGE_LIMIT) { //Неверный размер страницы - 400
+         throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Limit must be between 1 and " + MAX_PAGE_LIMIT);
+      }
+   }
+
+   /**
+    * Проверить параметры пагинации по номеру страницы (иначе PageRequest кинет IllegalArgumentException и клиент получит 500)
+    *
+    * @param limit Запрошенный размер страницы
+    * @param page  Индекс страницы
+    */
+   private static void checkPage(Integer limit, Integer page) {
+      checkLimit(limit);
+      if (page == null || page < 0) {
+         throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Page must not be negative");
+      }
+   }
+
+   /**
+    * Собрать страницу для пагинации по курсору
+    *
+    * @param msg   Сообщения страницы в порядке (sent_at DESC, id DESC)
+    * @param limit Запрошенный размер страницы
+    * @return Страница с курсором на последнее сообщение, если страница полная
+    */
+   private static CursorPageResponse<MessageResponse> toCursorPage(List<MessageResponse> msg, int limit) {
+      String nextCursor = null;
+      if (msg.size() == limit) { //Страница полная - возможно есть следующая. Курсор указывает на последнее сообщение
+         MessageResponse last = msg.get(msg.size() - 1);
+         nextCursor = new MessageCursor(last.sentAt(), last.id()).encode();
+      }
+      return new CursorPageResponse<>(msg, nextCursor);
+   }
+
+   /**
+    * Полнотекстовый поиск сообщений, от более релевантных к менее, с пагинацией по курсору
+    * <p>
+    * Запрос разбирается websearch_to_tsquery: можно писать просто слова (ищутся все), "точную фразу", or и -исключение.
+    * Слова приводятся к основе, поэтому "сообщения" найдет и "сообщение"
+    *
+    * @param query  Поисковый запрос
+    * @param limit  Количество элементов на страницу
+    * @param cursor Курсор из предыдущего ответа с тем же запросом. null - первая страница
+    * @return Найденные сообщения с фрагментами и курсор следующей страницы
+    */
+   @Transactional(readOnly = true)
+   public CursorPageResponse<MessageSearchResponse> searchMessages(String query, Integer limit, String cursor) {
+      if (query == null || query.isBlank() || query.length() > MAX_SEARCH_QUERY_LENGTH) {
+         throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Search query must be between 1 and " + MAX_SEARCH_QUERY_LENGTH + " characters");
+      }
+      checkLimit(limit);
+      List<UserMessagesRepository.SearchHit> hits;
+      if (cursor == null || cursor.isBlank()) {
+         hits = userMessagesRepository.searchFirstPage(query, limit);
+      }
+      else {
+         SearchCursor position = SearchCursor.decode(cursor);
+         hits = userMessagesRepository.searchPageAfter(query, position.rank(), position.id(), limit);
+      }
+      String nextCursor = null;
+      if (hits.size() == limit) { //Страница полная - возможно есть следующая
+         UserMessagesRepository.SearchHit last = hits.get(hits.size() - 1);
+         nextCursor = new SearchCursor(last.getRank(), last.getId()).encode();
+      }
+      return new CursorPageResponse<>(hits.stream().map(MessageService::hitToResponse).toList(), nextCursor);
+   }
+
+   /**
+    * Удалить сообщение из БД. Событие DELETED публикует слушатель сущности ({@link ru.cazyx.semperante.learnProject.entities.listeners.UserMessageDeleteListener})
     *
     * @param id ИД сообщения
     */
@@ -99,18 +391,95 @@ public class MessageService extends AParentService {
       //Берем сообщения по ИД из БД. Если его нет - бросаем 404.
       UserMessage msg = userMessagesRepository.findById(id).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Message not found"));
       msg.setMessage(message); //Меняем текст сообщения
-      return messageToResponse(userMessagesRepository.save(msg)); //Сохраняем, преобразуем, возвращаем.
+      MessageResponse response = messageToResponse(userMessagesRepository.save(msg)); //Сохраняем, преобразуем, возвращаем.
+      publish(MessageEvent.EventType.EDITED, response);
+      return response;
+   }
+
+   /**
+    * Найти одно сообщение по ИД
+    *
+    * @param id ИД сообщения
+    * @return Сообщение или пустой Optional, если его нет
+    */
+   @Transactional(readOnly = true)
+   public Optional<MessageResponse> findMessage(Long id) {
+      return userMessagesRepository.findById(id).map(MessageService::messageToResponse);
+   }
+
+   /**
+    * ETag списков сообщений. Меняется при любом созданном, отредактированном или удаленном сообщении,
+    * поэтому проверка If-None-Match не требует ни одного запроса в БД.
+    * <p>
+    * Изменения с других экземпляров приложения учитываются по уведомлениям PostgreSQL (см. {@link MessageFeedNotifier}),
+    * т.е. с задержкой доставки уведомления. При чтении с реплик ответ, собранный до того, как реплика догнала изменение,
+    * остается под новым ETag до следующего изменения (не дольше отставания реплики при частых изменениях)
+    *
+    * @return Значение ETag (без кавычек)
+    */
+   public String messagesEtag() {
+      return "m-" + etagEpoch + "-" + changes.get();
+   }
+
+   /**
+    * ETag списка своих сообщений: то же, что {@link #messagesEtag()}, плюс ИД пользователя.
+    * URL у всех пользователей один, и без ИД клиент, сменивший аккаунт, мог бы получить 304 на чужой список
+    *
+    * @return Значение ETag (без кавычек)
+    */
+   public String myMessagesEtag() {
+      return messagesEtag() + "-u" + getAuthorizedUser().id();
+   }
+
+   /**
+    * Отметить, что сообщения изменились (меняет {@link #messagesEtag()})
+    */
+   public void markChanged() {
+      changes.incrementAndGet();
    }
 
    /**
-    * Статический метод преобразовывающий сущность сообщения в ответ для фронта
+    * Свои изменения: событие публикуется в транзакции, а обрабатывается после её коммита.
+    * Раньше нельзя - иначе конкурентный запрос успел бы прочитать старые данные и отдать их под новым ETag
+    *
+    * @param event Событие изменения сообщения
+    */
+   @TransactionalEventListener(fallbackExecution = true)
+   public void onMessageEvent(MessageEvent event) {
+      markChanged();
+   }
+
+   /**
+    * Опубликовать событие живой ленты. Подписчики получат его только после коммита текущей транзакции
+    *
+    * @param type    Тип события
+    * @param message Сообщение после изменения
+    */
+   private void publish(MessageEvent.EventType type, MessageResponse message) {
+      eventPublisher.publishEvent(new MessageEvent(type, message.id(), message));
+   }
+
+   /**
+    * Статический метод преобразовывающий сущность сообщения в ответ для фронта.
+    * Package-private, чтобы его видели JMH замеры (src/jmh)
     *
     * @param message Объект сущности сообщения
     * @return Модель для фронта
     */
-   private static MessageResponse messageToResponse(UserMessage message) {
+   static MessageResponse messageToResponse(UserMessage message) {
       return new MessageResponse(message.getId(), message.getMessage(), message.getSentAt(), message.getUser().getUsername(), message.getUser().getRole());
    }
 
+   /**
+    * Преобразовать строку результата поиска в ответ для фронта
+    *
+    * @param hit Строка результата поиска
+    * @return Модель для фронта
+    */
+   private static MessageSearchResponse hitToResponse(UserMessagesRepository.SearchHit hit) {
+      MessageResponse message = new MessageResponse(hit.getId(), hit.getMessage(), hit.getSentAt(), hit.getLogin(), LearnUser.UserRole.valueOf(hit.getRole()));
+      return new MessageSearchResponse(message, hit.getSnippet());
+   }
+
 
 }
@@ -0,0 +1,278 @@
+package ru.cazyx.semperante.learnProject.services;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import ru.cazyx.semperante.learnProject.config.datasource.ReplicaRoutingDataSource;
+import ru.cazyx.semperante.learnProject.config.filters.AuthorizedUser;
+import ru.cazyx.semperante.learnProject.dto.responses.MessageResponse;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Отправка сообщений с групповым коммитом (write-behind). Включается spring.messages-write-behind.enabled.
+ * <p>
+ * Без него каждое сообщение - своя транзакция: подключение из пула, INSERT, COMMIT. На пике это тысячи мелких транзакций
+ * на 5 подключений. В этом режиме запрос кладет сообщение в ограниченную очередь и ждет. Отдельный поток забирает из очереди
+ * группу (до max-group-size сообщений или пока не пройдет max-wait-millis с первого) и сохраняет её одной транзакцией
+ * пачкой INSERT (см. {@link MessageService#createForAuthors(List, List)}). Ответ с ИД уходит клиенту только после коммита его группы.
+ * <p>
+ * Очередь полна - сразу 503, а не бесконечное ожидание. Если группа не сохранилась целиком (например, автор уже удален),
+ * сообщения сохраняются по одному, чтобы одно плохое не утянуло за собой остальные.
+ * <p>
+ * Коммит не подтвердился за ack-timeout-millis: если сообщение ещё в очереди - оно снимается и уже точно не сохранится (503, можно повторить).
+ * Если поток группы уже забрал его в транзакцию - сообщение скорее всего сохранится, и повтор дал бы дубль, поэтому ответ 202 без тела.
+ * <p>
+ * Метрики: messages.write_behind.queue (сообщений в очереди), messages.write_behind.group.size (размер группы),
+ * messages.write_behind.flush (время сохранения группы).
+ */
+@Service
+public class MessageWriteBehind extends AParentService {
+   private static final Logger log = LoggerFactory.getLogger(MessageWriteBehind.class);
+
+   private final MessageService messageService;
+   /**
+    * Маршрутизация на реплики (есть только при spring.replicas.enabled) - отметить авторов для чтения своих записей
+    */
+   private final ObjectProvider<ReplicaRoutingDataSource> replicaRouting;
+   private final boolean enabled;
+   private final int maxGroupSize;
+   private final long maxWaitNanos;
+   private final long ackTimeoutMillis;
+   private final BlockingQueue<PendingMessage> queue;
+   private final DistributionSummary groupSize;
+   private final Timer flushTimer;
+   /**
+    * Поток, сохраняющий группы
+    */
+   private Thread flusher;
+   private volatile boolean running;
+
+   /**
+    * Конструктор для спринга
+    *
+    * @param messageService   Сервис сообщений (сохранение группы и обычный режим)
+    * @param replicaRouting   Маршрутизация на реплики, если она включена
+    * @param meterRegistry    Реестр метрик
+    * @param enabled          Включен ли режим (spring.messages-write-behind.enabled)
+    * @param queueSize        Максимум сообщений в очереди
+    * @param maxGroupSize     Максимум сообщений в одной транзакции
+    * @param maxWaitMillis    Сколько ждать добора группы после первого сообщения
+    * @param ackTimeoutMillis Сколько запрос ждет коммита своей группы
+    */
+   public MessageWriteBehind(MessageService messageService, ObjectProvider<ReplicaRoutingDataSource> replicaRouting, MeterRegistry meterRegistry,
+                             @Value("${spring.messages-write-behind.enabled:false}") boolean enabled,
+                             @Value("${spring.messages-write-behind.queue-size:10000}") int queueSize,
+                             @Value("${spring.messages-write-behind.max-group-size:500}") int maxGroupSize,
+                             @Value("${spring.messages-write-behind.max-wait-millis:10}") long maxWaitMillis,
+                             @Value("${spring.messages-write-behind.ack-timeout-millis:10000}") long ackTimeoutMillis) {
+      this.messageService = messageService;
+      this.replicaRouting = replicaRouting;
+      this.enabled = enabled;
+      this.maxGroupSize = maxGroupSize;
+      this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+      this.ackTimeoutMillis = ackTimeoutMillis;
+      this.queue = new ArrayBlockingQueue<>(queueSize);
+      Gauge.builder("messages.write_behind.queue", queue, BlockingQueue::size).description("Messages waiting for a group commit").register(meterRegistry);
+      this.groupSize = DistributionSummary.builder("messages.write_behind.group.size").description("Messages per group commit").register(meterRegistry);
+      this.flushTimer = Timer.builder("messages.write_behind.flush").description("Group commit time").register(meterRegistry);
+   }
+
+   /**
+    * Отправить сообщение от имени авторизованного пользователя
+    *
+    * @param message Текст сообщения
+    * @return Сохраненное сообщение (после коммита) или null, если сообщение уже сохраняется, но коммит не подтвердился вовремя
+    * @throws ResponseStatusException 503, если очередь полна или сообщение не дождалось сохранения и снято с очереди
+    */
+   public MessageResponse create(String message) {
+      if (!enabled) {
+         return messageService.create(message);
+      }
+      PendingMessage pending = new PendingMessage(getAuthorizedUser(), message);
+      if (!running || !queue.offer(pending)) {
+         throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Message queue is full, try again later");
+      }
+      try {
+         return pending.result().get(ackTimeoutMillis, TimeUnit.MILLISECONDS);
+      }
+      catch (TimeoutException ex) {
+         if (pending.cancel()) { //Поток группы его ещё не забрал - снимаем с очереди, сохранено оно уже не будет
+            queue.remove(pending);
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Message is not saved, try again later");
+         }
+         return null; //Уже в транзакции группы: скорее всего сохранится, повторять нельзя
+      }
+      catch (InterruptedException ex) {
+         Thread.currentThread().interrupt();
+         throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Interrupted");
+      }
+      catch (ExecutionException ex) {
+         if (ex.getCause() instanceof ResponseStatusException r) {
+            throw r;
+         }
+         throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Message was not saved");
+      }
+   }
+
+   /**
+    * Запуск потока, сохраняющего группы
+    */
+   @PostConstruct
+   public void start() {
+      if (!enabled) {
+         return;
+      }
+      running = true;
+      flusher = new Thread(this::flushLoop, "message-write-behind");
+      flusher.setDaemon(true);
+      flusher.start();
+   }
+
+   /**
+    * Остановка при остановке приложения: новые сообщения больше не принимаются, уже принятые дописываются
+    */
+   @PreDestroy
+   public void stop() throws InterruptedException {
+      if (flusher == null) {
+         return;
+      }
+      running = false;
+      flusher.join(TimeUnit.SECONDS.toMillis(30));
+   }
+
+   /**
+    * Цикл потока: собрать группу и сохранить. Работает, пока приложение не остановлено и в очереди что-то есть
+    */
+   private void flushLoop() {
+      List<PendingMessage> group = new ArrayList<>(maxGroupSize);
+      while (running || !queue.isEmpty()) {
+         try {
+            PendingMessage first = queue.poll(100, TimeUnit.MILLISECONDS);
+            if (first == null) {
+               continue;
+            }
+            group.add(first);
+            long deadline = System.nanoTime() + maxWaitNanos;
+            while (group.size() < maxGroupSize) {
+               if (queue.drainTo(group, maxGroupSize - group.size()) > 0) { //Сначала забираем всё, что уже есть, без ожидания
+                  continue;
+               }
+               long left = deadline - System.nanoTime();
+               PendingMessage next = left > 0 ? queue.poll(left, TimeUnit.NANOSECONDS) : null;
+               if (next == null) { //Окно закрылось
+                  break;
+               }
+               group.add(next);
+            }
+            flush(group);
+         }
+         catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+         }
+         catch (RuntimeException ex) { //Поток не должен умирать, иначе все следующие запросы повиснут до таймаута
+            log.error("Write-behind flush failed", ex);
+            group.forEach(pending -> pending.result().completeExceptionally(ex));
+         }
+         finally {
+            group.clear();
+         }
+      }
+   }
+
+   /**
+    * Сохранить группу одной транзакцией. Если не вышло - по одному
+    *
+    * @param group Сообщения группы
+    */
+   private void flush(List<PendingMessage> group) {
+      group.removeIf(pending -> !pending.claim()); //Снятые по таймауту не сохраняем
+      if (group.isEmpty()) {
+         return;
+      }
+      groupSize.record(group.size());
+      try {
+         List<MessageResponse> saved = flushTimer.record(() -> messageService.createForAuthors(
+                 group.stream().map(PendingMessage::author).toList(), group.stream().map(PendingMessage::message).toList()));
+         markWriters(group);
+         for (int i = 0; i < group.size(); i++) {
+            group.get(i).result().complete(saved.get(i));
+         }
+      }
+      catch (RuntimeException ex) {
+         log.warn("Group commit of {} messages failed, saving one by one", group.size(), ex);
+         for (PendingMessage pending : group) {
+            try {
+               MessageResponse saved = messageService.createForAuthors(List.of(pending.author()), List.of(pending.message())).get(0);
+               markWriters(List.of(pending));
+               pending.result().complete(saved);
+            }
+            catch (RuntimeException single) {
+               pending.result().completeExceptionally(single);
+            }
+         }
+      }
+   }
+
+   /**
+    * Отметить авторов как недавно писавших: их чтение ближайшее время идет с основной БД.
+    * Сами они подключение не брали (писал поток группы), поэтому маршрутизация сама их не заметит
+    */
+   private void markWriters(List<PendingMessage> group) {
+      ReplicaRoutingDataSource routing = replicaRouting.getIfAvailable();
+      if (routing != null) {
+         group.forEach(pending -> routing.markWriter(pending.author().id()));
+      }
+   }
+
+   /**
+    * Сообщение в очереди
+    *
+    * @param author  Автор
+    * @param message Текст сообщения
+    * @param result  Результат для ожидающего запроса
+    * @param state   Кто первым решил судьбу сообщения: поток группы (забрал в транзакцию) или запрос (снял по таймауту)
+    */
+   private record PendingMessage(AuthorizedUser author, String message, CompletableFuture<MessageResponse> result, AtomicInteger state) {
+      private static final int QUEUED = 0;
+      private static final int CLAIMED = 1;
+      private static final int CANCELLED = 2;
+
+      PendingMessage(AuthorizedUser author, String message) {
+         this(author, message, new CompletableFuture<>(), new AtomicInteger(QUEUED));
+      }
+
+      /**
+       * @return true, если поток группы забрал сообщение в транзакцию (запрос его уже не снимет)
+       */
+      boolean claim() {
+         return state.compareAndSet(QUEUED, CLAIMED);
+      }
+
+      /**
+       * @return true, если запрос снял сообщение до того, как его забрал поток группы
+       */
+      boolean cancel() {
+         return state.compareAndSet(QUEUED, CANCELLED);
+      }
+   }
+}
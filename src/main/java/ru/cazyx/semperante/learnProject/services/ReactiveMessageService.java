@@ -0,0 +1,86 @@
+package ru.cazyx.semperante.learnProject.services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ru.cazyx.semperante.learnProject.dto.responses.CursorPageResponse;
+import ru.cazyx.semperante.learnProject.dto.responses.MessageResponse;
+import ru.cazyx.semperante.learnProject.entities.repositories.ReactiveMessagesRepository;
+
+/**
+ * Неблокирующее чтение сообщений (R2DBC).
+ * <p>
+ * Работает параллельно с {@link MessageService}: методы возвращают Mono/Flux, и Spring MVC переводит запрос в асинхронный режим.
+ * Поток Tomcat освобождается сразу, а ответ собирается, когда придут данные из БД.
+ * Поэтому количество одновременных читателей не ограничено количеством потоков Tomcat.
+ * <p>
+ * Курсоры совместимы с GET /v1/messages/cursor.
+ */
+@Service
+public class ReactiveMessageService {
+   /**
+    * Размер порции при потоковой отдаче
+    */
+   private static final int STREAM_FETCH_SIZE = 250;
+
+   private final ReactiveMessagesRepository repository;
+   /**
+    * Максимум сообщений в потоковой отдаче
+    */
+   private final int maxStreamSize;
+
+   /**
+    * Конструктор для спринга
+    *
+    * @param repository    Неблокирующая репозитория сообщений
+    * @param maxStreamSize Максимум сообщений в потоковой отдаче (spring.reactive-messages.max-stream-size)
+    */
+   public ReactiveMessageService(ReactiveMessagesRepository repository,
+                                 @Value("${spring.reactive-messages.max-stream-size:10000}") int maxStreamSize) {
+      this.repository = repository;
+      this.maxStreamSize = maxStreamSize;
+   }
+
+   /**
+    * Страница сообщений по курсору (от новых к старым)
+    *
+    * @param limit  Количество элементов на страницу
+    * @param cursor Курсор из предыдущего ответа. null - первая страница
+    * @return Сообщения и курсор следующей страницы
+    */
+   public Mono<CursorPageResponse<MessageResponse>> getMessagesByCursor(Integer limit, String cursor) {
+      MessageService.checkLimit(limit); //Те же границы, что и у блокирующей версии
+      Flux<MessageResponse> page;
+      if (cursor == null || cursor.isBlank()) {
+         page = repository.findFirstPage(limit);
+      }
+      else {
+         MessageCursor position = MessageCursor.decode(cursor);
+         page = repository.findPageBefore(position.sentAt(), position.id(), limit);
+      }
+      return page.collectList().map(messages -> {
+         String nextCursor = null;
+         if (messages.size() == limit) { //Страница полная - возможно есть следующая
+            MessageResponse last = messages.get(messages.size() - 1);
+            nextCursor = new MessageCursor(last.sentAt(), last.id()).encode();
+         }
+         return new CursorPageResponse<>(messages, nextCursor);
+      });
+   }
+
+   /**
+    * Последние сообщения потоком, по мере чтения из БД
+    *
+    * @param limit Сколько сообщений отдать
+    * @return Сообщения от новых к старым
+    */
+   public Flux<MessageResponse> streamMessages(Integer limit) {
+      if (limit < 1 || limit > maxStreamSize) {
+         throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Limit must be between 1 and " + maxStreamSize);
+      }
+      return repository.streamLatest(limit, STREAM_FETCH_SIZE);
+   }
+}
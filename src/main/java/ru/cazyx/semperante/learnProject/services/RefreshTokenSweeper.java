@@ -0,0 +1,144 @@
+package ru.cazyx.semperante.learnProject.services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Удаление истекших refresh-токенов порциями.
+ * <p>
+ * Один DELETE по всем истекшим токенам на большой таблице долго держит блокировки и пишет разом огромный объем WAL.
+ * Поэтому удаляем порциями по batchSize строк (по индексу learn_reset_tokens_expires_idx), каждая порция - отдельная короткая транзакция,
+ * а между порциями делаем паузу, чтобы не мешать остальной нагрузке.
+ * <p>
+ * Если запущено несколько экземпляров приложения, чистку делает только один: перед началом берется advisory lock PostgreSQL.
+ * Остальные экземпляры, не получив блокировку, просто пропускают этот запуск.
+ */
+@Service
+public class RefreshTokenSweeper {
+   /**
+    * Ключ advisory lock чистки. Любое число, главное - одинаковое на всех экземплярах и не пересекающееся с другими блокировками
+    */
+   static final long SWEEP_LOCK_KEY = 7_416_001L;
+   /**
+    * Удаление одной порции. Подзапрос идет по индексу expires_at и берет не больше batchSize строк.
+    * SKIP LOCKED - пропускаем строки, которые прямо сейчас ротируются, чтобы не ждать их
+    */
+   private static final String DELETE_BATCH = """
+           DELETE FROM learn_refresh_tokens WHERE token IN (
+               SELECT token FROM learn_refresh_tokens WHERE expires_at < CURRENT_TIMESTAMP
+               ORDER BY expires_at LIMIT ? FOR UPDATE SKIP LOCKED)
+           """;
+
+   private final JdbcTemplate jdbcTemplate;
+   /**
+    * Размер порции
+    */
+   private final int batchSize;
+   /**
+    * Пауза между порциями в мс
+    */
+   private final long pauseMillis;
+
+   /**
+    * Конструктор для спринга
+    *
+    * @param jdbcTemplate Спринговская обертка над JDBC
+    * @param batchSize    Размер порции (spring.token-sweep.batch-size)
+    * @param pauseMillis  Пауза между порциями в мс (spring.token-sweep.pause-millis)
+    */
+   public RefreshTokenSweeper(JdbcTemplate jdbcTemplate,
+                              @Value("${spring.token-sweep.batch-size:1000}") int batchSize,
+                              @Value("${spring.token-sweep.pause-millis:50}") long pauseMillis) {
+      this.jdbcTemplate = jdbcTemplate;
+      this.batchSize = batchSize;
+      this.pauseMillis = pauseMillis;
+   }
+
+   /**
+    * Удалить все истекшие токены.
+    * <p>
+    * Не должен вызываться внутри транзакции: иначе все порции окажутся в одной большой транзакции, что и пытаемся избежать.
+    * Вся работа идет на одном подключении, т.к. advisory lock принадлежит сессии (подключению) PostgreSQL.
+    *
+    * @return Результат: была ли чистка на этом экземпляре, сколько строк удалено и за сколько времени
+    */
+   public SweepResult sweep() {
+      return jdbcTemplate.execute((ConnectionCallback<SweepResult>) con -> {
+         long start = System.nanoTime();
+         if (!tryLock(con)) { //Чистку прямо сейчас делает другой экземпляр
+            return new SweepResult(false, 0, 0);
+         }
+         long deleted = 0;
+         try (PreparedStatement ps = con.prepareStatement(DELETE_BATCH)) {
+            ps.setInt(1, batchSize);
+            while (true) {
+               int batch = ps.executeUpdate(); //В режиме autocommit каждая порция коммитится сразу
+               deleted += batch;
+               if (batch < batchSize || !pause()) { //Порция неполная - истекших больше нет
+                  break;
+               }
+            }
+         }
+         finally {
+            unlock(con);
+         }
+         return new SweepResult(true, deleted, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      });
+   }
+
+   /**
+    * Попробовать взять блокировку без ожидания
+    */
+   private static boolean tryLock(Connection con) throws SQLException {
+      try (PreparedStatement ps = con.prepareStatement("SELECT pg_try_advisory_lock(?)")) {
+         ps.setLong(1, SWEEP_LOCK_KEY);
+         try (ResultSet rs = ps.executeQuery()) {
+            return rs.next() && rs.getBoolean(1);
+         }
+      }
+   }
+
+   /**
+    * Отпустить блокировку. Обязательно, т.к. подключение вернется в пул, а не закроется
+    */
+   private static void unlock(Connection con) throws SQLException {
+      try (PreparedStatement ps = con.prepareStatement("SELECT pg_advisory_unlock(?)")) {
+         ps.setLong(1, SWEEP_LOCK_KEY);
+         ps.executeQuery().close();
+      }
+   }
+
+   /**
+    * Пауза между порциями
+    *
+    * @return false, если поток прервали (приложение останавливается) и продолжать не нужно
+    */
+   private boolean pause() {
+      try {
+         Thread.sleep(pauseMillis);
+         return true;
+      }
+      catch (InterruptedException ex) {
+         Thread.currentThread().interrupt();
+         return false;
+      }
+   }
+
+   /**
+    * Результат чистки
+    *
+    * @param executed Была ли чистка на этом экземпляре (false - блокировку держит другой)
+    * @param deleted  Сколько токенов удалено
+    * @param millis   Сколько заняла чистка в мс
+    */
+   public record SweepResult(boolean executed, long deleted, long millis) {
+   }
+}
@@ -0,0 +1,46 @@
+package ru.cazyx.semperante.learnProject.services;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Курсор keyset-пагинации поиска - позиция последнего отданного сообщения в порядке (ts_rank DESC, id DESC).
+ * <p>
+ * Как и {@link MessageCursor}, для фронта это непрозрачная строка. Курсор действителен только для того же поискового запроса.
+ *
+ * @param rank Релевантность последнего сообщения страницы
+ * @param id   ИД последнего сообщения страницы
+ */
+record SearchCursor(float rank, Long id) {
+
+   /**
+    * Закодировать курсор в строку
+    *
+    * @return Строка вида base64url("релевантность:ид"). Float.toString однозначно восстанавливается обратно, поэтому сравнение в БД точное
+    */
+   String encode() {
+      String raw = rank + ":" + id;
+      return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+   }
+
+   /**
+    * Раскодировать курсор из строки
+    *
+    * @param cursor Строка, ранее полученная из {@link #encode()}
+    * @return Курсор
+    * @throws ResponseStatusException 400, если строка не является курсором
+    */
+   static SearchCursor decode(String cursor) {
+      try {
+         String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+         int colon = raw.indexOf(':');
+         return new SearchCursor(Float.parseFloat(raw.substring(0, colon)), Long.parseLong(raw.substring(colon + 1)));
+      }
+      catch (RuntimeException ex) { //Кривой base64, нет разделителя, не числа - курсор не наш
+         throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Cursor is invalid");
+      }
+   }
+}
@@ -1,127 +1,203 @@
 package ru.cazyx.semperante.learnProject.services;
 
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.http.HttpStatus;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.server.ResponseStatusException;
+import ru.cazyx.semperante.learnProject.config.PasswordHasher;
+import ru.cazyx.semperante.learnProject.config.filters.AuthorizedUser;
 import ru.cazyx.semperante.learnProject.config.filters.JwtUtils;
+import ru.cazyx.semperante.learnProject.config.filters.PrincipalCache;
 import ru.cazyx.semperante.learnProject.dto.requests.AuthRequest;
 import ru.cazyx.semperante.learnProject.dto.requests.RegisterRequest;
 import ru.cazyx.semperante.learnProject.dto.responses.AuthorizationResponse;
+import ru.cazyx.semperante.learnProject.dto.responses.MessageEvent;
+import ru.cazyx.semperante.learnProject.dto.responses.PrincipalCacheStatsResponse;
 import ru.cazyx.semperante.learnProject.entities.LearnUser;
 import ru.cazyx.semperante.learnProject.entities.RefreshToken;
 import ru.cazyx.semperante.learnProject.entities.repositories.LearnUserRepository;
 import ru.cazyx.semperante.learnProject.entities.repositories.RefreshTokenRepository;
 
-import java.sql.Timestamp;
-import java.util.Optional;
-import java.util.UUID;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.regex.Pattern;
 
 /**
  * Сервис для роутов пользователя
  */
 @Service
 public class UserService extends AParentService {
-   private final PasswordEncoder encoder;
+   /**
+    * Генераторы случайных чисел для refresh-токенов (см. {@link #generateRefreshToken()})
+    */
+   private static final SecureRandom[] RANDOMS = createRandoms();
+   /**
+    * Код ошибки PostgreSQL "нарушение уникальности"
+    */
+   private static final String UNIQUE_VIOLATION = "23505";
+   /**
+    * Допустимый логин - как в {@link RegisterRequest}
+    */
+   private static final Pattern LOGIN_PATTERN = Pattern.compile("^\\w{3,16}$");
+
+   private final PasswordHasher passwordHasher;
    private final LearnUserRepository userRepository;
    private final JwtUtils jwtUtils;
    private final RefreshTokenRepository refreshTokenRepository;
+   private final PrincipalCache principalCache;
+   private final LoginBloomFilter loginBloomFilter;
+   private final ApplicationEventPublisher eventPublisher;
 
    /**
     * Конструктор для спринга
     *
-    * @param encoder                Кодировщик пролей, который мы настроили как @Bean в {@link ru.cazyx.semperante.learnProject.config.SecurityConfig}
+    * @param passwordHasher         Хэширование паролей на отдельном ограниченном пуле потоков
     * @param userRepository         Репозитория пользователей
     * @param jwtUtils               Утилити для работы с JWT (нужно для кодировки)
     * @param refreshTokenRepository Репозитория с токенами для перевыпуска.
+    * @param principalCache         Кэш пользователей в JwtFilter (статистика и сброс после отзыва токенов)
+    * @param loginBloomFilter       Фильтр Блума занятых логинов и почт
+    * @param eventPublisher         Публикатор событий спринга (смена ETag списков сообщений после смены роли)
     */
-   public UserService(PasswordEncoder encoder, LearnUserRepository userRepository, JwtUtils jwtUtils, RefreshTokenRepository refreshTokenRepository) {
-      this.encoder = encoder;
+   public UserService(PasswordHasher passwordHasher, LearnUserRepository userRepository, JwtUtils jwtUtils, RefreshTokenRepository refreshTokenRepository,
+                      PrincipalCache principalCache, LoginBloomFilter loginBloomFilter, ApplicationEventPublisher eventPublisher) {
+      this.passwordHasher = passwordHasher;
       this.userRepository = userRepository;
       this.jwtUtils = jwtUtils;
       this.refreshTokenRepository = refreshTokenRepository;
+      this.principalCache = principalCache;
+      this.loginBloomFilter = loginBloomFilter;
+      this.eventPublisher = eventPublisher;
    }
 
    /**
     * Получить текущего пользователя.
+    * <p>
+    * В контексте лежит только {@link AuthorizedUser} (ИД, логин, роль), а фронту нужна полная модель с почтой и датой регистрации,
+    * поэтому модель читается из БД по ИД. Повторные запросы с актуальным ETag в БД не идут (см. {@link #getMeEtag()}).
     *
     * @return Пользователь
     */
    public LearnUser getMe() {
-      return getAuthorizedUser(); //Просто берем пользователя из контекста
+      return userRepository.findById(getAuthorizedUser().id()).orElseThrow(() -> new ResponseStatusException(HttpStatus.UNAUTHORIZED, "User not found"));
    }
 
    /**
-    * Регистрация нового пользователя. Внутри транзакции, что логично
+    * ETag модели текущего пользователя. Собирается из данных авторизованного пользователя, без запроса в БД.
+    * Почта и дата регистрации после регистрации не меняются, а смена роли поднимает версию токенов, так что ETag меняется вместе с моделью
+    *
+    * @return Значение ETag (без кавычек)
+    */
+   public String getMeEtag() {
+      AuthorizedUser user = getAuthorizedUser();
+      return "u-" + user.id() + "-" + user.role() + "-" + user.tokenVersion() + "-" + Integer.toHexString(user.login().hashCode());
+   }
+
+   /**
+    * Регистрация нового пользователя.
+    * <p>
+    * Метод специально не помечен @Transactional: хэширование пароля долгое, и держать всё это время подключение к БД незачем.
+    * <p>
+    * Занятость логина и почты заранее не проверяется: это был бы лишний запрос, а два параллельных запроса с одним логином
+    * оба прошли бы проверку. Вместо этого сразу делается INSERT, а уникальные индексы learn_users_login_idx и learn_users_email_idx
+    * (без учета регистра) отклоняют дубликат ошибкой 23505, которая превращается в 400.
     *
     * @param request Запрос на регистрациею
     * @return Пользователь
     */
-   @Transactional
    public LearnUser register(RegisterRequest request) {
       //Проверяем что пароль и его повторение совпадают, иначе - 400
       if (!request.password().equals(request.password_confirmation())) {
          throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Passwords not matches");
       }
-      //Запрашиваем в БД пользователя с таким же логигом или почтой
-      Optional<LearnUser> userOpt = userRepository.findByCredentials(request.login(), request.email());
+      LearnUser user;
+      try {
+         //Сохраняем нового пользователя. saveAndFlush - чтобы INSERT (и ошибка уникальности) случился тут, а не при коммите
+         user = userRepository.saveAndFlush(new LearnUser(request.login(), request.email(), passwordHasher.encode(request.password()), request.role()));
+      }
+      catch (DataIntegrityViolationException e) {
+         if (isUniqueViolation(e)) { //Логин или почта заняты - 400
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Login or email are used");
+         }
+         throw e;
+      }
+      loginBloomFilter.add(user.getLogin(), user.getEmail());
+      return user; //Возвращаем на фронт
+   }
 
-      //Если ответ не пустой, значит данные заняты - 400.
-      if (userOpt.isPresent()) {
-         throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Login or email are used");
+   /**
+    * Свободен ли логин (для формы регистрации).
+    * <p>
+    * Если фильтр Блума логина не знает - логин точно свободен, в БД не идем. Иначе проверяем по индексу learn_users_login_idx.
+    *
+    * @param login Логин
+    * @return true - логин свободен
+    */
+   public boolean isLoginAvailable(String login) {
+      if (login == null || !LOGIN_PATTERN.matcher(login).matches()) {
+         throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid login");
       }
-      //Сохраняем нового пользователя и возвращаем на фронт.
-      return userRepository.save(new LearnUser(request.login(), request.email(), encoder.encode(request.password()), request.role()));
+      if (!loginBloomFilter.mightContain(login)) {
+         return true;
+      }
+      return userRepository.findIdByLogin(login).isEmpty();
    }
 
    /**
     * Авторизация пользователя
+    * <p>
+    * Как и регистрация, не помечена @Transactional, чтобы не держать подключение к БД во время проверки пароля.
     *
     * @param request Тело запроса
     * @return Ответ авторизации
     */
-   @Transactional
    public AuthorizationResponse auth(AuthRequest request) {
       //Ищем пользователя по данным авторизации (логин или почта), если такого нет - 404.
       LearnUser user = userRepository.findByCredentials(request.login()).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found"));
       //Проверяем введенный пароль. Если он неверный - 401
-      if (!encoder.matches(request.password(), user.getPasswordDigest())) {
+      if (!passwordHasher.matches(request.password(), user.getPasswordDigest())) {
          throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Password is invalid");
       }
+      //Пароль верный, но хэш посчитан со старой стоимостью BCrypt - перехэшируем, пока у нас есть открытый пароль
+      if (passwordHasher.needsRehash(user.getPasswordDigest())) {
+         userRepository.updatePasswordDigest(user.getId(), passwordHasher.encode(request.password()));
+      }
       //Создаем строку которая будет токеном для перевыпуска
       String refresh = generateRefreshToken();
-      //Сохраняем новый токен для перевыпуска в БД
-      refreshTokenRepository.save(new RefreshToken(user, refresh));
+      //Сохраняем новый токен для перевыпуска в БД (в БД хранится только хэш)
+      refreshTokenRepository.save(new RefreshToken(user, hashRefreshToken(refresh)));
 
-      //Кодируем ИД пользователя в JWT и возвращаем ответ авторизации
-      return new AuthorizationResponse(jwtUtils.encode(user.getId()), refresh);
+      //Кодируем пользователя в JWT и возвращаем ответ авторизации
+      return new AuthorizationResponse(jwtUtils.encode(AuthorizedUser.of(user)), refresh);
    }
 
    /**
     * Перевыпуск JWT
+    * <p>
+    * Ротация токена делается одним SQL запросом (см. {@link RefreshTokenRepository#rotate(String, String)}):
+    * удаление старого токена, вставка нового и чтение пользователя. Благодаря блокировке строки при DELETE
+    * из нескольких параллельных запросов с одним и тем же токеном новый токен получит ровно один.
     *
     * @param refreshToken Токен для перевыпуска
     * @return Новый ответ авторизации (новые токены)
     */
    @Transactional
    public AuthorizationResponse doReset(String refreshToken) {
-      //Ищем заданный токен в БД. Если его нет - 404
-      RefreshToken token = refreshTokenRepository.findById(refreshToken).orElseThrow(() -> new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Bad refresh token"));
-      //Сразу удаляем использованный токен из БД.
-      refreshTokenRepository.delete(token);
-      //На всякий проверяем, что он не истек (на случай, если 5 минут назад он ещё был валидный)
-      if (token.getExpiresAt().before(new Timestamp(System.currentTimeMillis()))) {
-         throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Token is expired");
-      }
-      //Берем пользователя из токены (по зависимости многие к 1)
-      LearnUser user = token.getUser();
       //Генерируем строку для нового токена
       String newToken = generateRefreshToken();
-      //Сохраняем новый токен
-      refreshTokenRepository.save(new RefreshToken(user, newToken));
-      //Записываем ИД пользователя в JWT и возвращем новые токены.
-      return new AuthorizationResponse(jwtUtils.encode(user.getId()), newToken);
+      //Меняем старый токен на новый. Если старого нет (уже использован) или он истек - 401
+      RefreshTokenRepository.RotatedUser user = refreshTokenRepository.rotate(hashRefreshToken(refreshToken), hashRefreshToken(newToken))
+              .orElseThrow(() -> new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Bad refresh token"));
+      //Записываем пользователя в JWT и возвращем новые токены.
+      AuthorizedUser principal = new AuthorizedUser(user.getId(), user.getLogin(), LearnUser.UserRole.valueOf(user.getRole()), user.getTokenVersion());
+      return new AuthorizationResponse(jwtUtils.encode(principal), newToken);
    }
 
    /**
@@ -131,16 +207,115 @@ public class UserService extends AParentService {
     * @param refreshToken Токен для перевыпуска JWT.
     */
    public void doLogout(String refreshToken) {
-      refreshTokenRepository.deleteById(refreshToken);
+      refreshTokenRepository.deleteByHash(hashRefreshToken(refreshToken));
+   }
+
+   /**
+    * Выход со всех устройств: удаляются все токены перевыпуска пользователя, а версия его токенов растет,
+    * так что уже выданные JWT получают 401 сразу, не дожидаясь истечения.
+    * <p>
+    * Отзыв JWT работает при spring.jwt.self-contained=false (по-умолчанию): только тогда JwtFilter сверяет версию с БД.
+    */
+   @Transactional
+   public void doLogoutAll() {
+      Long id = getAuthorizedUser().id();
+      refreshTokenRepository.deleteByUserId(id);
+      userRepository.incrementTokenVersion(id);
+      principalCache.invalidate(id); //UPDATE прошел мимо сущности, слушатель кэш не сбросит
+   }
+
+   /**
+    * Смена роли пользователя администратором. Вместе с ролью растет версия токенов: старые JWT несут старую роль и должны получить 401.
+    * Токены перевыпуска не трогаем - по ним пользователь получит JWT уже с новой ролью.
+    * <p>
+    * Роль автора есть в каждом ответе сообщения, поэтому публикуется событие AUTHOR_CHANGED: после коммита оно меняет ETag списков
+    * на этом экземпляре (MessageService), а через NOTIFY (MessageFeedNotifier) - и на остальных
+    *
+    * @param id   ИД пользователя
+    * @param role Новая роль
+    */
+   @Transactional
+   public void changeRole(Long id, LearnUser.UserRole role) {
+      if (userRepository.updateRole(id, role) == 0) { //Пользователя нет - 404
+         throw new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found");
+      }
+      principalCache.invalidate(id);
+      eventPublisher.publishEvent(new MessageEvent(MessageEvent.EventType.AUTHOR_CHANGED, id, null));
+   }
+
+   /**
+    * Статистика кэша пользователей в JwtFilter
+    *
+    * @return Попадания, промахи и размер кэша
+    */
+   public PrincipalCacheStatsResponse getPrincipalCacheStats() {
+      var stats = principalCache.stats();
+      return new PrincipalCacheStatsResponse(stats.hitCount(), stats.missCount(), stats.hitRate(), principalCache.size());
    }
 
    /**
     * Метод генерации токена для перевыпуска JWT
+    * <p>
+    * UUID.randomUUID() берет случайные байты из одного общего на всё приложение SecureRandom, и под нагрузкой потоки ждут друг друга на его блокировке.
+    * Тут генераторов несколько, и поток берет "свой" по ИД потока, так что параллельные запросы почти никогда не конкурируют.
+    *
+    * @return Строка с токеном - 256 случайных бит в base64url
+    */
+   static String generateRefreshToken() {
+      byte[] bytes = new byte[32];
+      RANDOMS[(int) Thread.currentThread().threadId() & (RANDOMS.length - 1)].nextBytes(bytes);
+      return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+   }
+
+   /**
+    * Является ли ошибка нарушением уникального индекса
     *
-    * @return Строка с токеном. По сути просто 2 UUID склеенных через "-", в теории должно дать достаточную уникальность, чтобы не было коллизий.
-    * Можно применить другую логику - воля автора.
+    * @param e Ошибка сохранения
+    * @return true, если среди причин есть SQLException с кодом 23505
     */
-   private static String generateRefreshToken() {
-      return UUID.randomUUID() + "-" + UUID.randomUUID();
+   private static boolean isUniqueViolation(DataIntegrityViolationException e) {
+      for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+         if (cause instanceof SQLException sql && UNIQUE_VIOLATION.equals(sql.getSQLState())) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Хэш refresh-токена, который хранится в БД вместо самого токена.
+    * Если БД утечет, по хэшам нельзя будет перевыпустить JWT.
+    * Соль не нужна: токен и так содержит 256 случайных бит.
+    *
+    * @param refreshToken Токен
+    * @return SHA-256 от токена в hex (так же считает миграция V5 через sha256() в PostgreSQL)
+    */
+   static String hashRefreshToken(String refreshToken) {
+      try {
+         return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(refreshToken.getBytes(StandardCharsets.UTF_8)));
+      }
+      catch (NoSuchAlgorithmException ex) { //SHA-256 обязан быть в любой JVM
+         throw new IllegalStateException(ex);
+      }
+   }
+
+   /**
+    * Создать набор генераторов случайных чисел. Размер - степень двойки не меньше удвоенного числа ядер,
+    * чтобы выбирать генератор по ИД потока простой битовой маской.
+    *
+    * @return Генераторы
+    */
+   private static SecureRandom[] createRandoms() {
+      int size = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)) << 1;
+      SecureRandom[] randoms = new SecureRandom[size];
+      for (int i = 0; i < size; i++) {
+         try {
+            randoms[i] = SecureRandom.getInstance("DRBG"); //У каждого DRBG своё состояние (в отличие от NativePRNG с общим на все экземпляры)
+         }
+         catch (NoSuchAlgorithmException ex) {
+            randoms[i] = new SecureRandom();
+         }
+      }
+      return randoms;
    }
 }
@@ -0,0 +1,38 @@
+package ru.cazyx.semperante.learnProject.utils;
+
+/**
+ * Быстрые некриптографические 64-битные хэши для ключей кэшей и фильтров в памяти.
+ * <p>
+ * Не для паролей и токенов в БД: там нужна стойкость, а тут - только скорость и равномерность
+ */
+public final class Hashing {
+
+   private Hashing() {
+   }
+
+   /**
+    * 64-битный хэш строки: FNV-1a по символам и перемешивание битов из SplitMix64
+    *
+    * @param value Строка
+    * @return Хэш
+    */
+   public static long hash64(String value) {
+      long hash = 0xCBF29CE484222325L;
+      for (int i = 0; i < value.length(); i++) {
+         hash = (hash ^ value.charAt(i)) * 0x100000001B3L;
+      }
+      return mix64(hash);
+   }
+
+   /**
+    * Перемешивание битов из SplitMix64: близкие входы дают непохожие результаты
+    *
+    * @param z Значение
+    * @return Перемешанное значение
+    */
+   public static long mix64(long z) {
+      z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+      z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+      return z ^ (z >>> 31);
+   }
+}
@@ -0,0 +1,85 @@
+/*
+   Таблица сообщений разбивается на помесячные секции по sent_at (PARTITION BY RANGE).
+   Каждая секция - отдельная таблица со своими индексами: VACUUM и раздувание индексов ограничены одним месяцем,
+   запросы с условием на sent_at читают только нужные секции (partition pruning),
+   а старые месяцы удаляются целиком DROP TABLE вместо DELETE миллионов строк (см. MessagePartitionMaintenance).
+
+   Данные копируются в новую таблицу внутри транзакции миграции, т.е. на время миграции таблица сообщений заблокирована.
+   На большой таблице миграцию нужно запускать в окно обслуживания.
+*/
+
+/* Старая таблица и её индексы отходят в сторону, чтобы освободить имена */
+ALTER TABLE learn_user_messages RENAME TO learn_user_messages_unpartitioned;
+ALTER INDEX IF EXISTS learn_user_messages_pkey RENAME TO learn_user_messages_unpartitioned_pkey;
+ALTER INDEX IF EXISTS learn_user_messages_sent_id_idx RENAME TO learn_user_messages_unpartitioned_sent_id_idx;
+ALTER INDEX IF EXISTS learn_user_messages_author_sent_id_idx RENAME TO learn_user_messages_unpartitioned_author_sent_id_idx;
+ALTER INDEX IF EXISTS learn_user_messages_tsv_idx RENAME TO learn_user_messages_unpartitioned_tsv_idx;
+
+/*
+   Секционированная таблица.
+   Первичный ключ секционированной таблицы обязан включать ключ секционирования, поэтому он (id, sent_at).
+   Уникальность id по-прежнему обеспечивает счетчик learn_user_messages_id_seq.
+   sent_at теперь NOT NULL: строку без ключа секционирования некуда положить.
+*/
+CREATE TABLE learn_user_messages
+(
+    id          int8      NOT NULL DEFAULT nextval('learn_user_messages_id_seq'), /* ИД сообщения, из того же счетчика */
+    author_id   int8      NOT NULL REFERENCES learn_users (id) ON DELETE CASCADE ON UPDATE CASCADE, /* Подвязка к автору сообщения */
+    message     TEXT      NOT NULL, /* Текст сообщения */
+    sent_at     TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, /* Дата отправки сообщения - ключ секционирования */
+    message_tsv tsvector GENERATED ALWAYS AS (to_tsvector('russian', message)) STORED, /* Лексемы для полнотекстового поиска (V7) */
+    PRIMARY KEY (id, sent_at)
+) PARTITION BY RANGE (sent_at);
+
+/*
+   Счетчик ID принадлежал столбцу старой таблицы и удалился бы вместе с ней. Передаем его новой.
+   Шаг счетчика (INCREMENT BY 100 из V6) не меняется
+*/
+ALTER SEQUENCE learn_user_messages_id_seq OWNED BY learn_user_messages.id;
+
+/*
+   Секции: с месяца самого старого сообщения до текущего месяца + 3 вперед (как spring.message-partitions.months-ahead по-умолчанию).
+   Имя секции - learn_user_messages_pГГГГММ, на этот формат опирается MessagePartitionMaintenance
+*/
+DO
+$$
+    DECLARE
+        month_start DATE;
+        last_month  DATE := (date_trunc('month', CURRENT_DATE) + INTERVAL '3 months')::date;
+    BEGIN
+        SELECT COALESCE(date_trunc('month', MIN(sent_at)), date_trunc('month', CURRENT_DATE))::date
+        INTO month_start
+        FROM learn_user_messages_unpartitioned;
+        WHILE month_start <= last_month
+            LOOP
+                EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF learn_user_messages FOR VALUES FROM (%L) TO (%L)',
+                               'learn_user_messages_p' || to_char(month_start, 'YYYYMM'),
+                               month_start, (month_start + INTERVAL '1 month')::date);
+                month_start := (month_start + INTERVAL '1 month')::date;
+            END LOOP;
+    END
+$$;
+
+/* Секция по-умолчанию для строк вне созданных месяцев (например, если секции вперед не успели создать). В норме пустая */
+CREATE TABLE IF NOT EXISTS learn_user_messages_default PARTITION OF learn_user_messages DEFAULT;
+
+/* Перенос данных. message_tsv вычисляется заново. Строки без даты отправки получают текущую */
+INSERT INTO learn_user_messages (id, author_id, message, sent_at)
+SELECT id, author_id, message, COALESCE(sent_at, CURRENT_TIMESTAMP)
+FROM learn_user_messages_unpartitioned;
+
+DROP TABLE learn_user_messages_unpartitioned;
+
+/*
+   Индексы создаются на секционированной таблице после переноса данных (так быстрее, чем обновлять их на каждой вставке).
+   PostgreSQL создает такой же индекс в каждой секции, в том числе в секциях, созданных позже
+*/
+/* Keyset-пагинация всех сообщений (V4) */
+CREATE INDEX IF NOT EXISTS learn_user_messages_sent_id_idx ON learn_user_messages (sent_at DESC, id DESC);
+/* Лента сообщений автора (V8), им же пользуется ON DELETE CASCADE */
+CREATE INDEX IF NOT EXISTS learn_user_messages_author_sent_id_idx ON learn_user_messages (author_id, sent_at DESC, id DESC);
+/* Полнотекстовый поиск (V7) */
+CREATE INDEX IF NOT EXISTS learn_user_messages_tsv_idx ON learn_user_messages USING GIN (message_tsv);
+
+/* Статистика для планировщика (и для оценки количества сообщений из reltuples секций) */
+ANALYZE learn_user_messages;
@@ -0,0 +1,2 @@
+/* Версия токенов пользователя. Записывается в JWT, увеличение значения делает все ранее выпущенные JWT пользователя невалидными */
+ALTER TABLE learn_users ADD COLUMN IF NOT EXISTS token_version INT NOT NULL DEFAULT 0;
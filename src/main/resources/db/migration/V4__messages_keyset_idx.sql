@@ -0,0 +1,8 @@
+/*
+   Составной индекс под keyset-пагинацию сообщений: (sent_at, id) в том же порядке, что и ORDER BY запроса.
+   id нужен, чтобы порядок был однозначным при одинаковом времени отправки.
+*/
+CREATE INDEX IF NOT EXISTS learn_user_messages_sent_id_idx ON learn_user_messages (sent_at DESC, id DESC);
+
+/* Старый индекс только по sent_at является префиксом нового и больше не нужен */
+DROP INDEX IF EXISTS learn_user_messages_sent_idx;
@@ -0,0 +1,5 @@
+/*
+   Refresh-токены теперь хранятся не в открытом виде, а как SHA-256 (hex) от токена.
+   Уже выданные токены хэшируем на месте, чтобы пользователей не разлогинило.
+*/
+UPDATE learn_refresh_tokens SET token = encode(sha256(convert_to(token, 'UTF8')), 'hex');
@@ -0,0 +1,6 @@
+/*
+   Шаг счетчиков ID должен совпадать с allocationSize в @SequenceGenerator сущностей.
+   Hibernate берет одно значение счетчика и сам раздает ID из диапазона, не делая запрос в БД на каждую вставку.
+*/
+ALTER SEQUENCE learn_user_messages_id_seq INCREMENT BY 100;
+ALTER SEQUENCE learn_users_id_seq INCREMENT BY 50;
@@ -0,0 +1,12 @@
+/*
+   Полнотекстовый поиск по сообщениям.
+   message_tsv - лексемы текста сообщения. Столбец вычисляемый (GENERATED ... STORED): PostgreSQL сам пересчитывает его
+   при вставке и изменении message, приложению о нем знать не нужно.
+   Конфигурация russian приводит русские слова к основе, а латиницу обрабатывает английским стеммером.
+   Она же должна использоваться в запросах (websearch_to_tsquery('russian', ...)), иначе лексемы не совпадут.
+*/
+ALTER TABLE learn_user_messages
+    ADD COLUMN IF NOT EXISTS message_tsv tsvector GENERATED ALWAYS AS (to_tsvector('russian', message)) STORED;
+
+/* GIN индекс: по лексеме сразу находит все содержащие её сообщения, без чтения всей таблицы */
+CREATE INDEX IF NOT EXISTS learn_user_messages_tsv_idx ON learn_user_messages USING GIN (message_tsv);
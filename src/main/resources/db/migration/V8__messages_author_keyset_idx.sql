@@ -0,0 +1,8 @@
+/*
+   Составной индекс под ленту сообщений одного автора: (author_id, sent_at, id) в том же порядке, что и ORDER BY запроса.
+   Страница автора - это чтение диапазона индекса внутри author_id, без сортировки всех сообщений автора в памяти.
+*/
+CREATE INDEX IF NOT EXISTS learn_user_messages_author_sent_id_idx ON learn_user_messages (author_id, sent_at DESC, id DESC);
+
+/* Старый индекс только по author_id является префиксом нового (им же пользуется ON DELETE CASCADE) и больше не нужен */
+DROP INDEX IF EXISTS learn_user_messages_author_idx;
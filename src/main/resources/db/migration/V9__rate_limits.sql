@@ -0,0 +1,13 @@
+/*
+   Корзины токенов ограничителя частоты запросов (spring.rate-limit.store: POSTGRES), общие для всех экземпляров приложения.
+   UNLOGGED - без записи в WAL: после падения БД таблица пустая (все лимиты сброшены), для лимитов это допустимо.
+*/
+CREATE UNLOGGED TABLE IF NOT EXISTS learn_rate_limits
+(
+    bucket_key TEXT PRIMARY KEY, /* Ключ корзины: маршрут + IP или логин */
+    tokens     FLOAT8      NOT NULL, /* Сколько токенов было в момент последнего обращения */
+    updated_at TIMESTAMPTZ NOT NULL /* Время последнего обращения (часы БД) */
+);
+
+/* Индекс для удаления давно не использовавшихся корзин */
+CREATE INDEX IF NOT EXISTS learn_rate_limits_updated_idx ON learn_rate_limits (updated_at);
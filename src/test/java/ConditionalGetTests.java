@@ -0,0 +1,243 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.test.context.ActiveProfiles;
+import ru.cazyx.semperante.learnProject.TestProjectApplication;
+import ru.cazyx.semperante.learnProject.dto.requests.AuthRequest;
+import ru.cazyx.semperante.learnProject.dto.requests.RegisterRequest;
+import ru.cazyx.semperante.learnProject.dto.requests.SingleValueRequest;
+import ru.cazyx.semperante.learnProject.dto.responses.AuthorizationResponse;
+import ru.cazyx.semperante.learnProject.entities.LearnUser;
+import ru.cazyx.semperante.learnProject.entities.repositories.LearnUserRepository;
+import ru.cazyx.semperante.learnProject.services.UserService;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Условные GET запросы: повторный запрос с If-None-Match получает 304 и не выполняет ни одного запроса в БД.
+ * <p>
+ * Запросы считаются на уровне DataSource, поэтому видны и JPA, и JdbcTemplate. Считаются только потоки обработки HTTP запросов:
+ * задачи по расписанию ходят в БД в любой момент
+ */
+@SpringBootTest(classes = TestProjectApplication.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.liquibase.enabled=false",
+        "spring.flyway.enabled=false"
+})
+
+@ActiveProfiles("test")
+@Import(ConditionalGetTests.StatementCounterConfig.class)
+public class ConditionalGetTests {
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private LearnUserRepository learnUserRepository;
+
+    @Autowired
+    private UserService userService;
+
+    private static final AtomicInteger REQUEST_CONNECTIONS = new AtomicInteger();
+    private static final AtomicInteger REQUEST_STATEMENTS = new AtomicInteger();
+    private static final Set<String> STATEMENT_METHODS = Set.of("createStatement", "prepareStatement", "prepareCall");
+
+    private String token;
+
+    @BeforeEach
+    public void login() {
+        RegisterRequest registerRequest = new RegisterRequest("etag", "etag@test.test", "12345678", "12345678", LearnUser.UserRole.USER);
+        assertEquals(HttpStatus.OK, restTemplate.postForEntity("/v1/user/register", registerRequest, String.class).getStatusCode());
+        ResponseEntity<AuthorizationResponse> login = restTemplate.postForEntity("/v1/user/login", new AuthRequest("etag", "12345678"), AuthorizationResponse.class);
+        assertEquals(HttpStatus.OK, login.getStatusCode());
+        token = login.getBody().token();
+    }
+
+    @AfterEach
+    public void cleanup() {
+        learnUserRepository.deleteAll();
+    }
+
+    @Test
+    public void testNotModifiedMessagePageRunsNoSql() {
+        send("First message");
+        ResponseEntity<String> first = get("/v1/messages?limit=20", null);
+        assertEquals(HttpStatus.OK, first.getStatusCode());
+        String etag = first.getHeaders().getETag();
+        assertNotNull(etag);
+
+        resetCounters();
+        ResponseEntity<String> notModified = get("/v1/messages?limit=20", etag);
+        assertEquals(HttpStatus.NOT_MODIFIED, notModified.getStatusCode());
+        assertNull(notModified.getBody());
+        assertNoSql();
+
+        send("Second message"); //Сообщения изменились - старый ETag больше не подходит
+        ResponseEntity<String> changed = get("/v1/messages?limit=20", etag);
+        assertEquals(HttpStatus.OK, changed.getStatusCode());
+        assertNotEquals(etag, changed.getHeaders().getETag());
+        assertTrue(changed.getBody().contains("Second message"));
+    }
+
+    @Test
+    public void testNotModifiedMe() {
+        ResponseEntity<String> first = get("/v1/user/me", null);
+        assertEquals(HttpStatus.OK, first.getStatusCode());
+        String etag = first.getHeaders().getETag();
+        assertNotNull(etag);
+
+        resetCounters();
+        ResponseEntity<String> notModified = get("/v1/user/me", etag);
+        assertEquals(HttpStatus.NOT_MODIFIED, notModified.getStatusCode());
+        assertNull(notModified.getBody());
+        assertNoSql();
+    }
+
+    @Test
+    public void testUserDeletionChangesEtag() {
+        RegisterRequest registerRequest = new RegisterRequest("etagOther", "etagOther@test.test", "12345678", "12345678", LearnUser.UserRole.USER);
+        assertEquals(HttpStatus.OK, restTemplate.postForEntity("/v1/user/register", registerRequest, String.class).getStatusCode());
+        String ownToken = token;
+        token = restTemplate.postForEntity("/v1/user/login", new AuthRequest("etagOther", "12345678"), AuthorizationResponse.class).getBody().token();
+        send("Other message");
+        token = ownToken;
+
+        ResponseEntity<String> first = get("/v1/messages?limit=20", null);
+        assertTrue(first.getBody().contains("Other message"));
+        String etag = first.getHeaders().getETag();
+
+        learnUserRepository.deleteById(learnUserRepository.findIdByLogin("etagOther").orElseThrow()); //Сообщения удаляются каскадом, без MessageService
+        ResponseEntity<String> changed = get("/v1/messages?limit=20", etag);
+        assertEquals(HttpStatus.OK, changed.getStatusCode());
+        assertFalse(changed.getBody().contains("Other message"));
+    }
+
+    @Test
+    public void testRoleChangeChangesEtag() {
+        RegisterRequest registerRequest = new RegisterRequest("etagRole", "etagRole@test.test", "12345678", "12345678", LearnUser.UserRole.USER);
+        assertEquals(HttpStatus.OK, restTemplate.postForEntity("/v1/user/register", registerRequest, String.class).getStatusCode());
+        String ownToken = token;
+        token = restTemplate.postForEntity("/v1/user/login", new AuthRequest("etagRole", "12345678"), AuthorizationResponse.class).getBody().token();
+        send("Role message");
+        token = ownToken;
+
+        ResponseEntity<String> first = get("/v1/messages?limit=20", null);
+        assertFalse(first.getBody().contains("ADMIN"));
+        String etag = first.getHeaders().getETag();
+
+        userService.changeRole(learnUserRepository.findIdByLogin("etagRole").orElseThrow(), LearnUser.UserRole.ADMIN); //Роль автора есть в ответе сообщения
+        ResponseEntity<String> changed = get("/v1/messages?limit=20", etag);
+        assertEquals(HttpStatus.OK, changed.getStatusCode());
+        assertTrue(changed.getBody().contains("ADMIN"));
+    }
+
+    @Test
+    public void testCounterSeesSql() { //Проверка самого счетчика: ответ 200 читает из БД
+        resetCounters();
+        assertEquals(HttpStatus.OK, get("/v1/messages?limit=20", null).getStatusCode());
+        assertTrue(REQUEST_STATEMENTS.get() > 0);
+    }
+
+    private static void resetCounters() {
+        REQUEST_CONNECTIONS.set(0);
+        REQUEST_STATEMENTS.set(0);
+    }
+
+    private static void assertNoSql() {
+        assertEquals(0, REQUEST_STATEMENTS.get(), "SQL was executed for a 304 response");
+        assertEquals(0, REQUEST_CONNECTIONS.get(), "A connection was taken for a 304 response");
+    }
+
+    private void send(String message) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Authorization", token);
+        assertEquals(HttpStatus.OK, restTemplate.postForEntity("/v1/messages", new HttpEntity<>(new SingleValueRequest<>(message), headers), String.class).getStatusCode());
+    }
+
+    private ResponseEntity<String> get(String path, String etag) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Authorization", token);
+        if (etag != null) {
+            headers.setIfNoneMatch(etag);
+        }
+        return restTemplate.exchange(path, HttpMethod.GET, new HttpEntity<>(headers), String.class);
+    }
+
+    /**
+     * Оборачивает пул подключений: подключения и запросы из потоков HTTP запросов считаются
+     */
+    @TestConfiguration
+    public static class StatementCounterConfig {
+        @Bean
+        public static BeanPostProcessor statementCounterPostProcessor() {
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(Object bean, String beanName) {
+                    if (bean instanceof DataSource dataSource && "primaryDataSource".equals(beanName)) {
+                        return new CountingDataSource(dataSource);
+                    }
+                    return bean;
+                }
+            };
+        }
+    }
+
+    private static class CountingDataSource extends DelegatingDataSource {
+        CountingDataSource(DataSource target) {
+            super(target);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return count(super.getConnection());
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            return count(super.getConnection(username, password));
+        }
+
+        private static Connection count(Connection connection) {
+            if (!isRequestThread()) {
+                return connection;
+            }
+            REQUEST_CONNECTIONS.incrementAndGet();
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                if (STATEMENT_METHODS.contains(method.getName())) {
+                    REQUEST_STATEMENTS.incrementAndGet();
+                }
+                try {
+                    return method.invoke(connection, args);
+                }
+                catch (InvocationTargetException ex) {
+                    throw ex.getCause();
+                }
+            });
+        }
+
+        private static boolean isRequestThread() {
+            return Thread.currentThread().getName().startsWith("http-nio");
+        }
+    }
+}
@@ -0,0 +1,149 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import ru.cazyx.semperante.learnProject.TestProjectApplication;
+import ru.cazyx.semperante.learnProject.dto.requests.AuthRequest;
+import ru.cazyx.semperante.learnProject.dto.requests.RegisterRequest;
+import ru.cazyx.semperante.learnProject.dto.responses.AuthorizationResponse;
+import ru.cazyx.semperante.learnProject.dto.responses.CursorPageResponse;
+import ru.cazyx.semperante.learnProject.dto.responses.MessageResponse;
+import ru.cazyx.semperante.learnProject.entities.LearnUser;
+import ru.cazyx.semperante.learnProject.entities.repositories.LearnUserRepository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Сообщения одного автора (/v1/messages/by/{login}) и свои сообщения (/v1/messages/me): чужие сообщения не попадают,
+ * а цепочка nextCursor проходит все сообщения автора в порядке (sent_at DESC, id DESC) без пропусков и повторов
+ */
+@SpringBootTest(classes = TestProjectApplication.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.liquibase.enabled=false",
+        "spring.flyway.enabled=false"
+})
+
+@ActiveProfiles("test")
+public class MessageAuthorFeedTests {
+    private static final ParameterizedTypeReference<CursorPageResponse<MessageResponse>> PAGE = new ParameterizedTypeReference<>() {
+    };
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private LearnUserRepository learnUserRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private String firstToken;
+    private String secondToken;
+    /**
+     * Сообщения авторов в ожидаемом порядке ленты
+     */
+    private final List<Long> firstMessages = new ArrayList<>();
+    private final List<Long> secondMessages = new ArrayList<>();
+
+    @BeforeEach
+    public void prepare() {
+        firstToken = register("feedFirst");
+        secondToken = register("feedSecond");
+        Long firstId = learnUserRepository.findIdByLogin("feedFirst").orElseThrow();
+        Long secondId = learnUserRepository.findIdByLogin("feedSecond").orElseThrow();
+
+        //Сообщения авторов перемешаны по id и времени, несколько - с одинаковым sent_at у обоих авторов
+        LocalDateTime now = LocalDateTime.now().withNano(0);
+        firstMessages.add(insert(firstId, now, "First newest"));
+        secondMessages.add(insert(secondId, now, "Second newest"));
+        List<Long> firstSameTime = new ArrayList<>();
+        List<Long> secondSameTime = new ArrayList<>();
+        for (int i = 0; i < 4; i++) { //Одинаковый sent_at - по id DESC
+            firstSameTime.add(0, insert(firstId, now.minusMinutes(1), "First same time " + i));
+            secondSameTime.add(0, insert(secondId, now.minusMinutes(1), "Second same time " + i));
+        }
+        Long firstOldest = insert(firstId, now.minusDays(1), "First oldest");
+        firstMessages.addAll(firstSameTime);
+        firstMessages.add(firstOldest);
+        secondMessages.addAll(secondSameTime);
+    }
+
+    @AfterEach
+    public void cleanup() {
+        learnUserRepository.deleteAll();
+    }
+
+    @Test
+    public void testAuthorPagesFollowFeedOrder() {
+        assertEquals(firstMessages, walk("/v1/messages/by/feedFirst", firstToken, 2));
+        assertEquals(firstMessages, walk("/v1/messages/by/feedFirst", secondToken, 3)); //Чужой список доступен любому пользователю
+        assertEquals(firstMessages, walk("/v1/messages/by/feedFirst", secondToken, 100));
+        assertEquals(secondMessages, walk("/v1/messages/by/feedSecond", firstToken, 2));
+    }
+
+    @Test
+    public void testOwnPagesContainOnlyOwnMessages() {
+        assertEquals(firstMessages, walk("/v1/messages/me", firstToken, 2));
+        assertEquals(secondMessages, walk("/v1/messages/me", secondToken, 2));
+    }
+
+    @Test
+    public void testUnknownAuthorIsNotFound() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Authorization", firstToken);
+        assertEquals(HttpStatus.NOT_FOUND, restTemplate.exchange("/v1/messages/by/feedNobody?limit=20", HttpMethod.GET, new HttpEntity<>(headers), String.class).getStatusCode());
+    }
+
+    /**
+     * Пройти все страницы по цепочке nextCursor
+     *
+     * @return ИД сообщений в порядке выдачи
+     */
+    private List<Long> walk(String path, String token, int limit) {
+        List<Long> read = new ArrayList<>();
+        String cursor = null;
+        do {
+            ResponseEntity<CursorPageResponse<MessageResponse>> page = get(path + "?limit=" + limit + (cursor == null ? "" : "&cursor=" + cursor), token);
+            assertEquals(HttpStatus.OK, page.getStatusCode());
+            assertTrue(page.getBody().items().size() <= limit);
+            page.getBody().items().forEach(message -> read.add(message.id()));
+            cursor = page.getBody().nextCursor();
+        }
+        while (cursor != null);
+        return read;
+    }
+
+    private ResponseEntity<CursorPageResponse<MessageResponse>> get(String url, String token) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Authorization", token);
+        return restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<>(headers), PAGE);
+    }
+
+    private String register(String login) {
+        RegisterRequest registerRequest = new RegisterRequest(login, login + "@test.test", "12345678", "12345678", LearnUser.UserRole.USER);
+        assertEquals(HttpStatus.OK, restTemplate.postForEntity("/v1/user/register", registerRequest, String.class).getStatusCode());
+        ResponseEntity<AuthorizationResponse> response = restTemplate.postForEntity("/v1/user/login", new AuthRequest(login, "12345678"), AuthorizationResponse.class);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        return response.getBody().token();
+    }
+
+    private Long insert(Long authorId, LocalDateTime sentAt, String message) {
+        return jdbcTemplate.queryForObject("INSERT INTO learn_user_messages (id, author_id, message, sent_at) VALUES (nextval('learn_user_messages_id_seq'), ?, ?, ?) RETURNING id",
+                Long.class, authorId, message, Timestamp.valueOf(sentAt));
+    }
+}
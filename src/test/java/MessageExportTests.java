@@ -0,0 +1,162 @@
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.ActiveProfiles;
+import ru.cazyx.semperante.learnProject.TestProjectApplication;
+import ru.cazyx.semperante.learnProject.dto.requests.AuthRequest;
+import ru.cazyx.semperante.learnProject.dto.requests.RegisterRequest;
+import ru.cazyx.semperante.learnProject.dto.requests.SingleValueRequest;
+import ru.cazyx.semperante.learnProject.dto.responses.AuthorizationResponse;
+import ru.cazyx.semperante.learnProject.dto.responses.MessageResponse;
+import ru.cazyx.semperante.learnProject.entities.LearnUser;
+import ru.cazyx.semperante.learnProject.entities.repositories.LearnUserRepository;
+import ru.cazyx.semperante.learnProject.services.MessageExportService;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Выгрузка сообщений в NDJSON (с курсором БД и сжатием gzip)
+ */
+@SpringBootTest(classes = TestProjectApplication.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.liquibase.enabled=false",
+        "spring.flyway.enabled=false",
+        "spring.messages-export.fetch-size=2", //Меньше, чем сообщений: курсор читается в несколько порций
+        "spring.messages-export.max-concurrent=1"
+})
+
+@ActiveProfiles("test")
+public class MessageExportTests {
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private LearnUserRepository learnUserRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MessageExportService messageExportService;
+
+    private String token;
+
+    @BeforeEach
+    public void login() {
+        RegisterRequest registerRequest = new RegisterRequest("exporter", "exporter@test.test", "12345678", "12345678", LearnUser.UserRole.ADMIN);
+        assertEquals(HttpStatus.OK, restTemplate.postForEntity("/v1/user/register", registerRequest, String.class).getStatusCode());
+        ResponseEntity<AuthorizationResponse> login = restTemplate.postForEntity("/v1/user/login", new AuthRequest("exporter", "12345678"), AuthorizationResponse.class);
+        assertEquals(HttpStatus.OK, login.getStatusCode());
+        token = login.getBody().token();
+    }
+
+    @AfterEach
+    public void cleanup() {
+        learnUserRepository.deleteAll();
+    }
+
+    @Test
+    public void testExportIsOrderedNdjson() throws IOException {
+        send("First");
+        send("Second");
+        send("Third");
+
+        ResponseEntity<byte[]> plain = export("/v1/messages/admin/export", false);
+        assertEquals(HttpStatus.OK, plain.getStatusCode());
+        assertNull(plain.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        String[] lines = new String(plain.getBody(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(3, lines.length);
+        assertEquals("First", objectMapper.readValue(lines[0], MessageResponse.class).message());
+        assertEquals("Third", objectMapper.readValue(lines[2], MessageResponse.class).message());
+
+        ResponseEntity<byte[]> gzip = export("/v1/messages/admin/export", true);
+        assertEquals(HttpStatus.OK, gzip.getStatusCode());
+        assertEquals("gzip", gzip.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip.getBody()))) {
+            assertArrayEquals(plain.getBody(), in.readAllBytes());
+        }
+    }
+
+    @Test
+    public void testExportPeriod() {
+        send("Now");
+        ResponseEntity<byte[]> future = export("/v1/messages/admin/export?since=2999-01-01T00:00:00", false);
+        assertEquals(HttpStatus.OK, future.getStatusCode());
+        assertTrue(future.getBody() == null || future.getBody().length == 0);
+
+        ResponseEntity<byte[]> invalid = export("/v1/messages/admin/export?since=2024-02-01T00:00:00&until=2024-01-01T00:00:00", false);
+        assertEquals(HttpStatus.BAD_REQUEST, invalid.getStatusCode());
+    }
+
+    @Test
+    public void testAcceptEncodingQuality() {
+        send("Encoded");
+        assertNull(contentEncoding("gzip;q=0"));
+        assertNull(contentEncoding("gzip; q=0.0, identity"));
+        assertNull(contentEncoding("identity"));
+        assertNull(contentEncoding("*;q=0.5, gzip;q=0"));
+        assertEquals("gzip", contentEncoding("br;q=1.0, gzip;q=0.5"));
+        assertEquals("gzip", contentEncoding("*;q=0.1"));
+        assertEquals("gzip", contentEncoding("GZIP"));
+    }
+
+    @Test
+    public void testExportRequiresAdmin() {
+        RegisterRequest registerRequest = new RegisterRequest("reader", "reader@test.test", "12345678", "12345678", LearnUser.UserRole.USER);
+        assertEquals(HttpStatus.OK, restTemplate.postForEntity("/v1/user/register", registerRequest, String.class).getStatusCode());
+        String userToken = restTemplate.postForEntity("/v1/user/login", new AuthRequest("reader", "12345678"), AuthorizationResponse.class).getBody().token();
+        assertEquals(HttpStatus.FORBIDDEN, export("/v1/messages/admin/export", null, userToken).getStatusCode());
+    }
+
+    private String contentEncoding(String acceptEncoding) {
+        ResponseEntity<byte[]> response = export("/v1/messages/admin/export", acceptEncoding, token);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        return response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING);
+    }
+
+    @Test
+    public void testConcurrentExportsAreLimited() {
+        send("Limited");
+        try (MessageExportService.ExportPermit ignored = messageExportService.acquirePermit()) { //Единственное разрешение занято "другой выгрузкой"
+            ResponseEntity<byte[]> rejected = export("/v1/messages/admin/export", true);
+            assertEquals(HttpStatus.SERVICE_UNAVAILABLE, rejected.getStatusCode());
+            assertNull(rejected.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        }
+        assertEquals(HttpStatus.OK, export("/v1/messages/admin/export", false).getStatusCode());
+        assertEquals(HttpStatus.OK, export("/v1/messages/admin/export", false).getStatusCode()); //Разрешение возвращается после выгрузки
+    }
+
+    private void send(String message) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Authorization", token);
+        assertEquals(HttpStatus.OK, restTemplate.postForEntity("/v1/messages", new HttpEntity<>(new SingleValueRequest<>(message), headers), String.class).getStatusCode());
+    }
+
+    private ResponseEntity<byte[]> export(String path, boolean gzip) {
+        return export(path, gzip ? "gzip" : null, token);
+    }
+
+    private ResponseEntity<byte[]> export(String path, String acceptEncoding, String token) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Authorization", token);
+        if (acceptEncoding != null) {
+            headers.set(HttpHeaders.ACCEPT_ENCODING, acceptEncoding);
+        }
+        return restTemplate.exchange(path, HttpMethod.GET, new HttpEntity<>(headers), byte[].class);
+    }
+}
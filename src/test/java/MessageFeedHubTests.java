@@ -0,0 +1,78 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.cazyx.semperante.learnProject.dto.responses.MessageEvent;
+import ru.cazyx.semperante.learnProject.services.MessageFeedHub;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Зависший клиент живой ленты не должен останавливать отправку остальным
+ */
+public class MessageFeedHubTests {
+    private final MessageFeedHub hub = new MessageFeedHub(16, MessageFeedHub.OverflowPolicy.DISCONNECT, 1, 60_000, 200, 3600, false);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    public void shutdown() {
+        release.countDown();
+        hub.shutdown();
+    }
+
+    @Test
+    public void testStalledSubscriberIsDisconnectedAndOthersStillReceive() throws InterruptedException {
+        hub.start();
+        AtomicInteger stalledSends = new AtomicInteger();
+        hub.subscribe(new SseEmitter() { //Клиент, который перестал читать: отправка висит
+            @Override
+            public void send(SseEventBuilder builder) throws IOException {
+                stalledSends.incrementAndGet();
+                try {
+                    release.await();
+                }
+                catch (InterruptedException ex) {
+                    throw new IOException(ex);
+                }
+            }
+        });
+        hub.broadcast(event(1L));
+        assertTrue(waitFor(() -> stalledSends.get() == 1)); //Единственный поток отправки занят зависшим клиентом
+
+        CountDownLatch delivered = new CountDownLatch(2);
+        hub.subscribe(new SseEmitter() {
+            @Override
+            public void send(SseEventBuilder builder) {
+                delivered.countDown();
+            }
+        });
+        hub.broadcast(event(2L)); //Второй клиент получает событие на временном потоке, когда первого отключат по таймауту
+        assertTrue(waitFor(() -> delivered.getCount() == 1));
+        assertEquals(1, hub.timedOutCount());
+        assertEquals(1, hub.subscribersCount());
+
+        hub.broadcast(event(3L));
+        assertTrue(delivered.await(2, TimeUnit.SECONDS));
+        assertEquals(1, stalledSends.get()); //Отключенному по таймауту больше ничего не отправляется
+    }
+
+    private static MessageEvent event(Long id) {
+        return new MessageEvent(MessageEvent.EventType.DELETED, id, null);
+    }
+
+    private static boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,98 @@
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.ActiveProfiles;
+import ru.cazyx.semperante.learnProject.TestProjectApplication;
+import ru.cazyx.semperante.learnProject.dto.requests.AuthRequest;
+import ru.cazyx.semperante.learnProject.dto.requests.RegisterRequest;
+import ru.cazyx.semperante.learnProject.dto.requests.SingleValueRequest;
+import ru.cazyx.semperante.learnProject.dto.responses.AuthorizationResponse;
+import ru.cazyx.semperante.learnProject.dto.responses.MessageEvent;
+import ru.cazyx.semperante.learnProject.entities.LearnUser;
+import ru.cazyx.semperante.learnProject.entities.repositories.LearnUserRepository;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * События ленты между экземплярами: массовая отправка доходит до слушателей LISTEN, по уведомлению на сообщение
+ */
+@SpringBootTest(classes = TestProjectApplication.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.liquibase.enabled=false",
+        "spring.flyway.enabled=false",
+        "spring.message-feed.pg-notify=true"
+})
+
+@ActiveProfiles("test")
+public class MessageFeedNotifierTests {
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private LearnUserRepository learnUserRepository;
+
+    @Autowired
+    private DataSourceProperties dataSourceProperties;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private String token;
+
+    @BeforeEach
+    public void login() {
+        RegisterRequest registerRequest = new RegisterRequest("notifier", "notifier@test.test", "12345678", "12345678", LearnUser.UserRole.USER);
+        assertEquals(HttpStatus.OK, restTemplate.postForEntity("/v1/user/register", registerRequest, String.class).getStatusCode());
+        token = restTemplate.postForEntity("/v1/user/login", new AuthRequest("notifier", "12345678"), AuthorizationResponse.class).getBody().token();
+    }
+
+    @AfterEach
+    public void cleanup() {
+        learnUserRepository.deleteAll();
+    }
+
+    @Test
+    public void testBatchIsDeliveredAfterCommit() throws Exception {
+        try (Connection con = DriverManager.getConnection(dataSourceProperties.determineUrl(),
+                dataSourceProperties.determineUsername(), dataSourceProperties.determinePassword())) {
+            try (Statement st = con.createStatement()) {
+                st.execute("LISTEN learn_messages");
+            }
+            List<String> batch = IntStream.range(0, 50).mapToObj(i -> "Batch " + i).toList();
+            HttpHeaders headers = new HttpHeaders();
+            headers.set("Authorization", token);
+            assertEquals(HttpStatus.OK, restTemplate.postForEntity("/v1/messages/batch", new HttpEntity<>(new SingleValueRequest<>(batch), headers), String.class).getStatusCode());
+
+            List<MessageEvent> received = new ArrayList<>();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (received.size() < batch.size() && System.currentTimeMillis() < deadline) {
+                PGNotification[] notifications = con.unwrap(PGConnection.class).getNotifications(500);
+                if (notifications != null) {
+                    for (PGNotification notification : notifications) {
+                        received.add(objectMapper.readValue(notification.getParameter(), MessageEvent.class));
+                    }
+                }
+            }
+            assertEquals(batch.size(), received.size());
+            assertEquals(batch, received.stream().map(event -> event.message().message()).toList());
+        }
+    }
+}
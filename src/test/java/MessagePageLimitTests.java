@@ -0,0 +1,85 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.ActiveProfiles;
+import ru.cazyx.semperante.learnProject.TestProjectApplication;
+import ru.cazyx.semperante.learnProject.dto.requests.AuthRequest;
+import ru.cazyx.semperante.learnProject.dto.requests.RegisterRequest;
+import ru.cazyx.semperante.learnProject.dto.requests.SingleValueRequest;
+import ru.cazyx.semperante.learnProject.dto.responses.AuthorizationResponse;
+import ru.cazyx.semperante.learnProject.entities.LearnUser;
+import ru.cazyx.semperante.learnProject.entities.repositories.LearnUserRepository;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Размер страницы в списках сообщений: вне 1..100 - 400, а не 500 или чтение всей таблицы
+ */
+@SpringBootTest(classes = TestProjectApplication.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.liquibase.enabled=false",
+        "spring.flyway.enabled=false"
+})
+
+@ActiveProfiles("test")
+public class MessagePageLimitTests {
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private LearnUserRepository learnUserRepository;
+
+    private String token;
+
+    @BeforeEach
+    public void login() {
+        RegisterRequest registerRequest = new RegisterRequest("limits", "limits@test.test", "12345678", "12345678", LearnUser.UserRole.USER);
+        assertEquals(HttpStatus.OK, restTemplate.postForEntity("/v1/user/register", registerRequest, String.class).getStatusCode());
+        ResponseEntity<AuthorizationResponse> login = restTemplate.postForEntity("/v1/user/login", new AuthRequest("limits", "12345678"), AuthorizationResponse.class);
+        assertEquals(HttpStatus.OK, login.getStatusCode());
+        token = login.getBody().token();
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Authorization", token);
+        assertEquals(HttpStatus.OK, restTemplate.postForEntity("/v1/messages", new HttpEntity<>(new SingleValueRequest<>("Limit message"), headers), String.class).getStatusCode());
+    }
+
+    @AfterEach
+    public void cleanup() {
+        learnUserRepository.deleteAll();
+    }
+
+    @Test
+    public void testCursorLimitIsValidated() {
+        for (String path : new String[]{"/v1/messages/cursor", "/v1/messages/me", "/v1/messages/by/limits", "/v1/messages", "/v1/messages/slice"}) {
+            assertEquals(HttpStatus.BAD_REQUEST, get(path + "?limit=0").getStatusCode(), path);
+            assertEquals(HttpStatus.BAD_REQUEST, get(path + "?limit=-1").getStatusCode(), path);
+            assertEquals(HttpStatus.BAD_REQUEST, get(path + "?limit=1000000").getStatusCode(), path);
+            assertEquals(HttpStatus.OK, get(path + "?limit=1").getStatusCode(), path);
+            assertEquals(HttpStatus.OK, get(path + "?limit=100").getStatusCode(), path);
+        }
+        assertEquals(HttpStatus.BAD_REQUEST, get("/v1/messages?page=-1").getStatusCode());
+    }
+
+    @Test
+    public void testSearchLimitIsValidated() {
+        assertEquals(HttpStatus.BAD_REQUEST, get("/v1/messages/search?q=limit&limit=0").getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, get("/v1/messages/search?q=limit&limit=-5").getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, get("/v1/messages/search?q=limit&limit=101").getStatusCode());
+        //Успешный поиск - в MessagePartitionMaintenanceTests: в схеме Hibernate нет колонки message_tsv из миграции V7
+    }
+
+    private ResponseEntity<String> get(String path) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Authorization", token);
+        return restTemplate.exchange(path, HttpMethod.GET, new HttpEntity<>(headers), String.class);
+    }
+}
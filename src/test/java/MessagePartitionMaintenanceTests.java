@@ -0,0 +1,256 @@
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import ru.cazyx.semperante.learnProject.TestProjectApplication;
+import ru.cazyx.semperante.learnProject.dto.responses.CursorPageResponse;
+import ru.cazyx.semperante.learnProject.dto.responses.MessageResponse;
+import ru.cazyx.semperante.learnProject.dto.responses.MessageSearchResponse;
+import ru.cazyx.semperante.learnProject.services.MessageCounter;
+import ru.cazyx.semperante.learnProject.services.MessagePartitionMaintenance;
+import ru.cazyx.semperante.learnProject.services.MessageService;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Обслуживание секций сообщений на схеме из миграций Flyway (V10), а не Hibernate.
+ * Здесь же - полнотекстовый поиск: столбец message_tsv и его индекс есть только в миграциях.
+ * <p>
+ * Схема своя (partitions_it), чтобы не мешать тестам со схемой от Hibernate в той же БД, и пересоздается перед каждым тестом.
+ * Обслуживание по расписанию выключено, тесты запускают его сами
+ */
+@SpringBootTest(classes = TestProjectApplication.class, properties = {
+        "spring.jpa.hibernate.ddl-auto=none",
+        "spring.liquibase.enabled=false",
+        "spring.flyway.enabled=true",
+        "spring.flyway.default-schema=partitions_it",
+        "spring.flyway.schemas=partitions_it",
+        "spring.flyway.clean-disabled=false",
+        "spring.datasource.hikari.schema=partitions_it",
+        "spring.message-partitions.enabled=false"
+})
+
+@ActiveProfiles("test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class MessagePartitionMaintenanceTests {
+    private static final String PREFIX = "learn_user_messages_p";
+    private static final DateTimeFormatter SUFFIX = DateTimeFormatter.ofPattern("yyyyMM");
+    private static final long LOCK_KEY = 7_416_002L;
+
+    @Autowired
+    private Flyway flyway;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private MessageService messageService;
+
+    @Autowired
+    private MessageCounter messageCounter;
+
+    private Long authorId;
+
+    @BeforeEach
+    public void migrate() {
+        flyway.clean();
+        flyway.migrate();
+        authorId = jdbcTemplate.queryForObject("INSERT INTO learn_users (login, email, password_digest) VALUES ('parts', 'parts@test.test', '-') RETURNING id", Long.class);
+    }
+
+    @AfterAll
+    public void cleanup() {
+        flyway.clean();
+    }
+
+    @Test
+    public void testMigrationAndMaintenanceCreatePartitionsAhead() {
+        YearMonth current = YearMonth.now();
+        List<String> partitions = partitions();
+        for (int i = 0; i <= 3; i++) { //V10 создает секции на 3 месяца вперед
+            assertTrue(partitions.contains(partition(current.plusMonths(i))), "Missing " + partition(current.plusMonths(i)));
+        }
+        assertTrue(partitions.contains("learn_user_messages_default"));
+
+        jdbcTemplate.execute("DROP TABLE " + partition(current.plusMonths(2)));
+        MessagePartitionMaintenance.MaintenanceResult result = maintenance(5, 0).maintain();
+        assertTrue(result.executed());
+        assertTrue(result.dropped().isEmpty());
+        assertEquals(List.of(partition(current.plusMonths(2)), partition(current.plusMonths(4)), partition(current.plusMonths(5))), result.created());
+        assertTrue(partitions().contains(partition(current.plusMonths(5))));
+
+        assertTrue(maintenance(5, 0).maintain().created().isEmpty()); //Повторный запуск ничего не создает
+    }
+
+    @Test
+    public void testRetentionDropsOnlyExpiredMonthlyPartitions() {
+        YearMonth current = YearMonth.now();
+        for (int i = 1; i <= 5; i++) {
+            createPartition(current.minusMonths(i));
+        }
+        jdbcTemplate.execute("CREATE TABLE learn_user_messages_archive PARTITION OF learn_user_messages FOR VALUES FROM ('1990-01-01') TO ('1991-01-01')");
+        insert(current.minusMonths(5).atDay(10).atStartOfDay(), "Expired");
+        insert(current.minusMonths(2).atDay(10).atStartOfDay(), "Kept");
+        insert(LocalDateTime.of(2000, 1, 1, 0, 0), "In default");
+        insert(LocalDateTime.of(1990, 6, 1, 0, 0), "In archive");
+        jdbcTemplate.execute("ANALYZE learn_user_messages"); //Количество в кэше - оценка из статистики секций
+        messageCounter.refresh();
+        assertEquals(4, messageCounter.count(MessageCounter.TotalMode.CACHED));
+        String etag = messageService.messagesEtag();
+
+        MessagePartitionMaintenance.MaintenanceResult result = maintenance(3, 2).maintain();
+        assertTrue(result.executed());
+        assertEquals(List.of(partition(current.minusMonths(5)), partition(current.minusMonths(4)), partition(current.minusMonths(3))),
+                result.dropped().stream().sorted().toList());
+
+        List<String> partitions = partitions();
+        assertTrue(partitions.contains(partition(current.minusMonths(2))));
+        assertTrue(partitions.contains(partition(current.minusMonths(1))));
+        assertTrue(partitions.contains("learn_user_messages_default"));
+        assertTrue(partitions.contains("learn_user_messages_archive"));
+        assertEquals(List.of("In archive", "In default", "Kept"),
+                jdbcTemplate.queryForList("SELECT message FROM learn_user_messages ORDER BY message", String.class));
+
+        assertNotEquals(etag, messageService.messagesEtag()); //Сообщения ушли вместе с секцией - ETag и количество обновились
+        assertEquals(3, messageCounter.count(MessageCounter.TotalMode.CACHED));
+    }
+
+    @Test
+    public void testSkippedWhileAnotherSessionHoldsLock() throws Exception {
+        YearMonth current = YearMonth.now();
+        createPartition(current.minusMonths(6));
+        jdbcTemplate.execute("DROP TABLE " + partition(current.plusMonths(3)));
+        try (Connection other = dataSource.getConnection()) {
+            try (Statement st = other.createStatement()) {
+                st.execute("SELECT pg_advisory_lock(" + LOCK_KEY + ")");
+            }
+            try {
+                MessagePartitionMaintenance.MaintenanceResult result = maintenance(3, 1).maintain();
+                assertFalse(result.executed());
+                List<String> partitions = partitions();
+                assertTrue(partitions.contains(partition(current.minusMonths(6))));
+                assertFalse(partitions.contains(partition(current.plusMonths(3))));
+            }
+            finally {
+                try (Statement st = other.createStatement()) {
+                    st.execute("SELECT pg_advisory_unlock(" + LOCK_KEY + ")");
+                }
+            }
+        }
+        assertTrue(maintenance(3, 1).maintain().executed()); //Блокировка отпущена - обслуживание снова выполняется
+    }
+
+    @Test
+    public void testKeysetPagesCrossMonthBoundary() {
+        YearMonth current = YearMonth.now();
+        createPartition(current.minusMonths(1));
+        LocalDateTime boundary = current.atDay(1).atStartOfDay();
+        List<Long> expected = new ArrayList<>(); //В порядке ленты: sent_at DESC, id DESC
+        expected.add(insert(boundary.plusSeconds(1), "After boundary"));
+        Long sameTimeFirst = insert(boundary, "On boundary 1");
+        Long sameTimeSecond = insert(boundary, "On boundary 2");
+        expected.add(sameTimeSecond);
+        expected.add(sameTimeFirst);
+        Long lastOfPreviousFirst = insert(boundary.minusNanos(1000), "Before boundary 1");
+        Long lastOfPreviousSecond = insert(boundary.minusNanos(1000), "Before boundary 2");
+        expected.add(lastOfPreviousSecond);
+        expected.add(lastOfPreviousFirst);
+        expected.add(insert(boundary.minusDays(10), "Previous month"));
+
+        List<Long> read = new ArrayList<>();
+        String cursor = null;
+        do {
+            CursorPageResponse<MessageResponse> page = messageService.getMessagesByCursor(2, cursor);
+            page.items().forEach(message -> read.add(message.id()));
+            cursor = page.nextCursor();
+        }
+        while (cursor != null);
+        assertEquals(expected, read);
+    }
+
+    @Test
+    public void testSearchRanksAndPagesWithoutGapsOrDuplicates() {
+        LocalDateTime now = LocalDateTime.now();
+        //Искомые слова - строчными: у тестовой БД может быть локаль C, в которой PostgreSQL не приводит кириллицу к нижнему регистру
+        Long best = insert(now, "кошка, кошка и ещё раз кошка");
+        List<Long> ties = new ArrayList<>(); //Одинаковая релевантность - порядок по id DESC
+        for (int i = 0; i < 5; i++) {
+            ties.add(0, insert(now, "кошка номер " + i));
+        }
+        Long middle = insert(now, "кошка и снова кошка");
+        insert(now, "просто собака");
+
+        List<Long> expected = new ArrayList<>(List.of(best, middle)); //Больше вхождений - выше
+        expected.addAll(ties);
+        List<Long> all = messageService.searchMessages("кошки", 100, null).items().stream().map(hit -> hit.message().id()).toList();
+        assertEquals(expected, all);
+
+        List<Long> paged = new ArrayList<>();
+        String cursor = null;
+        do {
+            CursorPageResponse<MessageSearchResponse> page = messageService.searchMessages("кошки", 3, cursor);
+            page.items().forEach(hit -> paged.add(hit.message().id()));
+            cursor = page.nextCursor();
+        }
+        while (cursor != null);
+        assertEquals(expected, paged); //Страницы по курсору - тот же порядок, без пропусков и повторов
+    }
+
+    @Test
+    public void testSearchSnippetIsEscapedHtml() {
+        String message = "<script>alert(1)</script> Моя кошка <img src=x onerror=alert(1)> спит & \"мурчит\" 'тихо'";
+        insert(LocalDateTime.now(), message);
+
+        List<MessageSearchResponse> hits = messageService.searchMessages("кошки", 10, null).items();
+        assertEquals(1, hits.size());
+        assertEquals(message, hits.get(0).message().message()); //Само сообщение - как есть, обычный текст
+        String snippet = hits.get(0).snippet();
+        assertTrue(snippet.contains("<mark>кошка</mark>"), snippet);
+        String withoutMarks = snippet.replace("<mark>", "").replace("</mark>", "");
+        assertFalse(withoutMarks.contains("<") || withoutMarks.contains(">"), snippet); //Других тегов нет
+        assertTrue(snippet.contains("&lt;/script&gt;"), snippet); //Начало фрагмента может быть отрезано по границе слова
+        assertTrue(snippet.contains("&lt;img"), snippet);
+        assertTrue(snippet.contains("&amp;") && snippet.contains("&quot;") && snippet.contains("&#39;"), snippet);
+    }
+
+    private MessagePartitionMaintenance maintenance(int monthsAhead, int retentionMonths) {
+        return new MessagePartitionMaintenance(jdbcTemplate, messageService, messageCounter, true, monthsAhead, retentionMonths, 2000);
+    }
+
+    private Long insert(LocalDateTime sentAt, String message) {
+        return jdbcTemplate.queryForObject("INSERT INTO learn_user_messages (author_id, message, sent_at) VALUES (?, ?, ?) RETURNING id",
+                Long.class, authorId, message, Timestamp.valueOf(sentAt));
+    }
+
+    private void createPartition(YearMonth month) {
+        LocalDate from = month.atDay(1);
+        jdbcTemplate.execute("CREATE TABLE " + partition(month) + " PARTITION OF learn_user_messages FOR VALUES FROM ('" + from + "') TO ('" + from.plusMonths(1) + "')");
+    }
+
+    private List<String> partitions() {
+        return jdbcTemplate.queryForList("SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid WHERE i.inhparent = 'learn_user_messages'::regclass", String.class);
+    }
+
+    private static String partition(YearMonth month) {
+        return PREFIX + month.format(SUFFIX);
+    }
+}
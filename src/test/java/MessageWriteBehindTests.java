@@ -0,0 +1,153 @@
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.server.ResponseStatusException;
+import ru.cazyx.semperante.learnProject.config.datasource.ReplicaRoutingDataSource;
+import ru.cazyx.semperante.learnProject.config.filters.AuthorizedUser;
+import ru.cazyx.semperante.learnProject.dto.responses.MessageResponse;
+import ru.cazyx.semperante.learnProject.entities.LearnUser;
+import ru.cazyx.semperante.learnProject.services.MessageService;
+import ru.cazyx.semperante.learnProject.services.MessageWriteBehind;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+/**
+ * Проверка группового коммита сообщений. Сервис сообщений - заглушка, которая раздает ИД по порядку
+ */
+public class MessageWriteBehindTests {
+    private static final int CLIENTS = 20;
+
+    private final AtomicLong ids = new AtomicLong();
+    private MessageWriteBehind writeBehind;
+
+    @AfterEach
+    public void cleanup() throws InterruptedException {
+        writeBehind.stop();
+    }
+
+    @Test
+    public void testConcurrentMessagesAreCommittedInGroups() throws Exception {
+        MessageService messageService = mockMessageService();
+        writeBehind = start(messageService);
+
+        List<Future<MessageResponse>> futures = new ArrayList<>();
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        try {
+            for (int i = 0; i < CLIENTS; i++) {
+                long userId = i;
+                futures.add(clients.submit(() -> {
+                    login(userId);
+                    return writeBehind.create("Message " + userId);
+                }));
+            }
+            Set<Long> received = new HashSet<>();
+            for (Future<MessageResponse> future : futures) {
+                received.add(future.get().id());
+            }
+            assertEquals(CLIENTS, received.size()); //Каждый получил свой ИД
+        }
+        finally {
+            clients.shutdownNow();
+        }
+        //Сообщения, пришедшие одновременно, сохраняются меньшим количеством транзакций
+        verify(messageService, atMost(CLIENTS - 1)).createForAuthors(anyList(), anyList());
+    }
+
+    @Test
+    public void testFailedGroupIsSavedOneByOne() {
+        MessageService messageService = mockMessageService();
+        doThrow(new IllegalStateException("Group failed"))
+                .doAnswer(invocation -> save(invocation.getArgument(0), invocation.getArgument(1)))
+                .when(messageService).createForAuthors(anyList(), anyList());
+        writeBehind = start(messageService);
+
+        login(1L);
+        assertEquals("Hello", writeBehind.create("Hello").message());
+        verify(messageService, times(2)).createForAuthors(anyList(), anyList());
+    }
+
+    @Test
+    public void testAckTimeout() throws Exception {
+        MessageService messageService = mockMessageService();
+        CountDownLatch inFlight = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> { //Первая группа зависает в транзакции
+            inFlight.countDown();
+            release.await();
+            return save(invocation.getArgument(0), invocation.getArgument(1));
+        }).doAnswer(invocation -> save(invocation.getArgument(0), invocation.getArgument(1)))
+                .when(messageService).createForAuthors(anyList(), anyList());
+        writeBehind = start(messageService, 200);
+
+        ExecutorService clients = Executors.newSingleThreadExecutor();
+        try {
+            Future<MessageResponse> claimed = clients.submit(() -> {
+                login(1L);
+                return writeBehind.create("In flight");
+            });
+            assertTrue(inFlight.await(2, TimeUnit.SECONDS));
+            assertNull(claimed.get()); //Сообщение уже в транзакции - не 503, повторять нельзя
+
+            login(2L);
+            ResponseStatusException ex = assertThrows(ResponseStatusException.class, () -> writeBehind.create("Still queued"));
+            assertEquals(HttpStatus.SERVICE_UNAVAILABLE, ex.getStatus()); //Ещё в очереди - снято и не сохранится
+        }
+        finally {
+            release.countDown();
+            clients.shutdownNow();
+        }
+        login(3L);
+        assertEquals("After", writeBehind.create("After").message());
+        verify(messageService, never()).createForAuthors(anyList(), eq(List.of("Still queued")));
+    }
+
+    private MessageService mockMessageService() {
+        MessageService messageService = mock(MessageService.class);
+        when(messageService.createForAuthors(anyList(), anyList()))
+                .thenAnswer(invocation -> save(invocation.getArgument(0), invocation.getArgument(1)));
+        return messageService;
+    }
+
+    private static MessageWriteBehind start(MessageService messageService) {
+        return start(messageService, 5000);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static MessageWriteBehind start(MessageService messageService, long ackTimeoutMillis) {
+        ObjectProvider<ReplicaRoutingDataSource> routing = mock(ObjectProvider.class);
+        MessageWriteBehind writeBehind = new MessageWriteBehind(messageService, routing, new SimpleMeterRegistry(), true, 100, 50, 50, ackTimeoutMillis);
+        writeBehind.start();
+        return writeBehind;
+    }
+
+    private List<MessageResponse> save(List<AuthorizedUser> authors, List<String> messages) {
+        List<MessageResponse> saved = new ArrayList<>();
+        for (int i = 0; i < messages.size(); i++) {
+            saved.add(new MessageResponse(ids.incrementAndGet(), messages.get(i), new Timestamp(System.currentTimeMillis()), authors.get(i).login(), authors.get(i).role()));
+        }
+        return saved;
+    }
+
+    private static void login(Long id) {
+        AuthorizedUser user = new AuthorizedUser(id, "user" + id, LearnUser.UserRole.USER, 0);
+        SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(user, null, user.authorities()));
+    }
+}
@@ -0,0 +1,25 @@
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import ru.cazyx.semperante.learnProject.config.PasswordHasher;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Перехэширование при входе: только если хэш дешевле настроенного, иначе узлы с разной калибровкой перезаписывали бы его по кругу
+ */
+public class PasswordHasherTests {
+    private final PasswordHasher hasher = new PasswordHasher(10, 0, 10, 1, 4, new SimpleMeterRegistry());
+
+    @AfterEach
+    public void shutdown() {
+        hasher.shutdown();
+    }
+
+    @Test
+    public void testOnlyCheaperDigestNeedsRehash() {
+        assertTrue(hasher.needsRehash("$2a$08$" + "a".repeat(53)));
+        assertFalse(hasher.needsRehash(hasher.encode("12345678")));
+        assertFalse(hasher.needsRehash("$2a$12$" + "a".repeat(53))); //Хэш с другого, более мощного узла остается как есть
+    }
+}
@@ -0,0 +1,23 @@
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import ru.cazyx.semperante.learnProject.TestProjectApplication;
+
+/**
+ * Замер {@link RequestExecutionBenchmark} на обычном пуле потоков Tomcat
+ */
+@SpringBootTest(classes = TestProjectApplication.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.liquibase.enabled=false",
+        "spring.flyway.enabled=false",
+        "spring.jpa.show-sql=false",
+        "spring.virtual-request-threads.enabled=false"
+})
+
+@ActiveProfiles("test")
+public class PlatformThreadsBenchmark extends RequestExecutionBenchmark {
+
+    @Override
+    protected String mode() {
+        return "platform-threads";
+    }
+}
@@ -0,0 +1,53 @@
+import com.zaxxer.hikari.HikariDataSource;
+import io.r2dbc.spi.ConnectionFactory;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import ru.cazyx.semperante.learnProject.TestProjectApplication;
+import ru.cazyx.semperante.learnProject.config.datasource.ReplicaRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Без реплик приложение поднимает пул JDBC из spring.datasource рядом с R2DBC (R2DBC выключает автоконфигурацию пула JDBC)
+ */
+@SpringBootTest(classes = TestProjectApplication.class, properties = {
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.liquibase.enabled=false",
+        "spring.flyway.enabled=false",
+        "spring.replicas.enabled=false"
+})
+
+@ActiveProfiles("test")
+public class PrimaryDataSourceTests {
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ConnectionFactory connectionFactory;
+
+    @Test
+    public void testJdbcPoolExistsNextToR2dbc() {
+        assertInstanceOf(HikariDataSource.class, dataSource);
+        assertEquals(1, jdbcTemplate.queryForObject("SELECT 1", Integer.class));
+        assertNotNull(connectionFactory);
+    }
+
+    @Test
+    public void testReplicaHealthCheckRunsOnPostgres() {
+        //Основная БД в роли "реплики": запрос отставания должен выполняться на настоящем PostgreSQL, и не-реплика не отстает
+        ReplicaRoutingDataSource routing = new ReplicaRoutingDataSource(dataSource, Map.of("self", dataSource), 0, 1000);
+        routing.checkReplicas();
+        assertEquals(List.of("self"), routing.healthyReplicas());
+    }
+}
@@ -0,0 +1,33 @@
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.metrics.AutoConfigureMetrics;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.ActiveProfiles;
+import ru.cazyx.semperante.learnProject.TestProjectApplication;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * С spring.prometheus-endpoint.public=true метрики Prometheus отдаются без авторизации
+ */
+@SpringBootTest(classes = TestProjectApplication.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.liquibase.enabled=false",
+        "spring.flyway.enabled=false",
+        "spring.prometheus-endpoint.public=true"
+})
+
+@ActiveProfiles("test")
+@AutoConfigureMetrics
+public class PrometheusEndpointPublicTests {
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Test
+    public void testMetricsArePublicWhenEnabled() {
+        assertEquals(HttpStatus.OK, PrometheusEndpointSecurityTests.scrape(restTemplate, null).getStatusCode());
+    }
+}
@@ -0,0 +1,69 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.metrics.AutoConfigureMetrics;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.ActiveProfiles;
+import ru.cazyx.semperante.learnProject.TestProjectApplication;
+import ru.cazyx.semperante.learnProject.dto.requests.AuthRequest;
+import ru.cazyx.semperante.learnProject.dto.requests.RegisterRequest;
+import ru.cazyx.semperante.learnProject.dto.responses.AuthorizationResponse;
+import ru.cazyx.semperante.learnProject.entities.LearnUser;
+import ru.cazyx.semperante.learnProject.entities.repositories.LearnUserRepository;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Метрики Prometheus по-умолчанию доступны только администратору
+ */
+@SpringBootTest(classes = TestProjectApplication.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.liquibase.enabled=false",
+        "spring.flyway.enabled=false"
+})
+
+@ActiveProfiles("test")
+@AutoConfigureMetrics //В тестах выгрузка метрик по-умолчанию выключена, и /actuator/prometheus не существует
+public class PrometheusEndpointSecurityTests {
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private LearnUserRepository learnUserRepository;
+
+    @AfterEach
+    public void cleanup() {
+        learnUserRepository.deleteAll();
+    }
+
+    @Test
+    public void testOnlyAdminReadsMetricsByDefault() {
+        assertNotEquals(HttpStatus.OK, scrape(restTemplate, null).getStatusCode());
+        assertEquals(HttpStatus.FORBIDDEN, scrape(restTemplate, registerAndLogin("metricsUser", LearnUser.UserRole.USER)).getStatusCode());
+
+        ResponseEntity<String> response = scrape(restTemplate, registerAndLogin("metricsAdmin", LearnUser.UserRole.ADMIN));
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertTrue(response.getBody().contains("hikaricp_connections"));
+    }
+
+    static ResponseEntity<String> scrape(TestRestTemplate restTemplate, String token) {
+        HttpHeaders headers = new HttpHeaders();
+        if (token != null) {
+            headers.set("Authorization", token);
+        }
+        return restTemplate.exchange("/actuator/prometheus", HttpMethod.GET, new HttpEntity<>(headers), String.class);
+    }
+
+    private String registerAndLogin(String login, LearnUser.UserRole role) {
+        RegisterRequest registerRequest = new RegisterRequest(login, login + "@test.test", "12345678", "12345678", role);
+        assertEquals(HttpStatus.OK, restTemplate.postForEntity("/v1/user/register", registerRequest, String.class).getStatusCode());
+        return restTemplate.postForEntity("/v1/user/login", new AuthRequest(login, "12345678"), AuthorizationResponse.class).getBody().token();
+    }
+}
@@ -0,0 +1,189 @@
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.StreamUtils;
+import ru.cazyx.semperante.learnProject.config.ratelimit.LocalTokenBuckets;
+import ru.cazyx.semperante.learnProject.config.ratelimit.RateLimitFilter;
+import ru.cazyx.semperante.learnProject.config.ratelimit.RateLimitProperties;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Проверка ограничения частоты входа. Время подменяется, поэтому долив корзин проверяется без ожидания
+ */
+public class RateLimitFilterTests {
+    private final AtomicLong nanos = new AtomicLong();
+    private LocalTokenBuckets buckets;
+    private RateLimitFilter filter;
+
+    @BeforeEach
+    public void setUp() {
+        RateLimitProperties properties = new RateLimitProperties();
+        properties.setIp(new RateLimitProperties.Limit(10, 60));
+        properties.setLogin(new RateLimitProperties.Limit(3, 60));
+        buckets = new LocalTokenBuckets(4, 1000, nanos::get);
+        filter = new RateLimitFilter(buckets, properties, new ObjectMapper(), new SimpleMeterRegistry());
+    }
+
+    @Test
+    public void testLoginIsLimitedAcrossIps() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            assertEquals(HttpStatus.OK.value(), login("10.0.0." + i, "Victim").getStatus());
+        }
+        //Тот же логин в другом регистре и с нового IP - всё равно та же корзина
+        MockHttpServletResponse rejected = login("10.0.0.100", "VICTIM");
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS.value(), rejected.getStatus());
+        assertEquals("1", rejected.getHeader("Retry-After"));
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(1)); //60 в минуту - через секунду появляется токен
+        assertEquals(HttpStatus.OK.value(), login("10.0.0.100", "victim").getStatus());
+    }
+
+    @Test
+    public void testIpIsLimitedPerRoute() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            assertEquals(HttpStatus.OK.value(), refresh("10.0.0.1").getStatus());
+        }
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS.value(), refresh("10.0.0.1").getStatus());
+        assertEquals(HttpStatus.OK.value(), refresh("10.0.0.2").getStatus());
+        assertEquals(HttpStatus.OK.value(), login("10.0.0.1", "user").getStatus()); //У входа своя корзина IP
+    }
+
+    @Test
+    public void testBodyIsPassedToController() throws Exception {
+        MockHttpServletRequest request = post("/v1/user/login", "10.0.0.1", "{\"login\":\"user\",\"password\":\"12345678\"}");
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(request, new MockHttpServletResponse(), chain);
+        String body = StreamUtils.copyToString(chain.getRequest().getInputStream(), StandardCharsets.UTF_8);
+        assertEquals("{\"login\":\"user\",\"password\":\"12345678\"}", body);
+    }
+
+    @Test
+    public void testBodyIsReadableWithReadListener() throws Exception {
+        for (String body : new String[]{"{\"login\":\"user\",\"password\":\"12345678\"}",
+                "{\"login\":\"user\",\"password\":\"" + "x".repeat(20_000) + "\"}"}) { //Короче и длиннее прочитанного фильтром начала
+            AsyncInputStream source = new AsyncInputStream(body.getBytes(StandardCharsets.UTF_8));
+            MockHttpServletRequest request = new MockHttpServletRequest("POST", "/v1/user/login") {
+                @Override
+                public ServletInputStream getInputStream() {
+                    return source;
+                }
+            };
+            request.setRemoteAddr("10.0.0.1");
+            MockFilterChain chain = new MockFilterChain();
+            filter.doFilter(request, new MockHttpServletResponse(), chain);
+
+            ServletInputStream in = chain.getRequest().getInputStream();
+            ByteArrayOutputStream read = new ByteArrayOutputStream();
+            AtomicBoolean allRead = new AtomicBoolean();
+            in.setReadListener(new ReadListener() {
+                @Override
+                public void onDataAvailable() throws IOException {
+                    byte[] buffer = new byte[4096];
+                    int n;
+                    while (in.isReady() && (n = in.read(buffer)) >= 0) {
+                        read.write(buffer, 0, n);
+                    }
+                }
+
+                @Override
+                public void onAllDataRead() {
+                    allRead.set(true);
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    fail(t);
+                }
+            });
+            source.deliver(); //Как контейнер: уведомления приходят в слушатель исходного потока
+            assertTrue(allRead.get());
+            assertTrue(in.isFinished());
+            assertEquals(body, read.toString(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testBucketsAreBounded() throws Exception {
+        for (int i = 0; i < 5000; i++) {
+            refresh("10.1." + (i / 256) + "." + (i % 256));
+        }
+        assertTrue(buckets.size() <= 1000, "Buckets: " + buckets.size());
+    }
+
+    private MockHttpServletResponse login(String ip, String login) throws Exception {
+        return execute(post("/v1/user/login", ip, "{\"login\":\"" + login + "\",\"password\":\"wrong-password\"}"));
+    }
+
+    private MockHttpServletResponse refresh(String ip) throws Exception {
+        return execute(post("/v1/user/refresh-token", ip, ""));
+    }
+
+    private MockHttpServletResponse execute(MockHttpServletRequest request) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain());
+        return response;
+    }
+
+    private static MockHttpServletRequest post(String path, String ip, String body) {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", path);
+        request.setRemoteAddr(ip);
+        request.setContentType("application/json");
+        request.setContent(body.getBytes(StandardCharsets.UTF_8));
+        return request;
+    }
+
+    /**
+     * Поток тела с неблокирующим чтением, уведомления слушателю отправляет тест
+     */
+    private static final class AsyncInputStream extends ServletInputStream {
+        private final ByteArrayInputStream data;
+        private ReadListener listener;
+
+        private AsyncInputStream(byte[] body) {
+            this.data = new ByteArrayInputStream(body);
+        }
+
+        private void deliver() throws IOException {
+            if (data.available() > 0) {
+                listener.onDataAvailable();
+            }
+            listener.onAllDataRead();
+        }
+
+        @Override
+        public int read() {
+            return data.read();
+        }
+
+        @Override
+        public boolean isFinished() {
+            return data.available() == 0;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener) {
+            this.listener = readListener;
+        }
+    }
+}
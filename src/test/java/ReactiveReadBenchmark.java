@@ -0,0 +1,29 @@
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import ru.cazyx.semperante.learnProject.TestProjectApplication;
+
+/**
+ * Замер {@link RequestExecutionBenchmark} на реактивном чтении через R2DBC (обычные потоки Tomcat).
+ * Сравнивать с {@link PlatformThreadsBenchmark} - там тот же запрос через JPA
+ */
+@SpringBootTest(classes = TestProjectApplication.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.liquibase.enabled=false",
+        "spring.flyway.enabled=false",
+        "spring.jpa.show-sql=false",
+        "spring.virtual-request-threads.enabled=false"
+})
+
+@ActiveProfiles("test")
+public class ReactiveReadBenchmark extends RequestExecutionBenchmark {
+
+    @Override
+    protected String mode() {
+        return "reactive-r2dbc";
+    }
+
+    @Override
+    protected String path() {
+        return "/v1/reactive/messages?limit=20";
+    }
+}
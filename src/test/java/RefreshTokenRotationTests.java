@@ -0,0 +1,114 @@
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.ActiveProfiles;
+import ru.cazyx.semperante.learnProject.TestProjectApplication;
+import ru.cazyx.semperante.learnProject.dto.requests.AuthRequest;
+import ru.cazyx.semperante.learnProject.dto.requests.RegisterRequest;
+import ru.cazyx.semperante.learnProject.dto.responses.AuthorizationResponse;
+import ru.cazyx.semperante.learnProject.entities.LearnUser;
+import ru.cazyx.semperante.learnProject.entities.repositories.LearnUserRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Нагрузочная проверка ротации refresh-токенов: один и тот же токен отправляется параллельно из многих потоков,
+ * и новый токен должен получить ровно один запрос.
+ */
+@SpringBootTest(classes = TestProjectApplication.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.liquibase.enabled=false",
+        "spring.flyway.enabled=false"
+})
+
+@ActiveProfiles("test")
+public class RefreshTokenRotationTests {
+    private static final int THREADS = 16;
+    private static final int ROUNDS = 20;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private LearnUserRepository learnUserRepository;
+
+    private ExecutorService executor;
+
+    @BeforeEach
+    public void startExecutor() {
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @AfterEach
+    public void cleanup() {
+        executor.shutdownNow();
+        learnUserRepository.deleteAll();
+    }
+
+    @Test
+    public void testConcurrentRefreshHasExactlyOneWinner() throws Exception {
+        RegisterRequest registerRequest = new RegisterRequest("rotation", "rotation@test.test", "12345678", "12345678", LearnUser.UserRole.USER);
+        assertEquals(HttpStatus.OK, restTemplate.postForEntity("/v1/user/register", registerRequest, String.class).getStatusCode());
+        ResponseEntity<AuthorizationResponse> login = restTemplate.postForEntity("/v1/user/login", new AuthRequest("rotation", "12345678"), AuthorizationResponse.class);
+        assertEquals(HttpStatus.OK, login.getStatusCode());
+
+        String token = login.getBody().refreshToken();
+        for (int round = 0; round < ROUNDS; round++) {
+            List<ResponseEntity<AuthorizationResponse>> responses = refreshConcurrently(token);
+
+            List<AuthorizationResponse> winners = new ArrayList<>();
+            for (ResponseEntity<AuthorizationResponse> response : responses) {
+                if (response.getStatusCode() == HttpStatus.OK) {
+                    winners.add(response.getBody());
+                }
+                else {
+                    assertEquals(HttpStatus.UNAUTHORIZED, response.getStatusCode());
+                }
+            }
+            assertEquals(1, winners.size(), "Round " + round + ": exactly one refresh must succeed");
+            assertNotEquals(token, winners.get(0).refreshToken());
+            token = winners.get(0).refreshToken();
+        }
+
+        //Использованный токен больше не принимается
+        ResponseEntity<AuthorizationResponse> last = refresh(token);
+        assertEquals(HttpStatus.OK, last.getStatusCode());
+        assertEquals(HttpStatus.UNAUTHORIZED, refresh(token).getStatusCode());
+    }
+
+    /**
+     * Отправить один и тот же токен из всех потоков одновременно
+     */
+    private List<ResponseEntity<AuthorizationResponse>> refreshConcurrently(String token) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<ResponseEntity<AuthorizationResponse>>> futures = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                return refresh(token);
+            }));
+        }
+        start.countDown();
+        List<ResponseEntity<AuthorizationResponse>> responses = new ArrayList<>();
+        for (Future<ResponseEntity<AuthorizationResponse>> future : futures) {
+            responses.add(future.get(30, TimeUnit.SECONDS));
+        }
+        return responses;
+    }
+
+    private ResponseEntity<AuthorizationResponse> refresh(String token) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Authorization-Refresh", token);
+        return restTemplate.exchange("/v1/user/refresh-token", HttpMethod.POST, new HttpEntity<>(headers), AuthorizationResponse.class);
+    }
+}
@@ -0,0 +1,141 @@
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.cazyx.semperante.learnProject.config.datasource.ReplicaRoutingDataSource;
+import ru.cazyx.semperante.learnProject.config.filters.AuthorizedUser;
+import ru.cazyx.semperante.learnProject.entities.LearnUser;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Проверка маршрутизации подключений между основной БД и репликой. Вместо настоящих БД - заглушки Mockito
+ */
+public class ReplicaRoutingDataSourceTests {
+    private DataSource primary;
+    private DataSource replica;
+    private Connection primaryConnection;
+    private Connection replicaConnection;
+    private ReplicaRoutingDataSource routing;
+
+    @BeforeEach
+    public void setUp() throws SQLException {
+        primary = mock(DataSource.class);
+        replica = mock(DataSource.class);
+        primaryConnection = mock(Connection.class);
+        replicaConnection = mock(Connection.class);
+        when(primary.getConnection()).thenReturn(primaryConnection);
+        when(replica.getConnection()).thenReturn(replicaConnection);
+        routing = new ReplicaRoutingDataSource(primary, Map.of("replica-1", replica), 5000, 60_000);
+    }
+
+    @AfterEach
+    public void cleanup() {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+        TransactionSynchronizationManager.setActualTransactionActive(false);
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public void testReadOnlyTransactionGoesToReplica() throws SQLException {
+        transaction(true);
+        assertSame(replicaConnection, routing.getConnection());
+    }
+
+    @Test
+    public void testWriteTransactionGoesToPrimary() throws SQLException {
+        transaction(false);
+        assertSame(primaryConnection, routing.getConnection());
+    }
+
+    @Test
+    public void testUserReadsOwnWritesFromPrimary() throws SQLException {
+        login(1L);
+        transaction(false); //Пользователь отправил сообщение
+        assertSame(primaryConnection, routing.getConnection());
+
+        transaction(true); //И сразу читает список - реплика могла ещё не получить его сообщение
+        assertSame(primaryConnection, routing.getConnection());
+
+        login(2L); //Другой пользователь читает с реплики
+        assertSame(replicaConnection, routing.getConnection());
+    }
+
+    @Test
+    public void testPreferredReplicaIgnoresOwnWrites() throws SQLException {
+        login(1L);
+        transaction(false);
+        routing.getConnection();
+        transaction(true);
+        try (ReplicaRoutingDataSource.ReplicaPreference ignored = ReplicaRoutingDataSource.preferReplica()) { //Выгрузка
+            assertSame(replicaConnection, routing.getConnection());
+        }
+        assertSame(primaryConnection, routing.getConnection()); //Отметка снята - снова читает свои записи с основной БД
+
+        transaction(false);
+        try (ReplicaRoutingDataSource.ReplicaPreference ignored = ReplicaRoutingDataSource.preferReplica()) { //Запись реплике не отдается
+            assertSame(primaryConnection, routing.getConnection());
+        }
+    }
+
+    @Test
+    public void testDestroyClosesReplicaPoolsOnly() throws Exception {
+        HikariDataSource pool = mock(HikariDataSource.class);
+        HikariDataSource primaryPool = mock(HikariDataSource.class);
+        new ReplicaRoutingDataSource(primaryPool, Map.of("replica-1", pool), 5000, 60_000).destroy();
+        verify(pool).close();
+        verify(primaryPool, never()).close(); //Основной пул - отдельный бин, его закрывает Spring
+        routing.destroy(); //Реплика без close() просто пропускается
+    }
+
+    @Test
+    public void testFallbackToPrimaryWhenReplicaIsDown() throws SQLException {
+        when(replica.getConnection()).thenThrow(new SQLException("Connection refused"));
+        transaction(true);
+        assertSame(primaryConnection, routing.getConnection());
+        assertEquals(List.of(), routing.healthyReplicas()); //Больше не пробуем до следующей проверки
+    }
+
+    @Test
+    public void testHealthCheckExcludesAndRestoresReplica() throws SQLException {
+        PreparedStatement statement = mock(PreparedStatement.class);
+        ResultSet lag = mock(ResultSet.class);
+        when(replicaConnection.prepareStatement(anyString())).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(lag);
+        when(lag.next()).thenReturn(true);
+        transaction(true);
+
+        when(lag.getDouble(1)).thenReturn(60_000.0); //Реплика отстала на минуту
+        routing.checkReplicas();
+        assertEquals(List.of(), routing.healthyReplicas());
+        assertSame(primaryConnection, routing.getConnection());
+
+        when(lag.getDouble(1)).thenReturn(100.0); //Догнала
+        routing.checkReplicas();
+        assertEquals(List.of("replica-1"), routing.healthyReplicas());
+        assertSame(replicaConnection, routing.getConnection());
+    }
+
+    private static void transaction(boolean readOnly) {
+        TransactionSynchronizationManager.setActualTransactionActive(true);
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(readOnly);
+    }
+
+    private static void login(Long id) {
+        AuthorizedUser user = new AuthorizedUser(id, "user" + id, LearnUser.UserRole.USER, 0);
+        SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(user, null, user.authorities()));
+    }
+}
@@ -0,0 +1,173 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import ru.cazyx.semperante.learnProject.dto.requests.AuthRequest;
+import ru.cazyx.semperante.learnProject.dto.requests.RegisterRequest;
+import ru.cazyx.semperante.learnProject.dto.requests.SingleValueRequest;
+import ru.cazyx.semperante.learnProject.dto.responses.AuthorizationResponse;
+import ru.cazyx.semperante.learnProject.entities.LearnUser;
+import ru.cazyx.semperante.learnProject.entities.repositories.LearnUserRepository;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Замер пропускной способности и задержек чтения сообщений при большом количестве одновременных клиентов.
+ * <p>
+ * Один и тот же сценарий запускается в режиме обычных потоков Tomcat ({@link PlatformThreadsBenchmark}),
+ * в режиме виртуальных потоков ({@link VirtualThreadsBenchmark}) и на реактивном чтении через R2DBC ({@link ReactiveReadBenchmark}).
+ * Результаты печатаются в консоль для сравнения.
+ * Запуск: ./gradlew benchmark
+ */
+@Tag("benchmark")
+public abstract class RequestExecutionBenchmark {
+    /**
+     * Одновременных клиентов. Больше, чем потоков в пуле Tomcat по-умолчанию (200)
+     */
+    private static final int CLIENTS = 400;
+    private static final Duration WARMUP = Duration.ofSeconds(5);
+    private static final Duration MEASURE = Duration.ofSeconds(20);
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private LearnUserRepository learnUserRepository;
+
+    /**
+     * @return Название режима для вывода
+     */
+    protected abstract String mode();
+
+    /**
+     * @return Запрос, который гоняют клиенты
+     */
+    protected String path() {
+        return "/v1/messages/cursor?limit=20";
+    }
+
+    @AfterEach
+    public void cleanup() {
+        learnUserRepository.deleteAll();
+    }
+
+    @Test
+    public void benchmarkMessageListing() throws Exception {
+        String token = prepare();
+        HttpClient client = HttpClient.newBuilder().executor(Executors.newVirtualThreadPerTaskExecutor()).build();
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path()))
+                .header("Authorization", token)
+                .GET().build();
+
+        run(client, request, WARMUP); //Прогрев JIT и пула подключений
+        Result result = run(client, request, MEASURE);
+
+        System.out.printf("[%s] clients=%d requests=%d errors=%d throughput=%.1f req/s p50=%.2f ms p99=%.2f ms%n",
+                mode(), CLIENTS, result.latencies().length, result.errors(),
+                result.latencies().length / (double) MEASURE.toSeconds(),
+                percentile(result.latencies(), 0.50), percentile(result.latencies(), 0.99));
+        assertTrue(result.latencies().length > 0);
+    }
+
+    /**
+     * Зарегистрировать пользователя, создать сообщения и вернуть JWT
+     */
+    private String prepare() {
+        RegisterRequest registerRequest = new RegisterRequest("bench", "bench@test.test", "12345678", "12345678", LearnUser.UserRole.USER);
+        assertEquals(HttpStatus.OK, restTemplate.postForEntity("/v1/user/register", registerRequest, String.class).getStatusCode());
+        ResponseEntity<AuthorizationResponse> login = restTemplate.postForEntity("/v1/user/login", new AuthRequest("bench", "12345678"), AuthorizationResponse.class);
+        assertEquals(HttpStatus.OK, login.getStatusCode());
+        String token = login.getBody().token();
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Authorization", token);
+        List<String> messages = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            messages.add("Benchmark message " + i);
+        }
+        assertEquals(HttpStatus.OK, restTemplate.postForEntity("/v1/messages/batch", new HttpEntity<>(new SingleValueRequest<>(messages), headers), String.class).getStatusCode());
+        return token;
+    }
+
+    /**
+     * Гонять запросы из всех клиентов в течение duration
+     */
+    private Result run(HttpClient client, HttpRequest request, Duration duration) throws Exception {
+        long deadline = System.nanoTime() + duration.toNanos();
+        AtomicLong errors = new AtomicLong();
+        List<Future<long[]>> futures = new ArrayList<>();
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < CLIENTS; i++) {
+                futures.add(clients.submit(() -> {
+                    long[] latencies = new long[1024];
+                    int count = 0;
+                    while (System.nanoTime() < deadline) {
+                        long start = System.nanoTime();
+                        HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                        long took = System.nanoTime() - start;
+                        if (response.statusCode() != 200) {
+                            errors.incrementAndGet();
+                            continue;
+                        }
+                        if (count == latencies.length) {
+                            latencies = Arrays.copyOf(latencies, count * 2);
+                        }
+                        latencies[count++] = took;
+                    }
+                    return Arrays.copyOf(latencies, count);
+                }));
+            }
+        }
+        long[] all = new long[0];
+        for (Future<long[]> future : futures) {
+            long[] part = future.get();
+            int offset = all.length;
+            all = Arrays.copyOf(all, offset + part.length);
+            System.arraycopy(part, 0, all, offset, part.length);
+        }
+        Arrays.sort(all);
+        return new Result(all, errors.get());
+    }
+
+    /**
+     * Перцентиль отсортированных задержек в мс
+     */
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+        return sorted[Math.max(index, 0)] / 1_000_000.0;
+    }
+
+    /**
+     * Результат прогона
+     *
+     * @param latencies Задержки успешных запросов в нс, отсортированные
+     * @param errors    Количество неуспешных запросов
+     */
+    private record Result(long[] latencies, long errors) {
+    }
+}
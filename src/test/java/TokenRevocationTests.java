@@ -0,0 +1,110 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.ActiveProfiles;
+import ru.cazyx.semperante.learnProject.TestProjectApplication;
+import ru.cazyx.semperante.learnProject.dto.requests.AuthRequest;
+import ru.cazyx.semperante.learnProject.dto.requests.RegisterRequest;
+import ru.cazyx.semperante.learnProject.dto.requests.SingleValueRequest;
+import ru.cazyx.semperante.learnProject.dto.responses.AuthorizationResponse;
+import ru.cazyx.semperante.learnProject.entities.LearnUser;
+import ru.cazyx.semperante.learnProject.entities.repositories.LearnUserRepository;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Отзыв JWT через версию токенов: после выхода со всех устройств и смены роли старый токен получает 401
+ */
+@SpringBootTest(classes = TestProjectApplication.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.liquibase.enabled=false",
+        "spring.flyway.enabled=false"
+})
+
+@ActiveProfiles("test")
+public class TokenRevocationTests {
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private LearnUserRepository learnUserRepository;
+
+    @AfterEach
+    public void cleanup() {
+        learnUserRepository.deleteAll();
+    }
+
+    @Test
+    public void testLogoutAllRevokesIssuedTokens() {
+        AuthorizationResponse first = registerAndLogin("revoked", LearnUser.UserRole.USER);
+        AuthorizationResponse second = login("revoked");
+        assertEquals(HttpStatus.OK, getMe(first.token()).getStatusCode());
+        assertEquals(HttpStatus.OK, getMe(second.token()).getStatusCode()); //Пользователь уже в кэше JwtFilter
+
+        assertEquals(HttpStatus.OK, restTemplate.exchange("/v1/user/logout-all", HttpMethod.POST, new HttpEntity<>(auth(first.token())), Void.class).getStatusCode());
+
+        assertEquals(HttpStatus.UNAUTHORIZED, getMe(first.token()).getStatusCode());
+        assertEquals(HttpStatus.UNAUTHORIZED, getMe(second.token()).getStatusCode());
+        assertEquals(HttpStatus.UNAUTHORIZED, refresh(second.refreshToken()).getStatusCode());
+
+        AuthorizationResponse fresh = login("revoked"); //Новый вход снова работает
+        assertEquals(HttpStatus.OK, getMe(fresh.token()).getStatusCode());
+    }
+
+    @Test
+    public void testRoleChangeRevokesIssuedTokens() {
+        AuthorizationResponse admin = registerAndLogin("roleAdmin", LearnUser.UserRole.ADMIN);
+        AuthorizationResponse user = registerAndLogin("roleUser", LearnUser.UserRole.USER);
+        assertEquals(HttpStatus.OK, getMe(user.token()).getStatusCode());
+        Long userId = learnUserRepository.findIdByLogin("roleUser").orElseThrow();
+
+        HttpEntity<SingleValueRequest<LearnUser.UserRole>> request = new HttpEntity<>(new SingleValueRequest<>(LearnUser.UserRole.MODERATOR), auth(user.token()));
+        assertEquals(HttpStatus.FORBIDDEN, restTemplate.exchange("/v1/user/admin/role/" + userId, HttpMethod.PUT, request, Void.class).getStatusCode());
+
+        request = new HttpEntity<>(new SingleValueRequest<>(LearnUser.UserRole.MODERATOR), auth(admin.token()));
+        assertEquals(HttpStatus.OK, restTemplate.exchange("/v1/user/admin/role/" + userId, HttpMethod.PUT, request, Void.class).getStatusCode());
+        assertEquals(HttpStatus.NOT_FOUND, restTemplate.exchange("/v1/user/admin/role/" + (userId + 1000), HttpMethod.PUT, request, Void.class).getStatusCode());
+
+        assertEquals(HttpStatus.UNAUTHORIZED, getMe(user.token()).getStatusCode());
+        ResponseEntity<AuthorizationResponse> refreshed = refresh(user.refreshToken()); //Токен перевыпуска жив, новый JWT - уже с новой ролью
+        assertEquals(HttpStatus.OK, refreshed.getStatusCode());
+        assertEquals(HttpStatus.OK, getMe(refreshed.getBody().token()).getStatusCode());
+        assertEquals(LearnUser.UserRole.MODERATOR, learnUserRepository.findById(userId).orElseThrow().getRole());
+    }
+
+    private AuthorizationResponse registerAndLogin(String login, LearnUser.UserRole role) {
+        RegisterRequest registerRequest = new RegisterRequest(login, login + "@test.test", "12345678", "12345678", role);
+        assertEquals(HttpStatus.OK, restTemplate.postForEntity("/v1/user/register", registerRequest, String.class).getStatusCode());
+        return login(login);
+    }
+
+    private AuthorizationResponse login(String login) {
+        ResponseEntity<AuthorizationResponse> response = restTemplate.postForEntity("/v1/user/login", new AuthRequest(login, "12345678"), AuthorizationResponse.class);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        return response.getBody();
+    }
+
+    private ResponseEntity<String> getMe(String token) {
+        return restTemplate.exchange("/v1/user/me", HttpMethod.GET, new HttpEntity<>(auth(token)), String.class);
+    }
+
+    private ResponseEntity<AuthorizationResponse> refresh(String refreshToken) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Authorization-Refresh", refreshToken);
+        return restTemplate.exchange("/v1/user/refresh-token", HttpMethod.POST, new HttpEntity<>(headers), AuthorizationResponse.class);
+    }
+
+    private static HttpHeaders auth(String token) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Authorization", token);
+        return headers;
+    }
+}
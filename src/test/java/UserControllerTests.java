@@ -7,14 +7,19 @@ import org.springframework.boot.test.web.server.LocalServerPort;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
 import ru.cazyx.semperante.learnProject.TestProjectApplication;
+import ru.cazyx.semperante.learnProject.dto.requests.AuthRequest;
 import ru.cazyx.semperante.learnProject.dto.requests.RegisterRequest;
+import ru.cazyx.semperante.learnProject.dto.responses.AuthorizationResponse;
 import ru.cazyx.semperante.learnProject.entities.LearnUser;
 import ru.cazyx.semperante.learnProject.entities.repositories.LearnUserRepository;
 
 import javax.annotation.PostConstruct;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @SpringBootTest(classes = TestProjectApplication.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
@@ -73,6 +78,47 @@ public class UserControllerTests {
         assertEquals(0, learnUserRepository.findAll().size());
     }
 
+    @Test
+    @Order(4)
+    public void testLoginAvailability() throws Exception {
+        RegisterRequest registerRequest = new RegisterRequest("taken", "taken@test.test", "12345678", "12345678", LearnUser.UserRole.USER);
+        mockMvc.perform(post(host + "/v1/user/register")
+                        .contentType("application/json")
+                        .content(objectMapper.writeValueAsString(registerRequest)))
+                .andExpect(status().isOk());
+        mockMvc.perform(get(host + "/v1/user/available").param("login", "TAKEN"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.available").value(false));
+        mockMvc.perform(get(host + "/v1/user/available").param("login", "free_login"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.available").value(true));
+        mockMvc.perform(get(host + "/v1/user/available").param("login", "no spaces"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @Order(5)
+    public void testMeReturnsUserModel() throws Exception {
+        RegisterRequest registerRequest = new RegisterRequest("me", "me@test.test", "12345678", "12345678", LearnUser.UserRole.USER);
+        mockMvc.perform(post(host + "/v1/user/register")
+                        .contentType("application/json")
+                        .content(objectMapper.writeValueAsString(registerRequest)))
+                .andExpect(status().isOk());
+        String login = mockMvc.perform(post(host + "/v1/user/login")
+                        .contentType("application/json")
+                        .content(objectMapper.writeValueAsString(new AuthRequest("me", "12345678"))))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        String token = objectMapper.readValue(login, AuthorizationResponse.class).token();
+        mockMvc.perform(get(host + "/v1/user/me").header("Authorization", token))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.login").value("me"))
+                .andExpect(jsonPath("$.email").value("me@test.test"))
+                .andExpect(jsonPath("$.role").value("USER"))
+                .andExpect(jsonPath("$.registeredAt", notNullValue()))
+                .andExpect(jsonPath("$.tokenVersion").doesNotExist())
+                .andExpect(jsonPath("$.selfContained").doesNotExist());
+    }
 
     @PostConstruct
     public void setHost() {
@@ -0,0 +1,44 @@
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import ru.cazyx.semperante.learnProject.config.filters.AuthorizedUser;
+import ru.cazyx.semperante.learnProject.config.filters.JwtUtils;
+import ru.cazyx.semperante.learnProject.config.filters.VerifiedTokenCache;
+import ru.cazyx.semperante.learnProject.entities.LearnUser;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Проверка кэша проверенных JWT
+ */
+public class VerifiedTokenCacheTests {
+    private final AuthorizedUser user = new AuthorizedUser(7L, "cached", LearnUser.UserRole.USER, 3);
+
+    @Test
+    public void testRepeatedTokenIsServedFromCache() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        VerifiedTokenCache cache = new VerifiedTokenCache(true, 100, meterRegistry);
+        JwtUtils jwtUtils = new JwtUtils("testSalt", meterRegistry, cache);
+        String token = jwtUtils.encode(user);
+
+        assertNull(cache.get(token));
+        assertEquals(user, jwtUtils.decode(token));
+        assertEquals(user, cache.get(new String(token))); //Та же строка из нового заголовка
+        assertNull(cache.get(token + "x"));
+    }
+
+    @Test
+    public void testEntryDoesNotOutliveToken() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(true, 100, new SimpleMeterRegistry());
+        cache.put("expired", user, System.currentTimeMillis() - 1);
+        assertNull(cache.get("expired"));
+        cache.put("valid", user, System.currentTimeMillis() + 60_000);
+        assertEquals(user, cache.get("valid"));
+    }
+
+    @Test
+    public void testDisabledCacheStoresNothing() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(false, 100, new SimpleMeterRegistry());
+        cache.put("token", user, System.currentTimeMillis() + 60_000);
+        assertNull(cache.get("token"));
+    }
+}